@@ -0,0 +1,324 @@
+// DeferredEnrichment.java
+package org.apache.tika.parallel;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.tika.metadata.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Deferred enrichment: the parse returns as soon as the document itself is
+ * parsed, with a placeholder carrying a stable ID where each image analysis
+ * would go, and the analyses land here when they finish.
+ *
+ * Results are kept as one JSON file per image under
+ * {@code <dir>/<documentId>/<imageId>.json} (status pending, done or error)
+ * and can be read with {@link #document(String)} / {@link #image(String, String)},
+ * over HTTP at {@code GET /vlm/results/<documentId>[/<imageId>]} when a port is
+ * set, or pushed: once every image of a document is done, the document's
+ * results are POSTed as JSON to the callback URL.
+ *
+ * -Dtika.vlm.deferred=true (TIKA_VLM_DEFERRED) enables it. Tuning:
+ * tika.vlm.deferred.dir (default java.io.tmpdir/tika-vlm-results),
+ * tika.vlm.deferred.callback (URL, default none),
+ * tika.vlm.deferred.port (query port, default none),
+ * tika.vlm.deferred.host (address the query port binds, default loopback;
+ * the endpoint has no authentication, so expose it only behind one),
+ * tika.vlm.deferred.ttlHours (results kept, default 24).
+ * A document ID passed in as vlm:document-id is kept; otherwise a random one
+ * is assigned. Either way it is returned in the document metadata.
+ */
+final class DeferredEnrichment {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeferredEnrichment.class);
+
+    static final String DOCUMENT_ID = "vlm:document-id";
+
+    // Leading alphanumeric: no "." or ".." that would resolve outside the results directory
+    private static final Pattern SAFE_ID = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]{0,127}");
+
+    private static volatile DeferredEnrichment instance;
+
+    private final Path dir;
+    private final URI callback;
+    private final long ttlMillis;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ConcurrentMap<String, DocumentState> open = new ConcurrentHashMap<>();
+    private final HttpClient client;
+
+    DeferredEnrichment(Path dir, URI callback, long ttlMillis) throws IOException {
+        this.dir = dir;
+        this.callback = callback;
+        this.ttlMillis = ttlMillis;
+        this.client = callback == null ? null
+                : HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        Files.createDirectories(dir);
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "vlm-deferred-sweep");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, 0, 1, TimeUnit.HOURS);
+    }
+
+    /** Shared store, or null when deferred enrichment is not enabled. */
+    static DeferredEnrichment get() {
+        DeferredEnrichment d = instance;
+        if (d != null) return d;
+        synchronized (DeferredEnrichment.class) {
+            if (instance == null) {
+                if (!Boolean.parseBoolean(System.getProperty("tika.vlm.deferred",
+                        System.getenv().getOrDefault("TIKA_VLM_DEFERRED", "false")))) {
+                    return null;
+                }
+                String dir = System.getProperty("tika.vlm.deferred.dir", System.getenv().getOrDefault(
+                        "TIKA_VLM_DEFERRED_DIR", Paths.get(System.getProperty("java.io.tmpdir"),
+                                "tika-vlm-results").toString()));
+                String callback = System.getProperty("tika.vlm.deferred.callback",
+                        System.getenv("TIKA_VLM_DEFERRED_CALLBACK"));
+                String port = System.getProperty("tika.vlm.deferred.port", System.getenv("TIKA_VLM_DEFERRED_PORT"));
+                String host = System.getProperty("tika.vlm.deferred.host", System.getenv("TIKA_VLM_DEFERRED_HOST"));
+                String ttl = System.getProperty("tika.vlm.deferred.ttlHours",
+                        System.getenv().getOrDefault("TIKA_VLM_DEFERRED_TTL_HOURS", "24"));
+                try {
+                    instance = new DeferredEnrichment(Paths.get(dir.trim()),
+                            callback == null || callback.trim().isEmpty() ? null : URI.create(callback.trim()),
+                            TimeUnit.HOURS.toMillis(Long.parseLong(ttl.trim())));
+                    if (port != null && !port.trim().isEmpty()) {
+                        instance.serve(host, Integer.parseInt(port.trim()));
+                    }
+                    LOGGER.info("[Deferred] results in {} (callback={}, port={}, host={})", dir, callback, port,
+                            host == null ? "loopback" : host);
+                } catch (IOException | IllegalArgumentException e) {
+                    LOGGER.warn("[Deferred] cannot enable: {}", e.getMessage());
+                    return null;
+                }
+            }
+            return instance;
+        }
+    }
+
+    /** The incoming document ID if it is usable as a file name, else a new one. */
+    static String documentId(Metadata metadata) {
+        String id = metadata.get(DOCUMENT_ID);
+        return id != null && SAFE_ID.matcher(id).matches() ? id : UUID.randomUUID().toString();
+    }
+
+    /**
+     * Stable image ID for a resource path, e.g. "/image3.png" -> "image3.png-2a0855119a24".
+     * The readable part is the path with unsafe characters replaced; the hash
+     * of the raw path keeps paths that read the same (e.g. "/a b.png" and
+     * "/a_b.png") apart.
+     */
+    static String imageId(String resourcePath) {
+        String name = resourcePath.replaceAll("[^A-Za-z0-9._-]", "_").replaceFirst("^[^A-Za-z0-9]+", "");
+        String hash = shortHash(resourcePath);
+        if (name.isEmpty()) return hash;
+        return name.substring(0, Math.min(name.length(), 100)) + "-" + hash;
+    }
+
+    private static String shortHash(String s) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(12);
+            for (int i = 0; i < 6; i++) {
+                sb.append(Character.forDigit((d[i] >> 4) & 0xF, 16)).append(Character.forDigit(d[i] & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Records an image whose analysis will arrive later. */
+    void pending(String documentId, String resourcePath) {
+        open.computeIfAbsent(documentId, k -> new DocumentState()).pending.incrementAndGet();
+        write(documentId, resourcePath, "pending", null, null);
+    }
+
+    /** Stores a finished analysis; {@code md} is null when the task failed outright. */
+    void complete(String documentId, String resourcePath, Metadata md, Throwable error) {
+        String reason = error != null ? error.toString() : md.get("vlm:error");
+        write(documentId, resourcePath, reason == null ? "done" : "error", md, reason);
+        DocumentState state = open.get(documentId);
+        if (state != null && state.pending.decrementAndGet() == 0 && state.sealed) {
+            finish(documentId, state);
+        }
+    }
+
+    /** The parse is over: no more images will be registered for the document. */
+    void seal(String documentId) {
+        DocumentState state = open.get(documentId);
+        if (state == null) {
+            // No images: callback consumers still get an (empty) result
+            finish(documentId, new DocumentState());
+            return;
+        }
+        state.sealed = true;
+        if (state.pending.get() == 0) {
+            finish(documentId, state);
+        }
+    }
+
+    /** All stored results of a document, or null if it is unknown. */
+    ObjectNode document(String documentId) throws IOException {
+        if (!SAFE_ID.matcher(documentId).matches()) return null;
+        Path docDir = dir.resolve(documentId);
+        if (!Files.isDirectory(docDir)) return null;
+        ObjectNode doc = mapper.createObjectNode();
+        doc.put("documentId", documentId);
+        ArrayNode images = doc.putArray("images");
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(docDir, "*.json")) {
+            for (Path f : files) {
+                images.add(mapper.readTree(f.toFile()));
+            }
+        }
+        return doc;
+    }
+
+    /** The stored result of one image, or null if it is unknown. */
+    ObjectNode image(String documentId, String imageId) throws IOException {
+        if (!SAFE_ID.matcher(documentId).matches() || !SAFE_ID.matcher(imageId).matches()) return null;
+        Path f = dir.resolve(documentId).resolve(imageId + ".json");
+        return Files.exists(f) ? (ObjectNode) mapper.readTree(f.toFile()) : null;
+    }
+
+    private void finish(String documentId, DocumentState state) {
+        if (!state.finished.compareAndSet(false, true)) return;
+        open.remove(documentId, state);
+        LOGGER.info("[Deferred] document {} complete", documentId);
+        if (client == null) return;
+        try {
+            ObjectNode doc = document(documentId);
+            if (doc == null) {
+                doc = mapper.createObjectNode();
+                doc.put("documentId", documentId);
+                doc.putArray("images");
+            }
+            HttpRequest request = HttpRequest.newBuilder(callback)
+                    .timeout(Duration.ofSeconds(30))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(doc)))
+                    .build();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((r, e) -> {
+                if (e != null || r.statusCode() / 100 != 2) {
+                    LOGGER.warn("[Deferred] callback for {} failed: {}", documentId,
+                            e != null ? e.toString() : "status " + r.statusCode());
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.warn("[Deferred] cannot build callback for {}: {}", documentId, e.getMessage());
+        }
+    }
+
+    private void write(String documentId, String resourcePath, String status, Metadata md, String error) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("documentId", documentId);
+        node.put("imageId", imageId(resourcePath));
+        node.put("path", resourcePath);
+        node.put("status", status);
+        if (md != null) {
+            node.put("analysis", md.get("vlm:analysis"));
+            node.put("provider", md.get("vlm:provider"));
+            node.put("model", md.get("vlm:model"));
+        }
+        if (error != null) {
+            node.put("error", error);
+        }
+        node.put("updated", System.currentTimeMillis());
+        try {
+            Path docDir = Files.createDirectories(dir.resolve(documentId));
+            Path target = docDir.resolve(imageId(resourcePath) + ".json");
+            Path tmp = Files.createTempFile(docDir, ".result", ".tmp");
+            Files.write(tmp, mapper.writeValueAsBytes(node));
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("[Deferred] cannot store {}{}: {}", documentId, resourcePath, e.getMessage());
+        }
+    }
+
+    /** Drops documents not updated for ttlHours. */
+    private void sweep() {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        try (DirectoryStream<Path> docs = Files.newDirectoryStream(dir)) {
+            for (Path doc : docs) {
+                if (Files.getLastModifiedTime(doc).toMillis() < cutoff && !open.containsKey(doc.getFileName().toString())) {
+                    try (Stream<Path> paths = Files.walk(doc)) {
+                        paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.debug("[Deferred] sweep failed: {}", e.getMessage());
+        }
+    }
+
+    private void serve(String host, int port) throws IOException {
+        InetAddress address = host == null || host.trim().isEmpty()
+                ? InetAddress.getLoopbackAddress() : InetAddress.getByName(host.trim());
+        HttpServer server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/vlm/results/", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "vlm-deferred-http");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.start();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String[] parts = exchange.getRequestURI().getPath().substring("/vlm/results/".length()).split("/");
+            ObjectNode body = !"GET".equals(exchange.getRequestMethod()) ? null
+                    : parts.length == 1 ? document(parts[0])
+                    : parts.length == 2 ? image(parts[0], parts[1]) : null;
+            byte[] out = body == null ? "{}".getBytes(StandardCharsets.UTF_8) : mapper.writeValueAsBytes(body);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(body == null ? 404 : 200, out.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(out);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static final class DocumentState {
+        final AtomicInteger pending = new AtomicInteger();
+        final AtomicBoolean finished = new AtomicBoolean();
+        volatile boolean sealed;
+    }
+}
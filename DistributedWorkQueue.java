@@ -0,0 +1,475 @@
+// DistributedWorkQueue.java
+package org.apache.tika.parallel;
+
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.parser.vision.VlmRedisClient;
+import org.apache.tika.parser.vision.VlmSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Distributed mode for image analysis: instead of running on the local
+ * worker pool, the factory publishes each embedded image as a task to a
+ * shared broker. Workers on any node take tasks, run the analysis and send
+ * the result back to the node the task came from, where it completes the
+ * parse's future; injection stays in document order as before. A large PDF
+ * landing on one node is thus analyzed by the whole cluster.
+ *
+ * -Dtika.vlm.queue (TIKA_VLM_QUEUE) picks the broker and enables the mode:
+ * {@code redis://[:password@]host:port[/db]} (Redis lists: tasks are LPUSHed
+ * to tika:vlm:queue and taken with BRPOP, results go to tika:vlm:reply:<node>),
+ * {@code memory} for an in-process stand-in (one JVM, tests), or the class
+ * name of a {@link Broker} with a no-argument constructor. Tuning:
+ * tika.vlm.queue.workers (consumer threads on this node, default 6, 0 =
+ * publish only), tika.vlm.queue.node (reply channel name, default pid@host),
+ * tika.vlm.queue.timeoutSeconds (how long a parse waits for a result, default
+ * 600; the image then gets vlm:error queue-timeout).
+ *
+ * Nodes that only analyze run {@code java -cp ... org.apache.tika.parallel.DistributedWorkQueue}
+ * with the same tika.vlm.* settings and tika-config (-Dtika.config).
+ * Delivery is at most once: a task taken by a worker that dies is not
+ * retried and its parse times out.
+ */
+public final class DistributedWorkQueue {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DistributedWorkQueue.class);
+
+    private static final int TASK_MAGIC = 0x544b5631; // "TKV1"
+    private static final int RESULT_MAGIC = 0x524b5631; // "RKV1"
+    private static final long POLL_MILLIS = 1000;
+
+    private static volatile DistributedWorkQueue instance;
+
+    private final Broker broker;
+    private final String node;
+    private final long timeoutSeconds;
+    private final ConcurrentMap<String, CompletableFuture<Metadata>> pending = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "vlm-queue-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+
+    /**
+     * Shared task queue plus one reply channel per node. Taking may block for
+     * up to {@code timeoutMillis} and returns null when nothing arrived.
+     */
+    public interface Broker {
+        void publish(byte[] task) throws IOException;
+
+        byte[] take(long timeoutMillis) throws IOException, InterruptedException;
+
+        void reply(String node, byte[] result) throws IOException;
+
+        byte[] takeReply(String node, long timeoutMillis) throws IOException, InterruptedException;
+    }
+
+    private DistributedWorkQueue(Broker broker, String node, long timeoutSeconds) {
+        this.broker = broker;
+        this.node = node;
+        this.timeoutSeconds = Math.max(1, timeoutSeconds);
+        // Answered tasks drop their timeout instead of keeping it queued
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /** Shared queue, or null when tika.vlm.queue is not set. Starts this node's workers on first use. */
+    static DistributedWorkQueue get() {
+        DistributedWorkQueue q = instance;
+        if (q != null) return q;
+        synchronized (DistributedWorkQueue.class) {
+            if (instance == null) {
+                String spec = System.getProperty("tika.vlm.queue", System.getenv("TIKA_VLM_QUEUE"));
+                if (spec == null || spec.trim().isEmpty()) {
+                    return null;
+                }
+                Broker broker;
+                try {
+                    broker = broker(spec.trim());
+                } catch (ReflectiveOperationException | ClassCastException | IllegalArgumentException e) {
+                    LOGGER.warn("Invalid VLM queue broker '{}': {}", spec, e.toString());
+                    return null;
+                }
+                String node = System.getProperty("tika.vlm.queue.node", System.getenv("TIKA_VLM_QUEUE_NODE"));
+                q = new DistributedWorkQueue(broker,
+                        node != null ? node.trim() : ManagementFactory.getRuntimeMXBean().getName(),
+                        VlmSettings.intProperty("tika.vlm.queue.timeoutSeconds", "TIKA_VLM_QUEUE_TIMEOUT_SECONDS", 600));
+                q.startReplyListener();
+                int workers = VlmSettings.intProperty("tika.vlm.queue.workers", "TIKA_VLM_QUEUE_WORKERS", 6);
+                q.startWorkers(workers);
+                LOGGER.info("VLM work queue: {} as node {} with {} local workers",
+                        broker.getClass().getSimpleName(), q.node, workers);
+                instance = q;
+            }
+            return instance;
+        }
+    }
+
+    /** Worker-only node: consumes tasks until the process is stopped. */
+    public static void main(String[] args) throws Exception {
+        if (get() == null) {
+            System.err.println("Set -Dtika.vlm.queue (redis://host:port or a Broker class name)");
+            System.exit(2);
+        }
+        Thread.currentThread().join();
+    }
+
+    private static Broker broker(String spec) throws ReflectiveOperationException {
+        if ("memory".equalsIgnoreCase(spec)) {
+            return new MemoryBroker();
+        }
+        if (spec.startsWith("redis://")) {
+            return new RedisBroker(URI.create(spec));
+        }
+        return (Broker) Class.forName(spec).getDeclaredConstructor().newInstance();
+    }
+
+    /**
+     * Publishes an analysis of {@code data}; {@code mdCopy} goes along with
+     * the task and the returned future completes with the worker's metadata.
+     * Cancelling it only stops waiting: a worker that already took the task
+     * still runs it.
+     */
+    CompletableFuture<Metadata> submit(byte[] data, Metadata mdCopy) {
+        String id = UUID.randomUUID().toString();
+        CompletableFuture<Metadata> fut = new CompletableFuture<>();
+        pending.put(id, fut);
+        fut.whenComplete((md, err) -> pending.remove(id));
+        try {
+            broker.publish(encodeTask(id, node, mdCopy, data));
+            published.incrementAndGet();
+        } catch (IOException e) {
+            LOGGER.warn("[Queue] publish failed for {}: {}", mdCopy.get("resourceName"), e.toString());
+            mdCopy.add("vlm:error", "queue-publish-failed:" + e.getClass().getSimpleName());
+            fut.complete(mdCopy);
+            return fut;
+        }
+        ScheduledFuture<?> timeout = timer.schedule(() -> {
+            mdCopy.add("vlm:error", "queue-timeout");
+            fut.complete(mdCopy);
+        }, timeoutSeconds, TimeUnit.SECONDS);
+        fut.whenComplete((md, err) -> timeout.cancel(false));
+        return fut;
+    }
+
+    long published() {
+        return published.get();
+    }
+
+    long processed() {
+        return processed.get();
+    }
+
+    private void startReplyListener() {
+        Thread t = new Thread(() -> {
+            while (true) {
+                try {
+                    byte[] reply = broker.takeReply(node, POLL_MILLIS);
+                    if (reply != null) complete(reply);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    LOGGER.warn("[Queue] reading replies failed: {}", e.toString());
+                    pause();
+                }
+            }
+        }, "vlm-queue-replies");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void complete(byte[] reply) throws IOException {
+        Message result = decodeResult(reply);
+        CompletableFuture<Metadata> fut = pending.get(result.id);
+        if (fut == null) {
+            LOGGER.debug("[Queue] late result {} dropped", result.id);
+        } else {
+            fut.complete(result.metadata);
+        }
+    }
+
+    private void startWorkers(int workers) {
+        if (workers <= 0) return;
+        // Same parsers as a local parse: the tika-config given by -Dtika.config
+        // maps the image types to the VLM parser
+        Parser parser = new AutoDetectParser(TikaConfig.getDefaultConfig());
+        for (int i = 0; i < workers; i++) {
+            Thread t = new Thread(() -> consume(parser), "vlm-queue-worker-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private void consume(Parser parser) {
+        while (true) {
+            byte[] task;
+            try {
+                task = broker.take(POLL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                LOGGER.warn("[Queue] taking tasks failed: {}", e.toString());
+                pause();
+                continue;
+            }
+            if (task == null) continue;
+            try {
+                run(parser, task);
+            } catch (Throwable t) {
+                // Keep the worker alive; that task's parse times out
+                LOGGER.warn("[Queue] task failed: {}", t.toString());
+            }
+        }
+    }
+
+    private void run(Parser parser, byte[] task) throws IOException {
+        Message t = decodeTask(task);
+        Metadata md = t.metadata;
+        LOGGER.info("[Queue] task START {} from {}", md.get("resourceName"), t.replyTo);
+        ParseContext context = new ParseContext();
+        context.set(Parser.class, parser);
+        try (ByteArrayInputStream bais = new ByteArrayInputStream(t.data)) {
+            parser.parse(bais, new DefaultHandler(), md, context);
+        } catch (Exception e) {
+            md.add("vlm:error", "parseEmbedded-failed:" + e.getClass().getSimpleName());
+            LOGGER.warn("[Queue] task ERROR {} – {}", md.get("resourceName"), e.toString());
+        }
+        md.set("vlm:worker", node);
+        broker.reply(t.replyTo, encodeResult(t.id, md));
+        processed.incrementAndGet();
+    }
+
+    private static void pause() {
+        try {
+            Thread.sleep(POLL_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ===== wire format =====
+
+    /** A decoded task, or a result (no {@code replyTo} or {@code data}). */
+    static final class Message {
+        final String id;
+        final String replyTo;
+        final Metadata metadata;
+        final byte[] data;
+
+        private Message(String id, String replyTo, Metadata metadata, byte[] data) {
+            this.id = id;
+            this.replyTo = replyTo;
+            this.metadata = metadata;
+            this.data = data;
+        }
+    }
+
+    static byte[] encodeTask(String id, String replyTo, Metadata md, byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 512);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(TASK_MAGIC);
+            out.writeUTF(id);
+            out.writeUTF(replyTo);
+            writeMetadata(out, md);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] encodeResult(String id, Metadata md) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(RESULT_MAGIC);
+            out.writeUTF(id);
+            writeMetadata(out, md);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Message decodeTask(byte[] task) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(task))) {
+            if (in.readInt() != TASK_MAGIC) throw new IOException("Not a VLM task");
+            String id = in.readUTF();
+            String replyTo = in.readUTF();
+            Metadata md = readMetadata(in);
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return new Message(id, replyTo, md, data);
+        }
+    }
+
+    static Message decodeResult(byte[] result) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(result))) {
+            if (in.readInt() != RESULT_MAGIC) throw new IOException("Not a VLM result");
+            String id = in.readUTF();
+            return new Message(id, null, readMetadata(in), null);
+        }
+    }
+
+    private static void writeMetadata(DataOutputStream out, Metadata md) throws IOException {
+        String[] names = md.names();
+        out.writeInt(names.length);
+        for (String n : names) {
+            String[] values = md.getValues(n);
+            writeString(out, n);
+            out.writeInt(values.length);
+            for (String v : values) writeString(out, v);
+        }
+    }
+
+    private static Metadata readMetadata(DataInputStream in) throws IOException {
+        Metadata md = new Metadata();
+        int names = in.readInt();
+        for (int i = 0; i < names; i++) {
+            String n = readString(in);
+            int values = in.readInt();
+            for (int j = 0; j < values; j++) md.add(n, readString(in));
+        }
+        return md;
+    }
+
+    // writeUTF is capped at 64K, analyses may be longer
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /** In-process stand-in: every "node" in this JVM shares the queues. */
+    static final class MemoryBroker implements Broker {
+        private static final BlockingQueue<byte[]> TASKS = new LinkedBlockingQueue<>();
+        private static final ConcurrentMap<String, BlockingQueue<byte[]>> REPLIES = new ConcurrentHashMap<>();
+
+        @Override
+        public void publish(byte[] task) {
+            TASKS.add(task);
+        }
+
+        @Override
+        public byte[] take(long timeoutMillis) throws InterruptedException {
+            return TASKS.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void reply(String node, byte[] result) {
+            replies(node).add(result);
+        }
+
+        @Override
+        public byte[] takeReply(String node, long timeoutMillis) throws InterruptedException {
+            return replies(node).poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private static BlockingQueue<byte[]> replies(String node) {
+            return REPLIES.computeIfAbsent(node, n -> new LinkedBlockingQueue<>());
+        }
+    }
+
+    /**
+     * Redis lists over {@link VlmRedisClient}. Publishing and replying share
+     * one connection; every thread that blocks in BRPOP has its own, since a
+     * blocked connection cannot carry other commands.
+     */
+    static final class RedisBroker implements Broker {
+        private static final String TASKS = "tika:vlm:queue";
+        private static final String REPLIES = "tika:vlm:reply:";
+        // Replies of a node that went away do not pile up forever
+        private static final String REPLY_TTL_SECONDS = "3600";
+
+        private final VlmRedisClient client;
+        private VlmRedisClient.Connection shared;
+        private final ThreadLocal<VlmRedisClient.Connection> blocking = new ThreadLocal<>();
+
+        RedisBroker(URI uri) {
+            this.client = new VlmRedisClient(uri);
+        }
+
+        @Override
+        public void publish(byte[] task) throws IOException {
+            command(bytes("LPUSH"), bytes(TASKS), task);
+        }
+
+        @Override
+        public void reply(String node, byte[] result) throws IOException {
+            synchronized (this) {
+                command(bytes("LPUSH"), bytes(REPLIES + node), result);
+                command(bytes("EXPIRE"), bytes(REPLIES + node), bytes(REPLY_TTL_SECONDS));
+            }
+        }
+
+        @Override
+        public byte[] take(long timeoutMillis) throws IOException {
+            return pop(TASKS, timeoutMillis);
+        }
+
+        @Override
+        public byte[] takeReply(String node, long timeoutMillis) throws IOException {
+            return pop(REPLIES + node, timeoutMillis);
+        }
+
+        private synchronized Object command(byte[]... args) throws IOException {
+            if (shared == null) shared = client.connect();
+            try {
+                return shared.call(args);
+            } catch (IOException e) {
+                shared.close();
+                shared = null;
+                throw e;
+            }
+        }
+
+        private byte[] pop(String key, long timeoutMillis) throws IOException {
+            VlmRedisClient.Connection c = blocking.get();
+            if (c == null) {
+                c = client.connect();
+                blocking.set(c);
+            }
+            long seconds = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(timeoutMillis));
+            try {
+                Object reply = c.call(bytes("BRPOP"), bytes(key), bytes(String.valueOf(seconds)));
+                return reply == null ? null : (byte[]) ((Object[]) reply)[1];
+            } catch (IOException e) {
+                c.close();
+                blocking.remove();
+                throw e;
+            }
+        }
+
+        private static byte[] bytes(String s) {
+            return VlmRedisClient.bytes(s);
+        }
+    }
+}
@@ -0,0 +1,561 @@
+// DocumentOutputCache.java
+package org.apache.tika.parallel;
+
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.vision.VlmSettings;
+import org.apache.tika.sax.ContentHandlerDecorator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Disk cache of whole parse results (SAX events plus the document metadata),
+ * keyed by a SHA-256 of the document bytes, the incoming metadata hints and
+ * the VLM settings that shape the output. A hit replays the recorded events
+ * to the handler without parsing or calling the VLM.
+ *
+ * Results where any image analysis failed or was deferred are not stored, so
+ * a later submission gets the full analysis.
+ *
+ * -Dtika.vlm.docCache.dir (TIKA_VLM_DOC_CACHE_DIR) enables it.
+ * -Dtika.vlm.docCache.maxMB (TIKA_VLM_DOC_CACHE_MAX_MB) bounds the directory,
+ * default 1024; least recently used entries are evicted down to 90%. A single
+ * entry may take at most a quarter of the budget.
+ */
+final class DocumentOutputCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DocumentOutputCache.class);
+
+    private static final int MAGIC = 0x54444f43; // "TDOC"
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".cache";
+
+    // Settings that change what a parse produces. VlmPipelineControl writes
+    // runtime changes back to these properties; output mode and skip filters
+    // are read from their owners since only those hold the live values.
+    private static final String[] CONFIG_KEYS = {
+            "tika.vlm.provider", "tika.vlm.model", "tika.vlm.prompt", "tika.vlm.endpoint",
+            "tika.vlm.endpoints", "tika.vlm.maxTokens", "tika.vlm.maxImageSize", "tika.vlm.modelRules",
+            "tika.vlm.promptCache", "tika.vlm.structured",
+            "tika.vlm.tiering", "tika.vlm.tier.minOcrChars", "tika.vlm.tier.minOcrConfidence",
+            "tika.vlm.tier.maxColour",
+            "tika.vlm.tiling", "tika.vlm.tile.size", "tika.vlm.tile.overlap", "tika.vlm.tile.triggerPixels",
+            "tika.vlm.tile.maxTiles", "tika.vlm.tile.summarize",
+            "tika.vlm.frames", "tika.vlm.frames.maxPages", "tika.vlm.frames.maxFrames",
+            "tika.vlm.frames.diffThreshold",
+            "tika.vlm.video", "tika.vlm.video.sceneThreshold", "tika.vlm.video.minGapSeconds",
+            "tika.vlm.video.maxScenes", "tika.vlm.video.maxWidth",
+            "tika.vlm.pdf.renderPages", "tika.vlm.pdf.dpi", "tika.vlm.pdf.scannedMaxChars",
+            "tika.vlm.pdf.samplePages",
+            "tika.vlm.docCache.salt"
+    };
+    private static final String[] CONFIG_ENV = new String[CONFIG_KEYS.length];
+
+    static {
+        for (int i = 0; i < CONFIG_KEYS.length; i++) {
+            CONFIG_ENV[i] = CONFIG_KEYS[i].replace('.', '_')
+                    .replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase(Locale.ROOT);
+        }
+    }
+
+    private static final byte START_DOCUMENT = 1;
+    private static final byte END_DOCUMENT = 2;
+    private static final byte START_PREFIX = 3;
+    private static final byte END_PREFIX = 4;
+    private static final byte START_ELEMENT = 5;
+    private static final byte END_ELEMENT = 6;
+    private static final byte CHARACTERS = 7;
+    private static final byte WHITESPACE = 8;
+    private static final byte END = 0;
+
+    private static volatile DocumentOutputCache instance;
+
+    private final Path dir;
+    private final long maxBytes;
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private DocumentOutputCache(Path dir, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(dir);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path p : entries) {
+                String name = p.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(p);
+                } else if (name.endsWith(SUFFIX)) {
+                    totalBytes.addAndGet(Files.size(p));
+                }
+            }
+        }
+    }
+
+    /** Shared cache, or null when no cache directory is configured. */
+    static DocumentOutputCache get() {
+        DocumentOutputCache c = instance;
+        if (c != null) return c;
+        synchronized (DocumentOutputCache.class) {
+            if (instance == null) {
+                String dir = System.getProperty("tika.vlm.docCache.dir", System.getenv("TIKA_VLM_DOC_CACHE_DIR"));
+                if (dir == null || dir.trim().isEmpty()) {
+                    return null;
+                }
+                long maxMb = VlmSettings.intProperty("tika.vlm.docCache.maxMB", "TIKA_VLM_DOC_CACHE_MAX_MB", 1024);
+                try {
+                    instance = new DocumentOutputCache(Paths.get(dir.trim()), maxMb * 1024 * 1024);
+                    LOGGER.info("[DocCache] {} ({} MB max, {} bytes in use)", dir, maxMb, instance.totalBytes.get());
+                } catch (IOException e) {
+                    LOGGER.warn("[DocCache] cannot use {}: {}", dir, e.getMessage());
+                    return null;
+                }
+            }
+            return instance;
+        }
+    }
+
+    /** Cache key for the spooled document and the metadata hints it arrived with. */
+    String key(Path document, Metadata metadata) throws IOException {
+        MessageDigest sha = sha256();
+        byte[] buf = new byte[65536];
+        try (InputStream in = Files.newInputStream(document)) {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                sha.update(buf, 0, n);
+            }
+        }
+        update(sha, configFingerprint()); // Per call: settings may change at runtime
+        String[] names = metadata.names();
+        Arrays.sort(names);
+        for (String name : names) {
+            update(sha, name);
+            for (String value : metadata.getValues(name)) {
+                update(sha, value);
+            }
+        }
+        return toHex(sha.digest());
+    }
+
+    /**
+     * Replays a cached result into {@code handler} and {@code metadata}.
+     * Returns false on a miss, including unreadable entries.
+     */
+    boolean replay(String key, ContentHandler handler, Metadata metadata) throws SAXException, IOException {
+        Path file = dir.resolve(key + SUFFIX);
+        if (!Files.exists(file)) {
+            misses.incrementAndGet();
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            Metadata cached;
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("not a cache entry");
+                }
+                cached = readMetadata(in);
+            } catch (IOException e) {
+                LOGGER.warn("[DocCache] dropping unreadable entry {}: {}", key, e.getMessage());
+                delete(file);
+                misses.incrementAndGet();
+                return false;
+            }
+            for (String name : cached.names()) {
+                metadata.remove(name);
+                for (String value : cached.getValues(name)) {
+                    metadata.add(name, value);
+                }
+            }
+            try {
+                replayEvents(new DataInputStream(new BufferedInputStream(new GZIPInputStream(in, 65536))), handler);
+            } catch (IOException e) {
+                delete(file);
+                throw new IOException("Corrupt document cache entry " + key, e);
+            }
+        } catch (NoSuchFileException e) {
+            // Evicted in the meantime
+            misses.incrementAndGet();
+            return false;
+        }
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Evicted in the meantime; nothing to refresh
+        }
+        long h = hits.incrementAndGet();
+        if (h % 100 == 0) {
+            LOGGER.info("[DocCache] hits={} misses={}", h, misses.get());
+        }
+        return true;
+    }
+
+    /** Starts recording the events sent to {@code handler}; null if the entry cannot be created. */
+    Recording record(String key, ContentHandler handler) {
+        try {
+            return new Recording(key, handler);
+        } catch (IOException e) {
+            LOGGER.warn("[DocCache] cannot record {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    /** Tees SAX events into a temporary file that {@link #commit} turns into a cache entry. */
+    final class Recording {
+        private final String key;
+        private final Path events;
+        private final DataOutputStream out;
+        private final ContentHandler handler;
+        private boolean failed;
+        private boolean done;
+
+        private Recording(String key, ContentHandler target) throws IOException {
+            this.key = key;
+            this.events = Files.createTempFile(dir, key, ".events.tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(events), 65536)));
+            this.handler = new Recorder(target);
+        }
+
+        ContentHandler handler() {
+            return handler;
+        }
+
+        /** Stores the recorded events with the final document metadata. */
+        void commit(Metadata metadata) {
+            if (done) return;
+            done = true;
+            Path tmp = null;
+            try {
+                out.writeByte(END);
+                out.close();
+                if (failed) {
+                    return;
+                }
+                long size = Files.size(events);
+                if (size > maxBytes / 4) {
+                    LOGGER.info("[DocCache] {} too large to cache ({} bytes)", key, size);
+                    return;
+                }
+                tmp = Files.createTempFile(dir, key, ".tmp");
+                try (OutputStream fos = Files.newOutputStream(tmp);
+                     DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos))) {
+                    dos.writeInt(MAGIC);
+                    dos.writeInt(VERSION);
+                    writeMetadata(dos, metadata);
+                    dos.flush();
+                    Files.copy(events, fos);
+                }
+                Path file = dir.resolve(key + SUFFIX);
+                long previous = Files.exists(file) ? Files.size(file) : 0;
+                long stored = Files.size(tmp);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                tmp = null;
+                if (totalBytes.addAndGet(stored - previous) > maxBytes) {
+                    evict();
+                }
+            } catch (IOException e) {
+                LOGGER.warn("[DocCache] storing {} failed: {}", key, e.getMessage());
+            } finally {
+                delete(events);
+                if (tmp != null) delete(tmp);
+            }
+        }
+
+        /** Discards the recording (failed or incomplete parse). */
+        void abort() {
+            if (done) return;
+            done = true;
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Discarded anyway
+            }
+            delete(events);
+        }
+
+        private void write(byte tag, String... strings) {
+            if (failed) return;
+            try {
+                out.writeByte(tag);
+                for (String s : strings) {
+                    writeString(out, s);
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(IOException e) {
+            failed = true;
+            LOGGER.warn("[DocCache] recording {} failed: {}", key, e.getMessage());
+        }
+
+        private final class Recorder extends ContentHandlerDecorator {
+            Recorder(ContentHandler handler) {
+                super(handler);
+            }
+
+            @Override
+            public void startDocument() throws SAXException {
+                write(START_DOCUMENT);
+                super.startDocument();
+            }
+
+            @Override
+            public void endDocument() throws SAXException {
+                write(END_DOCUMENT);
+                super.endDocument();
+            }
+
+            @Override
+            public void startPrefixMapping(String prefix, String uri) throws SAXException {
+                write(START_PREFIX, prefix, uri);
+                super.startPrefixMapping(prefix, uri);
+            }
+
+            @Override
+            public void endPrefixMapping(String prefix) throws SAXException {
+                write(END_PREFIX, prefix);
+                super.endPrefixMapping(prefix);
+            }
+
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes atts)
+                    throws SAXException {
+                write(START_ELEMENT, uri, localName, qName);
+                if (!failed) {
+                    try {
+                        out.writeInt(atts.getLength());
+                        for (int i = 0; i < atts.getLength(); i++) {
+                            writeString(out, atts.getURI(i));
+                            writeString(out, atts.getLocalName(i));
+                            writeString(out, atts.getQName(i));
+                            writeString(out, atts.getType(i));
+                            writeString(out, atts.getValue(i));
+                        }
+                    } catch (IOException e) {
+                        fail(e);
+                    }
+                }
+                super.startElement(uri, localName, qName, atts);
+            }
+
+            @Override
+            public void endElement(String uri, String localName, String qName) throws SAXException {
+                write(END_ELEMENT, uri, localName, qName);
+                super.endElement(uri, localName, qName);
+            }
+
+            @Override
+            public void characters(char[] ch, int start, int length) throws SAXException {
+                write(CHARACTERS, new String(ch, start, length));
+                super.characters(ch, start, length);
+            }
+
+            @Override
+            public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+                write(WHITESPACE, new String(ch, start, length));
+                super.ignorableWhitespace(ch, start, length);
+            }
+        }
+    }
+
+    private static void replayEvents(DataInputStream in, ContentHandler h) throws IOException, SAXException {
+        while (true) {
+            byte tag = in.readByte();
+            switch (tag) {
+                case END:
+                    return;
+                case START_DOCUMENT:
+                    h.startDocument();
+                    break;
+                case END_DOCUMENT:
+                    h.endDocument();
+                    break;
+                case START_PREFIX:
+                    h.startPrefixMapping(readString(in), readString(in));
+                    break;
+                case END_PREFIX:
+                    h.endPrefixMapping(readString(in));
+                    break;
+                case START_ELEMENT: {
+                    String uri = readString(in), local = readString(in), qName = readString(in);
+                    int n = in.readInt();
+                    AttributesImpl atts = new AttributesImpl();
+                    for (int i = 0; i < n; i++) {
+                        atts.addAttribute(readString(in), readString(in), readString(in),
+                                readString(in), readString(in));
+                    }
+                    h.startElement(uri, local, qName, atts);
+                    break;
+                }
+                case END_ELEMENT:
+                    h.endElement(readString(in), readString(in), readString(in));
+                    break;
+                case CHARACTERS: {
+                    char[] c = readString(in).toCharArray();
+                    h.characters(c, 0, c.length);
+                    break;
+                }
+                case WHITESPACE: {
+                    char[] c = readString(in).toCharArray();
+                    h.ignorableWhitespace(c, 0, c.length);
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown event tag " + tag);
+            }
+        }
+    }
+
+    /** Drops least recently used entries until the cache is at 90% of its budget. */
+    private synchronized void evict() {
+        List<Path> files = new ArrayList<>();
+        List<long[]> stats = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path p : entries) {
+                try {
+                    long size = Files.size(p);
+                    stats.add(new long[]{Files.getLastModifiedTime(p).toMillis(), size, files.size()});
+                    files.add(p);
+                    total += size;
+                } catch (IOException e) {
+                    // Removed concurrently
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("[DocCache] eviction scan failed: {}", e.getMessage());
+            return;
+        }
+        stats.sort((a, b) -> Long.compare(a[0], b[0]));
+        long target = maxBytes * 9 / 10;
+        int evicted = 0;
+        for (long[] s : stats) {
+            if (total <= target) break;
+            delete(files.get((int) s[2]));
+            total -= s[1];
+            evicted++;
+        }
+        totalBytes.set(total);
+        LOGGER.info("[DocCache] evicted {} entries, {} bytes in use", evicted, total);
+    }
+
+    private static void writeMetadata(DataOutputStream out, Metadata md) throws IOException {
+        String[] names = md.names();
+        out.writeInt(names.length);
+        for (String name : names) {
+            writeString(out, name);
+            String[] values = md.getValues(name);
+            out.writeInt(values.length);
+            for (String v : values) {
+                writeString(out, v);
+            }
+        }
+    }
+
+    private static Metadata readMetadata(DataInputStream in) throws IOException {
+        Metadata md = new Metadata();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            String name = readString(in);
+            int values = in.readInt();
+            for (int j = 0; j < values; j++) {
+                md.add(name, readString(in));
+            }
+        }
+        return md;
+    }
+
+    // Length-prefixed UTF-8; writeUTF is limited to 64K and text runs can be longer
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) return null;
+        byte[] b = in.readNBytes(n);
+        if (b.length < n) throw new EOFException();
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /** The settings that shape a parse's output, as text. */
+    static String configFingerprint() {
+        StringBuilder sb = new StringBuilder("v").append(VERSION);
+        for (int i = 0; i < CONFIG_KEYS.length; i++) {
+            sb.append('\n').append(CONFIG_KEYS[i]).append('=')
+                    .append(System.getProperty(CONFIG_KEYS[i], System.getenv(CONFIG_ENV[i])));
+        }
+        sb.append("\noutput=").append(VlmBlockWriter.mode());
+        sb.append("\nskip.minBytes=").append(ParallelEmbeddedDocumentExtractorFactory.skipMinBytes());
+        sb.append("\nskip.types=").append(ParallelEmbeddedDocumentExtractorFactory.skipTypes());
+        return sb.toString();
+    }
+
+    private static void update(MessageDigest sha, String s) {
+        byte[] b = s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+        sha.update((byte) (s == null ? 0 : 1));
+        sha.update(new byte[]{(byte) (b.length >>> 24), (byte) (b.length >>> 16), (byte) (b.length >>> 8), (byte) b.length});
+        sha.update(b);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static void delete(Path p) {
+        try {
+            Files.deleteIfExists(p);
+        } catch (IOException e) {
+            LOGGER.debug("[DocCache] cannot delete {}: {}", p, e.getMessage());
+        }
+    }
+}
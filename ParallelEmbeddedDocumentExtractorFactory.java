@@ -5,39 +5,57 @@ import org.apache.tika.extractor.EmbeddedDocumentExtractor;
 import org.apache.tika.extractor.EmbeddedDocumentExtractorFactory;
 import org.apache.tika.extractor.ParsingEmbeddedDocumentExtractor;
 import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
 import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.CompositeParser;
 import org.apache.tika.parser.ParseContext;
 import org.apache.tika.parser.Parser;
+import org.apache.tika.parser.ParserDecorator;
+import org.apache.tika.parser.vision.VisionLanguageModelParser;
+import org.apache.tika.parser.vision.VlmSettings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
-import org.xml.sax.helpers.AttributesImpl;
 import org.xml.sax.helpers.DefaultHandler;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class ParallelEmbeddedDocumentExtractorFactory implements EmbeddedDocumentExtractorFactory {
 
     private static final Logger LOGGER =
             LoggerFactory.getLogger(ParallelEmbeddedDocumentExtractorFactory.class);
 
-    // Thread pool (configurable via TIKA_VLM_THREADS or -Dtika.vlm.threads)
+    // Thread pool (configurable via TIKA_VLM_THREADS or -Dtika.vlm.threads);
+    // size and queue limit can be changed at runtime through VlmPipelineControl
     private static final int CONCURRENCY = Integer.parseInt(
             System.getProperty("tika.vlm.threads",
                     System.getenv().getOrDefault("TIKA_VLM_THREADS", "6"))
     );
 
-    private static final ExecutorService EXEC =
+    private static final ResizableQueue QUEUE = new ResizableQueue(1024);
+
+    private static final ThreadPoolExecutor EXEC =
             new ThreadPoolExecutor(
                     CONCURRENCY, CONCURRENCY,
                     30L, TimeUnit.SECONDS,
-                    new LinkedBlockingQueue<>(1024),
+                    QUEUE,
                     r -> {
                         Thread t = new Thread(r, "vlm-worker-" + System.nanoTime());
                         t.setDaemon(true);
@@ -46,10 +64,40 @@ public class ParallelEmbeddedDocumentExtractorFactory implements EmbeddedDocumen
                     new ThreadPoolExecutor.CallerRunsPolicy()
             );
 
-    // Futures per embedded resource path (e.g. "/image3.jpg")
-    private static final ConcurrentMap<String, CompletableFuture<Metadata>> FUTURES = new ConcurrentHashMap<>();
+    // Single-flight: analyses currently running process-wide, keyed by content
+    // digest + the parser that handles the type and its live settings, so
+    // identical images in concurrently parsed documents share one call. -Dtika.vlm.coalesce=false turns it off.
+    private static final boolean COALESCE = Boolean.parseBoolean(
+            System.getProperty("tika.vlm.coalesce",
+                    System.getenv().getOrDefault("TIKA_VLM_COALESCE", "true")));
+    private static final ConcurrentMap<String, SharedTask> IN_FLIGHT = new ConcurrentHashMap<>();
+    private static final AtomicLong COALESCED = new AtomicLong();
+    // Analyses cancelled because every parse waiting for them was aborted
+    private static final AtomicLong CANCELLED_QUEUED = new AtomicLong();
+    private static final AtomicLong CANCELLED_RUNNING = new AtomicLong();
+
+    // Skip filters: images below minBytes or of a listed type are not analyzed
+    // (tika.vlm.skip.minBytes, tika.vlm.skip.types as comma-separated MIME types)
+    private static volatile int skipMinBytes =
+            VlmSettings.intProperty("tika.vlm.skip.minBytes", "TIKA_VLM_SKIP_MIN_BYTES", 0);
+    private static volatile Set<String> skipTypes = parseTypes(
+            System.getProperty("tika.vlm.skip.types", System.getenv("TIKA_VLM_SKIP_TYPES")));
+    private static final AtomicLong SKIPPED = new AtomicLong();
+
+    static {
+        VlmPipelineControl.register();
+    }
+
+    // Futures per embedded resource path (e.g. "/image3.jpg"). One factory is
+    // installed per parse, so paths from concurrent documents never collide.
+    private final ConcurrentMap<String, CompletableFuture<Metadata>> futures = new ConcurrentHashMap<>();
     // Tracks which results were already injected (avoid duplicates)
-    private static final ConcurrentMap<String, Boolean> INJECTED = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Boolean> injected = new ConcurrentHashMap<>();
+    // Deferred enrichment: write placeholders and hand results to the store instead of waiting
+    private DeferredEnrichment deferred;
+    private String documentId;
+    // Output mode and reusable text buffer of this parse
+    private VlmBlockWriter writer = new VlmBlockWriter(null);
 
     @Override
     public EmbeddedDocumentExtractor newInstance(Metadata parentMd, ParseContext context) {
@@ -84,7 +132,13 @@ public class ParallelEmbeddedDocumentExtractorFactory implements EmbeddedDocumen
                     LOGGER.warn("[Factory] readAllBytes FAILED for {}", metadata.get("resourceName"), e);
                     // Put a completed future to keep drain stable
                     CompletableFuture<Metadata> failed = CompletableFuture.completedFuture(metadata);
-                    FUTURES.putIfAbsent(normalizePath(metadata), failed);
+                    futures.putIfAbsent(normalizePath(metadata), failed);
+                    return;
+                }
+
+                if (skipped(data, metadata)) {
+                    LOGGER.info("[Factory] skipped {} ({} bytes, {})", metadata.get("resourceName"),
+                            data.length, metadata.get(Metadata.CONTENT_TYPE));
                     return;
                 }
 
@@ -92,57 +146,426 @@ public class ParallelEmbeddedDocumentExtractorFactory implements EmbeddedDocumen
                 final Metadata mdCopy = copyMetadata(metadata);
                 final String path = normalizePath(mdCopy);
 
-                CompletableFuture<Metadata> fut = CompletableFuture.supplyAsync(() -> {
-                    LOGGER.info("[Factory] task START {} (thread={})",
-                            path, Thread.currentThread().getName());
-                    try (ByteArrayInputStream bais = new ByteArrayInputStream(data)) {
-                        embeddedParser.parse(bais, new DefaultHandler(), mdCopy, context);
-                    } catch (Exception e) {
-                        mdCopy.add("vlm:error", "parseEmbedded-failed:" + e.getClass().getSimpleName());
-                        LOGGER.warn("[Factory] task ERROR {} – {}", path, e.toString());
-                    }
-                    LOGGER.info("[Factory] task END {} (analysis={})",
-                            path, mdCopy.get("vlm:analysis"));
-                    return mdCopy;
-                }, EXEC);
-
-                FUTURES.put(path, fut);
+                CompletableFuture<Metadata> fut = schedule(data, mdCopy, embeddedParser, context);
+                futures.put(path, fut);
                 LOGGER.info("[Factory] scheduled {}", path);
             }
         };
     }
 
+    /**
+     * Runs {@code embeddedParser} over {@code data} on the worker pool,
+     * coalescing with an identical analysis already in flight. {@code mdCopy}
+     * is the task's own metadata and receives the analysis. In distributed
+     * mode (tika.vlm.queue) the task goes to the shared queue instead.
+     */
+    static CompletableFuture<Metadata> schedule(byte[] data, Metadata mdCopy, Parser embeddedParser,
+                                                ParseContext context) {
+        final String path = normalizePath(mdCopy);
+        DistributedWorkQueue queue = DistributedWorkQueue.get();
+        if (queue != null) {
+            // Duplicates across the cluster are absorbed by the analysis cache, if any
+            LOGGER.info("[Factory] published {} to the work queue", path);
+            return queue.submit(data, mdCopy);
+        }
+        Supplier<Metadata> task = () -> {
+            LOGGER.info("[Factory] task START {} (thread={})",
+                    path, Thread.currentThread().getName());
+            try (ByteArrayInputStream bais = new ByteArrayInputStream(data)) {
+                embeddedParser.parse(bais, new DefaultHandler(), mdCopy, context);
+            } catch (Exception e) {
+                mdCopy.add("vlm:error", "parseEmbedded-failed:" + e.getClass().getSimpleName());
+                LOGGER.warn("[Factory] task ERROR {} – {}", path, e.toString());
+            }
+            LOGGER.info("[Factory] task END {} (analysis={})",
+                    path, mdCopy.get("vlm:analysis"));
+            return mdCopy;
+        };
+
+        if (!COALESCE) {
+            return new SharedTask(null).start(task);
+        }
+        String key = coalescingKey(data, mdCopy, embeddedParser, context);
+        while (true) {
+            SharedTask created = new SharedTask(key);
+            SharedTask leader = IN_FLIGHT.putIfAbsent(key, created);
+            if (leader == null) {
+                return created.start(task);
+            }
+            // Same bytes already being analyzed: take its result under our own path
+            CompletableFuture<Metadata> fut = leader.join(result -> adopt(mdCopy, result));
+            if (fut != null) {
+                long n = COALESCED.incrementAndGet();
+                LOGGER.info("[Factory] coalesced {} onto in-flight analysis (total {})", path, n);
+                return fut;
+            }
+            // Leader was just cancelled; start over
+            IN_FLIGHT.remove(key, leader);
+        }
+    }
+
+    /**
+     * The parse was aborted: withdraws every analysis it scheduled. Analyses
+     * no other parse is waiting for are cancelled, queued or in flight.
+     */
+    void cancelAll() {
+        int withdrawn = 0;
+        for (CompletableFuture<Metadata> f : futures.values()) {
+            if (f.cancel(true)) {
+                withdrawn++;
+            }
+        }
+        LOGGER.info("[Factory] parse aborted – withdrew {} analyses (cancelled so far: {} queued, {} running)",
+                withdrawn, CANCELLED_QUEUED.get(), CANCELLED_RUNNING.get());
+    }
+
+    static long cancelledQueued() {
+        return CANCELLED_QUEUED.get();
+    }
+
+    static long cancelledRunning() {
+        return CANCELLED_RUNNING.get();
+    }
+
+    static long coalesced() {
+        return COALESCED.get();
+    }
+
+    static long skippedCount() {
+        return SKIPPED.get();
+    }
+
+    // ===== runtime tuning (VlmPipelineControl) =====
+
+    static int workerThreads() {
+        return EXEC.getMaximumPoolSize();
+    }
+
+    /**
+     * Resizes the worker pool. Running analyses are never interrupted: on
+     * shrink, surplus workers exit once their current task is done.
+     */
+    static synchronized void setWorkerThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("workerThreads must be >= 1: " + threads);
+        }
+        // Core may never exceed max, so the order depends on the direction
+        if (threads > EXEC.getMaximumPoolSize()) {
+            EXEC.setMaximumPoolSize(threads);
+            EXEC.setCorePoolSize(threads);
+        } else {
+            EXEC.setCorePoolSize(threads);
+            EXEC.setMaximumPoolSize(threads);
+        }
+        LOGGER.info("[Factory] worker pool resized to {}", threads);
+    }
+
+    static int queueLimit() {
+        return QUEUE.limit;
+    }
+
+    /**
+     * Changes how many analyses may wait for a worker. Tasks already queued
+     * stay; past the limit new tasks run on the submitting thread.
+     */
+    static void setQueueLimit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("queueLimit must be >= 0: " + limit);
+        }
+        QUEUE.limit = limit;
+        LOGGER.info("[Factory] queue limit set to {}", limit);
+    }
+
+    static int queuedTasks() {
+        return QUEUE.size();
+    }
+
+    static int activeTasks() {
+        return EXEC.getActiveCount();
+    }
+
+    static int skipMinBytes() {
+        return skipMinBytes;
+    }
+
+    static void setSkipMinBytes(int minBytes) {
+        skipMinBytes = Math.max(0, minBytes);
+    }
+
+    static String skipTypes() {
+        return String.join(",", skipTypes);
+    }
+
+    static void setSkipTypes(String types) {
+        skipTypes = parseTypes(types);
+    }
+
+    private static boolean skipped(byte[] data, Metadata md) {
+        String type = md.get(Metadata.CONTENT_TYPE);
+        if (type != null) {
+            int semi = type.indexOf(';');
+            type = (semi >= 0 ? type.substring(0, semi) : type).trim().toLowerCase(Locale.ROOT);
+        }
+        if (data.length < skipMinBytes || (type != null && skipTypes.contains(type))) {
+            SKIPPED.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private static Set<String> parseTypes(String csv) {
+        Set<String> types = new LinkedHashSet<>();
+        if (csv != null) {
+            for (String t : csv.split(",")) {
+                if (!t.trim().isEmpty()) types.add(t.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        return Collections.unmodifiableSet(types);
+    }
+
+    /** Work queue whose capacity can change; offer() refuses past the limit so CallerRunsPolicy applies. */
+    private static final class ResizableQueue extends LinkedBlockingQueue<Runnable> {
+        private static final long serialVersionUID = 1L;
+
+        private volatile int limit;
+
+        ResizableQueue(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean offer(Runnable r) {
+            // Checked without a lock: a burst may overshoot by a few tasks, which is harmless
+            return size() < limit && super.offer(r);
+        }
+    }
+
+    /**
+     * Reserves {@code resourcePath} for an image produced outside the parse
+     * (e.g. a rendered PDF page), so injectFor and drainRemaining wait for it.
+     * The caller completes the returned future.
+     */
+    CompletableFuture<Metadata> reserve(String resourcePath) {
+        CompletableFuture<Metadata> fut = new CompletableFuture<>();
+        futures.put(resourcePath, fut);
+        return fut;
+    }
+
+    /** Switches this parse to deferred enrichment under {@code documentId}. */
+    void defer(DeferredEnrichment deferred, String documentId) {
+        this.deferred = deferred;
+        this.documentId = documentId;
+    }
+
+    /** Gives metadata output mode the document metadata to add the analyses to. */
+    void attach(Metadata document) {
+        this.writer = new VlmBlockWriter(document);
+    }
+
     /** Inject the result right after the corresponding <img>. */
-    public static void injectFor(ContentHandler h, String resourcePath) throws SAXException {
+    public void injectFor(ContentHandler h, String resourcePath) throws SAXException {
         if (resourcePath == null) return;
-        CompletableFuture<Metadata> fut = FUTURES.get(resourcePath);
+        CompletableFuture<Metadata> fut = futures.get(resourcePath);
         if (fut == null) {
             LOGGER.debug("[Factory] injectFor – no future for {}", resourcePath);
             return;
         }
-        if (INJECTED.putIfAbsent(resourcePath, Boolean.TRUE) != null) {
+        if (injected.putIfAbsent(resourcePath, Boolean.TRUE) != null) {
             return; // Already injected
         }
-        Metadata md = fut.join(); // Wait only for this image
+        if (deferred != null) {
+            writeDeferred(h, resourcePath, fut);
+            return;
+        }
+        Metadata md = await(fut); // Wait only for this image
         writeBlock(h, resourcePath, md);
         LOGGER.info("[Factory] injected {}", resourcePath);
     }
 
     /** Drain any remaining results at the end of the document. */
-    public static void drainRemaining(ContentHandler h) throws SAXException {
-        for (Map.Entry<String, CompletableFuture<Metadata>> e : FUTURES.entrySet()) {
+    public void drainRemaining(ContentHandler h) throws SAXException {
+        for (Map.Entry<String, CompletableFuture<Metadata>> e : futures.entrySet()) {
             final String path = e.getKey();
-            if (INJECTED.putIfAbsent(path, Boolean.TRUE) == null) {
-                Metadata md = e.getValue().join();
+            if (injected.putIfAbsent(path, Boolean.TRUE) == null) {
+                if (deferred != null) {
+                    writeDeferred(h, path, e.getValue());
+                    continue;
+                }
+                Metadata md = await(e.getValue());
                 writeBlock(h, path, md);
                 LOGGER.info("[Factory] injected (drain) {}", path);
             }
         }
     }
 
+    /**
+     * True when every scheduled image has a result and none failed or was
+     * deferred, i.e. the output is final and safe to cache.
+     */
+    boolean isComplete() {
+        if (deferred != null) {
+            return false; // Placeholders, not results
+        }
+        for (CompletableFuture<Metadata> f : futures.values()) {
+            if (f.isCompletedExceptionally()) {
+                return false; // Cancelled or failed in the queue; getNow would throw
+            }
+            Metadata md = f.getNow(null);
+            if (md == null || md.get("vlm:error") != null || md.get("vlm:status") != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     // ===== helpers =====
 
-    private static Metadata copyMetadata(Metadata src) {
+    /** Waits for a result; an interrupted parse stops waiting instead of hanging in join(). */
+    private static Metadata await(CompletableFuture<Metadata> fut) throws SAXException {
+        try {
+            return fut.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SAXException("Interrupted while waiting for VLM analysis", e);
+        } catch (ExecutionException | CancellationException e) {
+            throw new SAXException("VLM analysis did not complete", e);
+        }
+    }
+
+    /**
+     * One analysis run on the pool, shared by every parse that coalesced onto
+     * it. Each parse holds its own view; cancelling a view withdraws that parse,
+     * and withdrawing the last one cancels the task.
+     */
+    static final class SharedTask {
+        private final String key;
+        private final CompletableFuture<Metadata> result = new CompletableFuture<>();
+        private final AtomicInteger subscribers = new AtomicInteger(1);
+        private final AtomicBoolean started = new AtomicBoolean();
+        private volatile Future<?> task;
+
+        SharedTask(String key) {
+            this.key = key;
+        }
+
+        /** Submits the task; returns the first subscriber's view. */
+        CompletableFuture<Metadata> start(Supplier<Metadata> work) {
+            CompletableFuture<Metadata> view = view(Function.identity());
+            if (key != null) {
+                result.whenComplete((md, err) -> IN_FLIGHT.remove(key, this));
+            }
+            task = EXEC.submit(() -> {
+                started.set(true);
+                try {
+                    result.complete(work.get());
+                } catch (RuntimeException | Error e) {
+                    result.completeExceptionally(e);
+                    throw e;
+                }
+            });
+            return view;
+        }
+
+        /** Adds a subscriber, or returns null if the task is already being cancelled. */
+        CompletableFuture<Metadata> join(Function<Metadata, Metadata> map) {
+            int n;
+            do {
+                n = subscribers.get();
+                if (n == 0) return null;
+            } while (!subscribers.compareAndSet(n, n + 1));
+            return view(map);
+        }
+
+        private CompletableFuture<Metadata> view(Function<Metadata, Metadata> map) {
+            CompletableFuture<Metadata> view = new CompletableFuture<>();
+            result.whenComplete((md, err) -> {
+                if (err != null) view.completeExceptionally(err);
+                else view.complete(map.apply(md));
+            });
+            view.whenComplete((md, err) -> {
+                if (view.isCancelled()) withdraw();
+            });
+            return view;
+        }
+
+        private void withdraw() {
+            if (subscribers.decrementAndGet() > 0 || result.isDone()) return;
+            if (key != null) {
+                IN_FLIGHT.remove(key, this);
+            }
+            boolean running = started.get();
+            Future<?> t = task;
+            if (t != null && t.cancel(true)) {
+                (running ? CANCELLED_RUNNING : CANCELLED_QUEUED).incrementAndGet();
+                LOGGER.info("[Factory] cancelled {} analysis", running ? "in-flight" : "queued");
+            }
+            result.cancel(false);
+        }
+    }
+
+    /** Content digest plus everything else that decides the analysis result. */
+    private static String coalescingKey(byte[] data, Metadata md, Parser parser, ParseContext context) {
+        MessageDigest sha;
+        try {
+            sha = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] digest = sha.digest(data);
+        StringBuilder sb = new StringBuilder(160);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        String type = md.get(Metadata.CONTENT_TYPE);
+        // Class, not identity: each parse may bring its own AutoDetectParser
+        Parser target = resolve(parser, type, context);
+        sb.append('|').append(target.getClass().getName())
+          .append('|').append(type);
+        if (target instanceof VisionLanguageModelParser) {
+            VisionLanguageModelParser vlm = (VisionLanguageModelParser) target;
+            sb.append('|').append(vlm.getModelName())
+              .append('|').append(vlm.getApiEndpoint())
+              .append('|').append(vlm.getMaxImageSize())
+              .append('|').append(vlm.getPrompt());
+        } else {
+            sb.append('|').append(System.getProperty("tika.vlm.model", System.getenv("TIKA_VLM_MODEL")))
+              .append('|').append(System.getProperty("tika.vlm.prompt", System.getenv("TIKA_VLM_PROMPT")));
+        }
+        return sb.toString();
+    }
+
+    /** The parser {@code parser} hands {@code type} to, through decorators and composites. */
+    private static Parser resolve(Parser parser, String type, ParseContext context) {
+        MediaType mediaType = type == null ? null : MediaType.parse(type);
+        for (int depth = 0; depth < 8; depth++) {
+            if (parser instanceof ParserDecorator) {
+                parser = ((ParserDecorator) parser).getWrappedParser();
+            } else if (parser instanceof CompositeParser && mediaType != null) {
+                Map<MediaType, Parser> parsers = ((CompositeParser) parser).getParsers(context);
+                Parser next = parsers.get(mediaType);
+                if (next == null) next = parsers.get(mediaType.getBaseType());
+                if (next == null) break;
+                parser = next;
+            } else {
+                break;
+            }
+        }
+        return parser;
+    }
+
+    /** Our own metadata completed with the fields the shared analysis produced. */
+    private static Metadata adopt(Metadata own, Metadata result) {
+        Metadata dst = copyMetadata(own);
+        for (String n : result.names()) {
+            if (n.startsWith("vlm:") || dst.get(n) == null) {
+                dst.set(n, result.get(n));
+            }
+        }
+        dst.set("vlm:coalesced", "true");
+        return dst;
+    }
+
+    static Metadata copyMetadata(Metadata src) {
         Metadata dst = new Metadata();
         for (String n : src.names()) {
             dst.set(n, src.get(n));
@@ -151,7 +574,7 @@ public class ParallelEmbeddedDocumentExtractorFactory implements EmbeddedDocumen
     }
 
     /** Normalizes to "/imageN.ext" using available metadata hints. */
-    private static String normalizePath(Metadata md) {
+    static String normalizePath(Metadata md) {
         String path = firstNonNull(
                 md.get("X-TIKA:final_embedded_resource_path"),
                 md.get("X-TIKA:embedded_resource_path"),
@@ -173,46 +596,17 @@ public class ParallelEmbeddedDocumentExtractorFactory implements EmbeddedDocumen
         return a != null ? a : (b != null ? b : c);
     }
 
-    /** Writes both plain text (visible in /tika/text) and a small XHTML block (visible in /tika). */
-    private static void writeBlock(ContentHandler h, String path, Metadata md) throws SAXException {
-        String analysis = md.get("vlm:analysis");
-        String provider = md.get("vlm:provider");
-        String model = md.get("vlm:model");
-
-        // Plain text – ensures visibility in /tika/text:
-        String nl = System.lineSeparator();
-        writeChars(h, nl + "=== VLM Analysis for " + path + " ===" + nl);
-        if (analysis != null) writeChars(h, analysis);
-        writeChars(h, nl + "[provider=" + String.valueOf(provider) +
-                ", model=" + String.valueOf(model) + "]" + nl);
-
-        // Minimal XHTML for /tika:
-        h.startElement("", "div", "div", attrs("class", "vlm-result"));
-        element(h, "h3", "Vision Language Model Analysis");
-        element(h, "p", "image=" + path);
-        element(h, "p", analysis);
-        element(h, "p", "provider=" + String.valueOf(provider) + ", model=" + String.valueOf(model));
-        h.endElement("", "div", "div");
-    }
-
-    private static void writeChars(ContentHandler h, String s) throws SAXException {
-        if (s == null || s.isEmpty()) return;
-        char[] c = s.toCharArray();
-        h.characters(c, 0, c.length);
-    }
-
-    private static AttributesImpl attrs(String... kv) {
-        AttributesImpl a = new AttributesImpl();
-        for (int i = 0; i + 1 < kv.length; i += 2) {
-            a.addAttribute("", kv[i], kv[i], "CDATA", kv[i + 1]);
-        }
-        return a;
+    /** Writes the result block in the configured output mode (see {@link VlmBlockWriter}). */
+    void writeBlock(ContentHandler h, String path, Metadata md) throws SAXException {
+        writer.result(h, path, md);
     }
 
-    private static void element(ContentHandler h, String tag, String text) throws SAXException {
-        if (text == null) return;
-        h.startElement("", tag, tag, new AttributesImpl());
-        writeChars(h, text);
-        h.endElement("", tag, tag);
+    /** Placeholder for a result that will land in the deferred store. */
+    private void writeDeferred(ContentHandler h, String path, CompletableFuture<Metadata> fut) throws SAXException {
+        String id = documentId + "/" + DeferredEnrichment.imageId(path);
+        deferred.pending(documentId, path);
+        fut.whenComplete((md, err) -> deferred.complete(documentId, path, md, err));
+        writer.pending(h, path, id);
+        LOGGER.info("[Factory] deferred {}", id);
     }
 }
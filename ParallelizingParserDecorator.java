@@ -3,11 +3,15 @@ package org.apache.tika.parallel;
 
 import org.apache.tika.config.TikaConfig;
 import org.apache.tika.exception.TikaException;
+import org.apache.tika.extractor.EmbeddedDocumentExtractor;
+import org.apache.tika.io.TemporaryResources;
+import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.parser.AutoDetectParser;
 import org.apache.tika.parser.ParseContext;
 import org.apache.tika.parser.Parser;
 import org.apache.tika.parser.ParserDecorator;
+import org.apache.tika.parser.pdf.PDFParserConfig;
 import org.apache.tika.sax.ContentHandlerDecorator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,12 +21,20 @@ import org.xml.sax.SAXException;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
 
 /**
  * Decorator that installs the parallel EmbeddedDocumentExtractorFactory
  * and injects each image's VLM analysis right after its <img> element.
  * Remaining results are drained at the end. Works with both /tika (XHTML)
- * and /tika/text (via characters()).
+ * and /tika/text (via characters()). With a document cache configured,
+ * repeat submissions are replayed from {@link DocumentOutputCache}. With page
+ * rendering enabled, scanned PDFs are analyzed page by page through
+ * {@link ScannedPdfRenderer} instead of by their inline image fragments. In
+ * deferred mode ({@link DeferredEnrichment}) the parse returns without waiting
+ * and each analysis is replaced by a placeholder with its result ID.
  */
 public class ParallelizingParserDecorator extends ParserDecorator {
 
@@ -35,70 +47,219 @@ public class ParallelizingParserDecorator extends ParserDecorator {
         LOGGER.info("[Decorator] ctor – using AutoDetectParser with server TikaConfig");
     }
 
+    /** Wraps an explicit parser (benchmarks and tools that bypass the server config). */
+    ParallelizingParserDecorator(Parser parser) {
+        super(parser);
+    }
+
     @Override
     public void parse(InputStream stream, ContentHandler handler,
                       Metadata metadata, ParseContext context)
             throws IOException, SAXException, TikaException {
 
         // Belt and suspenders: set factory also via ParseContext
-        context.set(org.apache.tika.extractor.EmbeddedDocumentExtractorFactory.class,
-                new ParallelEmbeddedDocumentExtractorFactory());
+        ParallelEmbeddedDocumentExtractorFactory factory = new ParallelEmbeddedDocumentExtractorFactory();
+        factory.attach(metadata);
+        context.set(org.apache.tika.extractor.EmbeddedDocumentExtractorFactory.class, factory);
+        // Tika 2.x only consults an extractor instance, not the factory
+        boolean installed = context.get(EmbeddedDocumentExtractor.class) == null;
+        if (installed) {
+            context.set(EmbeddedDocumentExtractor.class, factory.newInstance(metadata, context));
+        }
         LOGGER.info("[Decorator] parse() started – factory set on ParseContext");
 
-        ContentHandler injectingHandler = new ContentHandlerDecorator(handler) {
-            private boolean drained = false;
+        DeferredEnrichment deferred = DeferredEnrichment.get();
+        String documentId = null;
+        if (deferred != null) {
+            // Set before parsing so the ID is also in the XHTML head
+            documentId = DeferredEnrichment.documentId(metadata);
+            metadata.set(DeferredEnrichment.DOCUMENT_ID, documentId);
+            factory.defer(deferred, documentId);
+        }
 
-            // NOTE: must NOT be static inside an anonymous inner class
-            private String toResourcePath(String srcOrAlt) {
-                if (srcOrAlt == null || srcOrAlt.isEmpty()) return null;
-                String p = srcOrAlt;
-                if (p.startsWith("embedded:")) p = p.substring("embedded:".length());
-                if (!p.startsWith("/")) p = "/" + p;
-                return p;
+        try {
+            DocumentOutputCache cache = DocumentOutputCache.get();
+            if (cache == null) {
+                parseWith(stream, handler, metadata, context, factory);
+            } else {
+                parseCached(cache, stream, handler, metadata, context, factory);
             }
-
-            @Override
-            public void startElement(String uri, String localName, String qName, Attributes atts)
-                    throws SAXException {
-                super.startElement(uri, localName, qName, atts);
-
-                if ("img".equals(localName) || "img".equals(qName)) {
-                    String path = toResourcePath(firstNonNull(atts.getValue("src"), atts.getValue("alt")));
-                    if (path != null) {
-                        LOGGER.info("[Decorator] injecting near <img> path={}", path);
-                        ParallelEmbeddedDocumentExtractorFactory.injectFor(this, path);
-                    } else {
-                        LOGGER.debug("[Decorator] <img> without src/alt – skip injection");
-                    }
-                }
+        } catch (IOException | SAXException | TikaException | RuntimeException | Error e) {
+            // Client gone, timeout or failure: nobody will read the remaining results
+            factory.cancelAll();
+            throw e;
+        } finally {
+            if (documentId != null) {
+                deferred.seal(documentId);
             }
-
-            @Override
-            public void endElement(String uri, String localName, String qName) throws SAXException {
-                super.endElement(uri, localName, qName);
-                if ("body".equals(localName) || "body".equals(qName)) {
-                    LOGGER.info("[Decorator] drain remaining at </body>");
-                    ParallelEmbeddedDocumentExtractorFactory.drainRemaining(this);
-                    drained = true;
-                }
+            if (installed) {
+                // A reused ParseContext must not carry this parse's extractor into the next one
+                context.set(EmbeddedDocumentExtractor.class, null);
             }
+        }
+    }
 
-            @Override
-            public void endDocument() throws SAXException {
-                if (!drained) {
-                    LOGGER.info("[Decorator] drain remaining at endDocument");
-                    ParallelEmbeddedDocumentExtractorFactory.drainRemaining(this);
-                }
-                super.endDocument();
+    private void parseCached(DocumentOutputCache cache, InputStream stream, ContentHandler handler,
+                             Metadata metadata, ParseContext context,
+                             ParallelEmbeddedDocumentExtractorFactory factory)
+            throws IOException, SAXException, TikaException {
+        TemporaryResources tmp = new TemporaryResources();
+        DocumentOutputCache.Recording recording = null;
+        try {
+            TikaInputStream tis = TikaInputStream.get(stream, tmp, metadata);
+            String key = cache.key(tis.getPath(), metadata);
+            if (cache.replay(key, handler, metadata)) {
+                LOGGER.info("[Decorator] parse() served from document cache");
+                return;
+            }
+            recording = cache.record(key, handler);
+            parseWith(tis, recording != null ? recording.handler() : handler, metadata, context, factory);
+            if (recording != null && factory.isComplete()) {
+                recording.commit(metadata);
             }
-        };
+        } finally {
+            if (recording != null) {
+                recording.abort();
+            }
+            tmp.close();
+        }
+    }
+
+    private void parseWith(InputStream stream, ContentHandler handler, Metadata metadata,
+                           ParseContext context, ParallelEmbeddedDocumentExtractorFactory factory)
+            throws IOException, SAXException, TikaException {
+        ContentHandler injectingHandler = new InjectingHandler(handler, factory);
 
         Parser wrapped = getWrappedParser();
-        wrapped.parse(stream, injectingHandler, metadata, context);
+        ScannedPdfRenderer renderer = ScannedPdfRenderer.get();
+        if (renderer == null) {
+            wrapped.parse(stream, injectingHandler, metadata, context);
+        } else {
+            parseRendering(renderer, stream, injectingHandler, metadata, context, factory);
+        }
         LOGGER.info("[Decorator] parse() finished");
     }
 
+    /**
+     * Scanned PDFs: pages are rendered and analyzed in the background while
+     * the PDF parser, with inline images and OCR off, produces the page
+     * structure that the analyses are injected into.
+     */
+    private void parseRendering(ScannedPdfRenderer renderer, InputStream stream, ContentHandler handler,
+                                Metadata metadata, ParseContext context,
+                                ParallelEmbeddedDocumentExtractorFactory factory)
+            throws IOException, SAXException, TikaException {
+        Parser wrapped = getWrappedParser();
+        TemporaryResources tmp = new TemporaryResources();
+        try {
+            TikaInputStream tis = TikaInputStream.get(stream, tmp, metadata);
+            int pages = isPdf(tis) ? renderer.scannedPages(tis.getPath()) : 0;
+            if (pages == 0) {
+                wrapped.parse(tis, handler, metadata, context);
+                return;
+            }
+            LOGGER.info("[Decorator] scanned PDF – rendering {} pages", pages);
+            PDFParserConfig previous = context.get(PDFParserConfig.class);
+            PDFParserConfig pdfConfig = new PDFParserConfig();
+            pdfConfig.setExtractInlineImages(false);
+            pdfConfig.setOcrStrategy(PDFParserConfig.OCR_STRATEGY.NO_OCR);
+            context.set(PDFParserConfig.class, pdfConfig);
+            Parser pageParser = Objects.requireNonNullElse(context.get(Parser.class), wrapped);
+            try {
+                ScannedPdfRenderer.Rendering rendering =
+                        renderer.start(tis.getPath(), pages, factory, pageParser, context);
+                try {
+                    wrapped.parse(tis, handler, metadata, context);
+                    metadata.set("vlm:rendered-pages", String.valueOf(pages));
+                } finally {
+                    // Render tasks must let go of the file before tmp deletes it
+                    rendering.close();
+                }
+            } finally {
+                context.set(PDFParserConfig.class, previous);
+            }
+        } finally {
+            tmp.close();
+        }
+    }
+
+    private static boolean isPdf(TikaInputStream tis) throws IOException {
+        byte[] head = new byte[5];
+        return tis.peek(head) == head.length
+                && Arrays.equals(head, "%PDF-".getBytes(StandardCharsets.US_ASCII));
+    }
+
     private static String firstNonNull(String a, String b) {
         return a != null ? a : b;
     }
+
+    /**
+     * Injects each image's analysis right after its <img>, each rendered
+     * page's analysis after its page, and drains the rest just before
+     * </body> (or at endDocument if the body never closes).
+     */
+    static class InjectingHandler extends ContentHandlerDecorator {
+        private final ParallelEmbeddedDocumentExtractorFactory factory;
+        private boolean drained = false;
+        private int pages = 0;
+
+        InjectingHandler(ContentHandler handler, ParallelEmbeddedDocumentExtractorFactory factory) {
+            super(handler);
+            this.factory = factory;
+        }
+
+        private static String toResourcePath(String srcOrAlt) {
+            if (srcOrAlt == null || srcOrAlt.isEmpty()) return null;
+            String p = srcOrAlt;
+            if (p.startsWith("embedded:")) p = p.substring("embedded:".length());
+            if (!p.startsWith("/")) p = "/" + p;
+            return p;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts)
+                throws SAXException {
+            if (("div".equals(localName) || "div".equals(qName)) && "page".equals(atts.getValue("class"))) {
+                // Page n+1 starts, so page n is complete; no-op unless pages are being rendered
+                if (pages > 0) {
+                    factory.injectFor(this, ScannedPdfRenderer.pagePath(pages));
+                }
+                pages++;
+            }
+            super.startElement(uri, localName, qName, atts);
+
+            if ("img".equals(localName) || "img".equals(qName)) {
+                String path = toResourcePath(firstNonNull(atts.getValue("src"), atts.getValue("alt")));
+                if (path != null) {
+                    LOGGER.info("[Decorator] injecting near <img> path={}", path);
+                    factory.injectFor(this, path);
+                } else {
+                    LOGGER.debug("[Decorator] <img> without src/alt – skip injection");
+                }
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if ("body".equals(localName) || "body".equals(qName)) {
+                // Before </body>, so body-only handlers (e.g. BodyContentHandler) keep the results
+                LOGGER.info("[Decorator] drain remaining at </body>");
+                if (pages > 0) {
+                    factory.injectFor(this, ScannedPdfRenderer.pagePath(pages));
+                }
+                factory.drainRemaining(this);
+                drained = true;
+            }
+            super.endElement(uri, localName, qName);
+        }
+
+        @Override
+        public void endDocument() throws SAXException {
+            if (!drained) {
+                LOGGER.info("[Decorator] drain remaining at endDocument");
+                factory.drainRemaining(this);
+            }
+            super.endDocument();
+        }
+    }
 }
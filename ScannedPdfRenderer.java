@@ -0,0 +1,256 @@
+// ScannedPdfRenderer.java
+package org.apache.tika.parallel;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.parser.vision.VlmSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Page-rendering mode for scanned (image-only) PDFs. Instead of the strips,
+ * masks and fragments extractInlineImages yields for a scan, each page is
+ * rendered at {@code dpi} and analyzed as one image through the factory's
+ * worker pool. Render tasks run on a small shared pool, each with its own
+ * PDDocument (PDFBox documents are not thread-safe), and encode a page before
+ * rendering the next; at most {@code maxPending} page images per document wait
+ * for analysis, so rendered pixels never build up for the whole document.
+ *
+ * -Dtika.vlm.pdf.renderPages=true (TIKA_VLM_PDF_RENDER_PAGES) enables it. Tuning:
+ * tika.vlm.pdf.dpi (default 150), tika.vlm.pdf.renderThreads (default 2),
+ * tika.vlm.pdf.maxPending (default 8), tika.vlm.pdf.scannedMaxChars (text
+ * characters a page may have and still count as scanned, default 32),
+ * tika.vlm.pdf.samplePages (pages inspected to detect a scan, default 5).
+ */
+final class ScannedPdfRenderer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScannedPdfRenderer.class);
+
+    private static volatile ScannedPdfRenderer instance;
+
+    private final float dpi;
+    private final int renderThreads;
+    private final int maxPending;
+    private final int scannedMaxChars;
+    private final int samplePages;
+    private final ExecutorService exec;
+
+    private ScannedPdfRenderer(int dpi, int renderThreads, int maxPending, int scannedMaxChars, int samplePages) {
+        this.dpi = Math.max(36, dpi);
+        this.renderThreads = Math.max(1, renderThreads);
+        this.maxPending = Math.max(1, maxPending);
+        this.scannedMaxChars = scannedMaxChars;
+        this.samplePages = Math.max(1, samplePages);
+        this.exec = Executors.newFixedThreadPool(this.renderThreads, r -> {
+            Thread t = new Thread(r, "vlm-render-" + System.nanoTime());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Shared renderer, or null when page rendering is not enabled. */
+    static ScannedPdfRenderer get() {
+        ScannedPdfRenderer r = instance;
+        if (r != null) return r;
+        synchronized (ScannedPdfRenderer.class) {
+            if (instance == null) {
+                if (!Boolean.parseBoolean(System.getProperty("tika.vlm.pdf.renderPages",
+                        System.getenv().getOrDefault("TIKA_VLM_PDF_RENDER_PAGES", "false")))) {
+                    return null;
+                }
+                instance = new ScannedPdfRenderer(
+                        VlmSettings.intProperty("tika.vlm.pdf.dpi", "TIKA_VLM_PDF_DPI", 150),
+                        VlmSettings.intProperty("tika.vlm.pdf.renderThreads", "TIKA_VLM_PDF_RENDER_THREADS", 2),
+                        VlmSettings.intProperty("tika.vlm.pdf.maxPending", "TIKA_VLM_PDF_MAX_PENDING", 8),
+                        VlmSettings.intProperty("tika.vlm.pdf.scannedMaxChars", "TIKA_VLM_PDF_SCANNED_MAX_CHARS", 32),
+                        VlmSettings.intProperty("tika.vlm.pdf.samplePages", "TIKA_VLM_PDF_SAMPLE_PAGES", 5));
+                LOGGER.info("Scanned PDF pages rendered at {} dpi on {} threads",
+                        instance.dpi, instance.renderThreads);
+            }
+            return instance;
+        }
+    }
+
+    /** Resource path a rendered page is reported under, e.g. "/page-3.png". */
+    static String pagePath(int page) {
+        return "/page-" + page + ".png";
+    }
+
+    /**
+     * Page count when {@code pdf} looks scanned: each sampled page carries an
+     * image and next to no text. 0 otherwise, or when the file cannot be read.
+     */
+    int scannedPages(Path pdf) {
+        try (PDDocument doc = PDDocument.load(pdf.toFile(), MemoryUsageSetting.setupTempFileOnly())) {
+            int pages = doc.getNumberOfPages();
+            PDFTextStripper stripper = new PDFTextStripper();
+            for (int i = 1; i <= Math.min(pages, samplePages); i++) {
+                if (!hasImage(doc.getPage(i - 1).getResources())) {
+                    return 0;
+                }
+                stripper.setStartPage(i);
+                stripper.setEndPage(i);
+                if (stripper.getText(doc).trim().length() > scannedMaxChars) {
+                    return 0;
+                }
+            }
+            return pages;
+        } catch (IOException e) {
+            LOGGER.debug("Scan detection failed: {}", e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Reserves every page with {@code factory} and starts rendering. Page
+     * analyses complete as they finish; {@link Rendering#close()} must be
+     * called before {@code pdf} is deleted.
+     */
+    Rendering start(Path pdf, int pages, ParallelEmbeddedDocumentExtractorFactory factory,
+                    Parser parser, ParseContext context) {
+        List<CompletableFuture<Metadata>> slots = new ArrayList<>(pages);
+        for (int p = 1; p <= pages; p++) {
+            slots.add(factory.reserve(pagePath(p)));
+        }
+        int workers = Math.min(renderThreads, pages);
+        Rendering rendering = new Rendering(workers, maxPending);
+        for (int w = 0; w < workers; w++) {
+            final int first = w;
+            // Interleaved so the earliest pages are ready first
+            exec.execute(() -> {
+                try {
+                    renderPages(pdf, first, workers, slots, rendering.pending, rendering.cancelled, parser, context);
+                } finally {
+                    rendering.done.countDown();
+                }
+            });
+        }
+        return rendering;
+    }
+
+    private void renderPages(Path pdf, int first, int stride, List<CompletableFuture<Metadata>> slots,
+                             Semaphore pending, AtomicBoolean cancelled, Parser parser, ParseContext context) {
+        int next = first;
+        String failure = "cancelled";
+        try (PDDocument doc = PDDocument.load(pdf.toFile(), MemoryUsageSetting.setupTempFileOnly())) {
+            PDFRenderer renderer = new PDFRenderer(doc);
+            for (; next < slots.size() && !cancelled.get(); next += stride) {
+                pending.acquire();
+                if (cancelled.get()) {
+                    pending.release();
+                    break;
+                }
+                byte[] png;
+                try {
+                    png = encodePng(renderer.renderImageWithDPI(next, dpi, ImageType.RGB));
+                } catch (IOException | RuntimeException e) {
+                    pending.release();
+                    LOGGER.warn("Rendering page {} failed: {}", next + 1, e.toString());
+                    slots.get(next).complete(failed(next, "render-failed:" + e.getClass().getSimpleName()));
+                    continue;
+                }
+                Metadata md = new Metadata();
+                md.set(Metadata.CONTENT_TYPE, "image/png");
+                md.set(TikaCoreProperties.RESOURCE_NAME_KEY, pagePath(next + 1).substring(1));
+                md.set("vlm:page", String.valueOf(next + 1));
+                final int page = next;
+                CompletableFuture<Metadata> slot = slots.get(page);
+                CompletableFuture<Metadata> analysis =
+                        ParallelEmbeddedDocumentExtractorFactory.schedule(png, md, parser, context);
+                analysis.whenComplete((result, err) -> {
+                    pending.release();
+                    slot.complete(err == null ? result
+                            : failed(page, "parseEmbedded-failed:" + err.getClass().getSimpleName()));
+                });
+                // An aborted parse cancels the slot; pass that on to the analysis
+                slot.whenComplete((result, err) -> {
+                    if (slot.isCancelled()) analysis.cancel(true);
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOGGER.warn("Cannot open PDF for rendering: {}", e.toString());
+            failure = "render-failed:" + e.getClass().getSimpleName();
+        } finally {
+            // Pages this task never scheduled must still complete, or the parse would wait forever
+            for (; next < slots.size(); next += stride) {
+                slots.get(next).complete(failed(next, failure));
+            }
+        }
+    }
+
+    private static Metadata failed(int page, String reason) {
+        Metadata md = new Metadata();
+        md.set("vlm:page", String.valueOf(page + 1));
+        md.add("vlm:error", reason);
+        return md;
+    }
+
+    private static boolean hasImage(PDResources resources) throws IOException {
+        if (resources == null) return false;
+        for (COSName name : resources.getXObjectNames()) {
+            if (resources.isImageXObject(name)) return true;
+        }
+        return false;
+    }
+
+    private static byte[] encodePng(BufferedImage img) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(img, "png", out)) {
+            throw new IOException("No PNG writer for page");
+        }
+        return out.toByteArray();
+    }
+
+    /** Render tasks of one document. */
+    static final class Rendering implements AutoCloseable {
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        // Pages rendered but not yet analyzed, so rendering cannot run far ahead of the VLM
+        private final Semaphore pending;
+        private final int workers;
+        private final CountDownLatch done;
+
+        Rendering(int workers, int maxPending) {
+            this.workers = workers;
+            this.pending = new Semaphore(maxPending);
+            this.done = new CountDownLatch(workers);
+        }
+
+        /** Stops rendering pages not yet started and waits until the render tasks let go of the file. */
+        @Override
+        public void close() {
+            cancelled.set(true);
+            // Wakes tasks waiting for a slot; they see the flag and stop
+            pending.release(workers);
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -12,11 +12,18 @@ import java.security.KeyStore;
 import java.security.SecureRandom;
 import java.io.ByteArrayInputStream;
 
+import org.apache.tika.config.TikaConfig;
 import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TemporaryResources;
+import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.mime.MediaType;
 import org.apache.tika.parser.AbstractParser;
+import org.apache.tika.parser.CompositeParser;
 import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.parser.ParserDecorator;
+import org.apache.tika.sax.BodyContentHandler;
 import org.apache.tika.sax.XHTMLContentHandler;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
@@ -35,7 +42,24 @@ import java.time.Duration;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -51,14 +75,17 @@ public class VisionLanguageModelParser extends AbstractParser {
     private static final long serialVersionUID = 1L;
     private static final Logger LOGGER = LoggerFactory.getLogger(VisionLanguageModelParser.class);
     
-    // Configuration properties
-    private String apiEndpoint;
+    // Configuration properties; the volatile ones can change at runtime (see setters)
+    private volatile String apiEndpoint;
     private String apiKey;
-    private String modelName;
+    private volatile String modelName;
     private String provider;
-    private String prompt;
-    private int maxImageSize = 20 * 1024 * 1024;
-    private int timeout = 30;
+    private volatile String prompt;
+    private volatile int maxImageSize = 20 * 1024 * 1024;
+    private volatile int timeout = 30;
+    private int maxTokens = 1000;
+    // Anthropic: send the prompt as a cached system prefix ahead of the image
+    private boolean promptCache;
     private String customCertificate; // הסרטיפיקט כמחרוזת
     
     private static final String DEFAULT_PROMPT = "Please analyze this image and provide a detailed description " +
@@ -76,9 +103,55 @@ public class VisionLanguageModelParser extends AbstractParser {
             add(MediaType.image("webp"));
             add(MediaType.image("tiff"));
         }});
+    // Added to the supported types while video analysis (tika.vlm.video) is on
+    private static final Set<MediaType> SUPPORTED_TYPES_WITH_VIDEO =
+        Collections.unmodifiableSet(new HashSet<MediaType>(SUPPORTED_TYPES) {{
+            add(MediaType.video("mp4"));
+            add(MediaType.video("quicktime"));
+            add(MediaType.video("webm"));
+            add(MediaType.video("x-matroska"));
+            add(MediaType.video("x-msvideo"));
+            add(MediaType.video("mpeg"));
+        }});
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private HttpClient httpClient;
-    private HttpClient unsafeHttpClient;
+    // Endpoint(s) with routing and health state, shared across instances
+    private volatile VlmEndpointPool endpointPool;
+    // Tail-latency hedging (tika.vlm.hedge.*), null when off
+    private VlmHedger hedger;
+    // Fast fallback while the VLM is unhealthy (tika.vlm.breaker.*), null when off
+    private VlmCircuitBreaker breaker;
+    // Cheap OCR tier for text-like images (tika.vlm.tiering), null when off
+    private VlmTierRouter tierRouter;
+
+    private volatile VlmModelRouter modelRouter;
+
+    private VlmTiler tiler;
+
+    private VlmFrameSampler frameSampler;
+
+    private VlmVideoAnalyzer videoAnalyzer;
+
+    // Cluster-wide analysis cache (tika.vlm.cache), null when off
+    private VlmAnalysisCache analysisCache;
+
+    // JSON-schema answers read into typed fields (tika.vlm.structured), null when off
+    private VlmStructuredOutput structuredOutput;
+
+    // Custom provider served over a Unix domain socket instead of TCP
+    private VlmUnixSocketTransport socketTransport;
+
+    private static final String TESSERACT_PARSER = "org.apache.tika.parser.ocr.TesseractOCRParser";
+    // Tesseract parser found per parser tree (empty when the tree has none);
+    // weak keys so trees that are thrown away do not stay reachable
+    private static final Map<Parser, Optional<Parser>> OCR_PARSERS =
+            Collections.synchronizedMap(new WeakHashMap<>());
+    // Record/replay of HTTP exchanges (tika.vlm.record / tika.vlm.replay)
+    private VlmExchangeLog.Recorder exchangeRecorder;
+    private VlmExchangeLog.Replayer exchangeReplayer;
+
+    // Live instances, so runtime settings changes also reach parsers built from tika-config
+    private static final Set<VisionLanguageModelParser> INSTANCES =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
 
     public VisionLanguageModelParser() {
         this.provider = System.getProperty("tika.vlm.provider", 
@@ -120,7 +193,122 @@ public class VisionLanguageModelParser extends AbstractParser {
                 // Keep default
             }
         }
-        this.httpClient = createHttpClient();
+        this.maxImageSize = VlmSettings.intProperty("tika.vlm.maxImageSize", "TIKA_VLM_MAX_IMAGE_SIZE",
+                maxImageSize);
+        this.maxTokens = VlmSettings.intProperty("tika.vlm.maxTokens", "TIKA_VLM_MAX_TOKENS", maxTokens);
+        // A weighted endpoint list (url|weight,...) takes precedence over the single endpoint
+        String endpoints = System.getProperty("tika.vlm.endpoints",
+                          System.getenv("TIKA_VLM_ENDPOINTS"));
+        String endpointSpec = endpoints != null && !endpoints.trim().isEmpty() ? endpoints : apiEndpoint;
+        if (endpointSpec != null && !endpointSpec.trim().isEmpty()) {
+            try {
+                this.endpointPool = endpointPool(endpointSpec);
+            } catch (IllegalArgumentException e) {
+                LOGGER.warn("Invalid VLM endpoint configuration '{}': {}", endpointSpec, e.getMessage());
+            }
+        }
+
+        String socketPath = System.getProperty("tika.vlm.socket",
+                           System.getenv("TIKA_VLM_SOCKET"));
+        if (socketPath != null && !socketPath.trim().isEmpty()) {
+            if ("openai".equalsIgnoreCase(provider) || "anthropic".equalsIgnoreCase(provider)) {
+                LOGGER.warn("tika.vlm.socket is only used with a custom provider, ignoring it for {}", provider);
+            } else {
+                this.socketTransport = VlmUnixSocketTransport.shared(socketPath.trim());
+            }
+        }
+
+        this.hedger = VlmHedger.get();
+        this.breaker = VlmCircuitBreaker.get(timeout);
+        this.tierRouter = VlmTierRouter.get();
+        this.tiler = VlmTiler.get();
+        this.frameSampler = VlmFrameSampler.get();
+        this.videoAnalyzer = VlmVideoAnalyzer.get();
+        this.analysisCache = VlmAnalysisCache.get();
+        this.structuredOutput = VlmStructuredOutput.get();
+        this.modelRouter = VlmModelRouter.fromConfig(modelName, maxTokens);
+        this.promptCache = Boolean.parseBoolean(System.getProperty("tika.vlm.promptCache",
+                          System.getenv().getOrDefault("TIKA_VLM_PROMPT_CACHE", "false")));
+
+        String replayFile = System.getProperty("tika.vlm.replay",
+                           System.getenv("TIKA_VLM_REPLAY"));
+        String recordFile = System.getProperty("tika.vlm.record",
+                           System.getenv("TIKA_VLM_RECORD"));
+        if (replayFile != null) {
+            // 1 = original timing, 10 = ten times faster, 0 = no delay
+            double speed = VlmSettings.doubleProperty("tika.vlm.replay.speed", "TIKA_VLM_REPLAY_SPEED", 1.0);
+            try {
+                this.exchangeReplayer = VlmExchangeLog.replayer(replayFile, speed);
+            } catch (IOException e) {
+                LOGGER.warn("Failed to load VLM replay file {}: {}", replayFile, e.getMessage());
+            }
+        } else if (recordFile != null) {
+            this.exchangeRecorder = VlmExchangeLog.recorder(recordFile);
+        }
+        INSTANCES.add(this);
+    }
+
+    private VlmEndpointPool endpointPool(String spec) {
+        // HTTP clients are shared per endpoint/TLS/proxy
+        return VlmEndpointPool.shared(spec,
+                url -> VlmHttpClients.shared(url, customCertificate, false, this::createHttpClient));
+    }
+
+    /** Applies {@code action} to every live parser, e.g. to retune them at runtime. */
+    public static void forEachInstance(Consumer<VisionLanguageModelParser> action) {
+        List<VisionLanguageModelParser> live;
+        synchronized (INSTANCES) {
+            live = new ArrayList<>(INSTANCES);
+        }
+        live.forEach(action);
+    }
+
+    // Runtime settings. A change applies to VLM calls that start afterwards;
+    // calls already in flight keep the values they were built with.
+
+    public String getPrompt() {
+        return prompt;
+    }
+
+    public void setPrompt(String prompt) {
+        this.prompt = prompt;
+    }
+
+    public String getModelName() {
+        return modelName;
+    }
+
+    /** Default model; tika.vlm.modelRules still route around it. */
+    public void setModelName(String modelName) {
+        this.modelName = modelName;
+        this.modelRouter = VlmModelRouter.fromConfig(modelName, maxTokens);
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /** Request timeout in seconds. */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    public int getMaxImageSize() {
+        return maxImageSize;
+    }
+
+    public void setMaxImageSize(int maxImageSize) {
+        this.maxImageSize = maxImageSize;
+    }
+
+    public String getApiEndpoint() {
+        return apiEndpoint;
+    }
+
+    /** Endpoint URL, or a weighted list (url|weight,...); replaces the endpoint pool. */
+    public void setApiEndpoint(String apiEndpoint) {
+        this.endpointPool = endpointPool(apiEndpoint);
+        this.apiEndpoint = apiEndpoint;
     }
 
     private HttpClient createHttpClient() {
@@ -203,16 +391,13 @@ public class VisionLanguageModelParser extends AbstractParser {
         return sslContext;
     }
 
-    private HttpClient getUnsafeHttpClient() {
-        if (unsafeHttpClient == null) {
-            unsafeHttpClient = UnsafeHttpClient.createUnsafeClient();
-        }
-        return unsafeHttpClient;
+    private HttpClient getUnsafeHttpClient(String endpoint) {
+        return VlmHttpClients.shared(endpoint, null, true, UnsafeHttpClient::createUnsafeClient);
     }
 
     @Override
     public Set<MediaType> getSupportedTypes(ParseContext context) {
-        return SUPPORTED_TYPES;
+        return videoAnalyzer != null ? SUPPORTED_TYPES_WITH_VIDEO : SUPPORTED_TYPES;
     }
 
     @Override
@@ -220,36 +405,229 @@ public class VisionLanguageModelParser extends AbstractParser {
                      Metadata metadata, ParseContext context)
             throws IOException, SAXException, TikaException {
         
-        if (apiKey == null || apiEndpoint == null) {
+        if (exchangeReplayer == null && (apiKey == null || endpointPool == null)) {
             throw new TikaException("VLM API not configured. Set TIKA_VLM_API_KEY and TIKA_VLM_ENDPOINT");
         }
 
+        String contentType = metadata.get(Metadata.CONTENT_TYPE);
+        if (contentType != null && contentType.startsWith("video/")) {
+            parseVideo(stream, handler, metadata);
+            return;
+        }
+
         byte[] imageData = readInputStream(stream);
         
-        if (imageData.length > maxImageSize) {
+        String mimeType = contentType != null ? contentType : "image/jpeg";
+
+        // Start the cache lookup now; it is only waited for once the size checks passed
+        String cacheKey = null;
+        CompletableFuture<VlmAnalysisCache.Hit> cached = null;
+        if (analysisCache != null && exchangeReplayer == null) {
+            cacheKey = analysisCache.key(imageData, provider, modelName, prompt, String.valueOf(maxTokens),
+                    mimeType, System.getProperty("tika.vlm.modelRules", System.getenv("TIKA_VLM_MODEL_RULES")),
+                    String.valueOf(tiler != null), String.valueOf(frameSampler != null),
+                    String.valueOf(structuredOutput != null));
+            cached = analysisCache.lookup(cacheKey);
+        }
+
+        // Frames are sent one by one, so the whole-file size limit does not apply
+        int frameCount = frameSampler != null ? frameSampler.frameCount(imageData, mimeType) : 1;
+        int[] tiledSize = frameCount == 1 && tiler != null ? tiler.tileDimensions(imageData, maxImageSize) : null;
+        if (frameCount == 1 && tiledSize == null && imageData.length > maxImageSize) {
             throw new TikaException("Image size exceeds maximum allowed size of " + maxImageSize + " bytes");
         }
 
-        String base64Image = Base64.getEncoder().encodeToString(imageData);
-        
-        String mimeType = metadata.get(Metadata.CONTENT_TYPE);
-        if (mimeType == null) {
-            mimeType = "image/jpeg";
+        // A cached answer beats any local work, including OCR by the tier router
+        if (cached != null) {
+            VlmAnalysisCache.Hit hit = analysisCache.await(cached);
+            if (hit != null) {
+                hit.applyTo(metadata);
+                if (hit.failure != null) {
+                    throw new TikaException("Failed to analyze image with VLM (cached failure): " + hit.failure);
+                }
+                return;
+            }
         }
 
+        if (frameCount == 1 && tiledSize == null && tierRouter != null
+                && tierRouter.handledLocally(imageData, findOcrParser(context), metadata, context)) {
+            return;
+        }
+
+        if (breaker != null && !breaker.tryAcquire()) {
+            analyzeWithFallback(imageData, metadata, context);
+            return;
+        }
+
+        CallTimer calls = new CallTimer();
+        boolean success = false;
         try {
             LOGGER.info("start");
-            String analysis = "HI VISION";
-            // String analysis = callVisionAPI(base64Image, mimeType);
+            VlmModelRouter.Route route = modelRouter.route(imageData, mimeType);
+            String analysis;
+            if (frameCount > 1) {
+                int[] analyzed = new int[1];
+                analysis = frameSampler.analyze(imageData, frameCount,
+                        (png, note) -> calls.time(() -> callVisionAPI(Base64.getEncoder().encodeToString(png),
+                                "image/png", route, null, note)),
+                        analyzed);
+                metadata.set("vlm:frame-count", String.valueOf(frameCount));
+                metadata.set("vlm:frames", String.valueOf(analyzed[0]));
+            } else if (tiledSize != null) {
+                int[] tiles = new int[1];
+                analysis = tiler.analyze(imageData, tiledSize,
+                        (png, note) -> calls.time(() -> callVisionAPI(Base64.getEncoder().encodeToString(png),
+                                "image/png", route, null, note)),
+                        tileText -> calls.time(() -> summarizeTiles(tileText, route)),
+                        tiles);
+                metadata.set("vlm:tiles", String.valueOf(tiles[0]));
+            } else {
+                String base64Image = Base64.getEncoder().encodeToString(imageData);
+                if (structuredOutput != null) {
+                    analysis = structuredOutput.apply(calls.time(() -> callVisionAPI(base64Image, mimeType,
+                            route, metadata, structuredOutput.instruction(), true)), metadata);
+                } else {
+                    analysis = calls.time(() -> callVisionAPI(base64Image, mimeType, route, metadata, null));
+                }
+            }
              // *** כותבים רק למטה-דאטה של ה-embedded ***
             metadata.set("vlm:provider", provider);
-            metadata.set("vlm:model", modelName);
+            metadata.set("vlm:model", route.model);
+            metadata.set("vlm:max-tokens", String.valueOf(route.maxTokens));
+            metadata.set("vlm:route", route.rule);
             metadata.set("vlm:prompt", prompt);
             metadata.set("vlm:analysis", analysis);
+            success = true;
+            if (cacheKey != null) {
+                analysisCache.store(cacheKey, metadata);
+            }
             LOGGER.info("END");
         } catch (Exception e) {
+            StatusException rejected = rejection(e);
+            if (cacheKey != null && rejected != null) {
+                analysisCache.storeFailure(cacheKey, rejected.getMessage());
+            }
             throw new TikaException("Failed to analyze image with VLM", e);
+        } finally {
+            if (breaker != null) {
+                calls.report(breaker, success);
+            }
+        }
+    }
+
+    /**
+     * Videos: key frames at scene changes are analyzed and written as a
+     * timestamped timeline, both to the XHTML and to vlm:analysis /
+     * vlm:timeline (one "hh:mm:ss text" value per scene).
+     */
+    private void parseVideo(InputStream stream, ContentHandler handler, Metadata metadata)
+            throws IOException, SAXException, TikaException {
+        if (videoAnalyzer == null) {
+            throw new TikaException("Video analysis not enabled. Set -Dtika.vlm.video=true (TIKA_VLM_VIDEO)");
+        }
+        if (breaker != null && !breaker.tryAcquire()) {
+            metadata.set("vlm:status", "deferred");
+            return;
+        }
+        List<VlmVideoAnalyzer.Scene> scenes;
+        CallTimer calls = new CallTimer();
+        boolean success = false;
+        TemporaryResources tmp = new TemporaryResources();
+        try {
+            TikaInputStream tis = TikaInputStream.get(stream, tmp, metadata);
+            int[] keyframes = new int[1];
+            scenes = videoAnalyzer.analyze(tis.getPath(),
+                    (png, note) -> calls.time(() -> callVisionAPI(Base64.getEncoder().encodeToString(png),
+                            "image/png", modelRouter.route(png, "image/png"), null, note)),
+                    keyframes);
+            metadata.set("vlm:keyframes", String.valueOf(keyframes[0]));
+            success = true;
+        } catch (Exception e) {
+            throw new TikaException("Failed to analyze video with VLM", e);
+        } finally {
+            tmp.close();
+            if (breaker != null) {
+                calls.report(breaker, success);
+            }
+        }
+
+        StringBuilder timeline = new StringBuilder();
+        for (VlmVideoAnalyzer.Scene scene : scenes) {
+            String at = VlmVideoAnalyzer.timestamp(scene.seconds);
+            metadata.add("vlm:timeline", at + " " + scene.analysis);
+            timeline.append('[').append(at).append("]\n").append(scene.analysis).append("\n\n");
+        }
+        metadata.set("vlm:scenes", String.valueOf(scenes.size()));
+        metadata.set("vlm:provider", provider);
+        metadata.set("vlm:model", modelName);
+        metadata.set("vlm:prompt", prompt);
+        metadata.set("vlm:analysis", timeline.toString().trim());
+
+        XHTMLContentHandler xhtml = new XHTMLContentHandler(handler, metadata);
+        xhtml.startDocument();
+        xhtml.startElement("div", "class", "vlm-timeline");
+        for (VlmVideoAnalyzer.Scene scene : scenes) {
+            xhtml.startElement("div", "class", "vlm-scene");
+            xhtml.element("h3", VlmVideoAnalyzer.timestamp(scene.seconds));
+            xhtml.element("p", scene.analysis);
+            xhtml.endElement("div");
         }
+        xhtml.endElement("div");
+        xhtml.endDocument();
+    }
+
+    /**
+     * Circuit open: OCR the image with the configured Tesseract parser so the
+     * document still gets its text, or mark it for later enrichment when no
+     * OCR parser is available.
+     */
+    private void analyzeWithFallback(byte[] imageData, Metadata metadata, ParseContext context) {
+        metadata.set("vlm:status", "circuit-open");
+        Parser ocr = findOcrParser(context);
+        if (ocr != null) {
+            BodyContentHandler text = new BodyContentHandler(-1);
+            try (InputStream in = new ByteArrayInputStream(imageData)) {
+                ocr.parse(in, text, metadata, context);
+                metadata.set("vlm:provider", "tesseract");
+                metadata.set("vlm:model", "ocr-fallback");
+                metadata.set("vlm:analysis", text.toString().trim());
+                return;
+            } catch (Exception e) {
+                LOGGER.warn("OCR fallback failed: {}", e.getMessage());
+            }
+        }
+        metadata.set("vlm:status", "deferred");
+    }
+
+    /** The Tesseract parser from the active parser tree (context first, then the default config). */
+    private static Parser findOcrParser(ParseContext context) {
+        Parser found = ocrParserIn(context.get(Parser.class));
+        return found != null ? found : ocrParserIn(TikaConfig.getDefaultConfig().getParser());
+    }
+
+    private static Parser ocrParserIn(Parser tree) {
+        if (tree == null) return null;
+        return OCR_PARSERS.computeIfAbsent(tree, t -> {
+            Parser found = findParser(t, new IdentityHashMap<>());
+            LOGGER.info("VLM fallback OCR parser in {}: {}", t.getClass().getSimpleName(),
+                    found != null ? found.getClass().getName() : "none");
+            return Optional.ofNullable(found);
+        }).orElse(null);
+    }
+
+    private static Parser findParser(Parser p, Map<Parser, Boolean> seen) {
+        if (p == null || seen.put(p, Boolean.TRUE) != null) return null;
+        if (TESSERACT_PARSER.equals(p.getClass().getName())) return p;
+        if (p instanceof ParserDecorator) {
+            return findParser(((ParserDecorator) p).getWrappedParser(), seen);
+        }
+        if (p instanceof CompositeParser) {
+            for (Parser child : ((CompositeParser) p).getAllComponentParsers()) {
+                Parser found = findParser(child, seen);
+                if (found != null) return found;
+            }
+        }
+        return null;
     }
 
     private byte[] readInputStream(InputStream stream) throws IOException {
@@ -262,53 +640,190 @@ public class VisionLanguageModelParser extends AbstractParser {
         return buffer.toByteArray();
     }
 
-    private String callVisionAPI(String base64Image, String mimeType) throws Exception {
-        HttpRequest request;
-        String requestBody;
+    /**
+     * One VLM call for an image. {@code note} is extra instruction text sent
+     * after the prompt (e.g. where a tile sits); {@code metadata} receives token
+     * usage and may be null.
+     */
+    private String callVisionAPI(String base64Image, String mimeType, VlmModelRouter.Route route,
+                                 Metadata metadata, String note) throws Exception {
+        return callVisionAPI(base64Image, mimeType, route, metadata, note, false);
+    }
+
+    /** As above; {@code structured} asks for the JSON schema answer of VlmStructuredOutput. */
+    private String callVisionAPI(String base64Image, String mimeType, VlmModelRouter.Route route,
+                                 Metadata metadata, String note, boolean structured) throws Exception {
+        String digest = exchangeRecorder != null || exchangeReplayer != null
+                ? VlmExchangeLog.digest(route.model, note == null ? prompt : prompt + "\n" + note,
+                        mimeType, base64Image) : null;
         
         try {
-            if ("openai".equalsIgnoreCase(provider)) {
-                requestBody = buildOpenAIRequest(base64Image, mimeType);
-                request = HttpRequest.newBuilder()
-                    .uri(URI.create(apiEndpoint))
-                    .header("Content-Type", "application/json")
-                    .header("Authorization", "Bearer " + apiKey)
-                    .timeout(Duration.ofSeconds(timeout))
-                    .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-                    .build();
-                    
-            } else if ("anthropic".equalsIgnoreCase(provider)) {
-                requestBody = buildAnthropicRequest(base64Image, mimeType);
-                request = HttpRequest.newBuilder()
-                    .uri(URI.create(apiEndpoint))
-                    .header("Content-Type", "application/json")
-                    .header("x-api-key", apiKey)
-                    .header("anthropic-version", "2023-06-01")
-                    .timeout(Duration.ofSeconds(timeout))
-                    .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-                    .build();
-                    
+            if (exchangeReplayer != null) {
+                return replayVisionAPI(digest, metadata);
+            }
+
+            String requestBody = "anthropic".equalsIgnoreCase(provider)
+                    ? buildAnthropicRequest(base64Image, mimeType, route.model, route.maxTokens, note, structured)
+                    : buildOpenAIRequest(base64Image, mimeType, route.model, route.maxTokens, note, structured);
+            return sendVisionAPI(requestBody, digest, metadata);
+        } catch (TikaException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new TikaException("Failed to call VLM API: " + e.getMessage(), e);
+        }
+    }
+
+    /** Text-only call that merges per-tile analyses into one answer. */
+    private String summarizeTiles(String tileAnalyses, VlmModelRouter.Route route) throws Exception {
+        String text = "The following are analyses of overlapping tiles cut from one large image, "
+                + "in reading order. Merge them into a single analysis of the whole image that "
+                + "follows the original instructions below. Do not mention tiles; mention content "
+                + "that spans tiles once.\n\nOriginal instructions:\n" + prompt
+                + "\n\nTile analyses:\n" + tileAnalyses;
+        String digest = exchangeRecorder != null || exchangeReplayer != null
+                ? VlmExchangeLog.digest(route.model, text, "text/plain", "") : null;
+        try {
+            if (exchangeReplayer != null) {
+                return replayVisionAPI(digest, null);
+            }
+            return sendVisionAPI(buildTextRequest(text, route.model, route.maxTokens), digest, null);
+        } catch (TikaException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new TikaException("Failed to call VLM API: " + e.getMessage(), e);
+        }
+    }
+
+    private String sendVisionAPI(String requestBody, String digest, Metadata metadata) throws Exception {
+        VlmEndpointPool.Endpoint endpoint = endpointPool.select(null);
+        HttpResponse<String> response = hedger != null
+                ? hedgedExchange(endpoint, requestBody, digest)
+                : exchange(endpoint, requestBody, digest);
+        
+        if (response.statusCode() != 200) {
+            throw new StatusException(response.statusCode(), response.body());
+        }
+
+        return parseAPIResponse(response.body(), metadata);
+    }
+
+    /** A non-200 answer from the VLM API. */
+    private static final class StatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        StatusException(int status, String body) {
+            super("VLM API returned status " + status + ": " + body);
+            this.status = status;
+        }
+    }
+
+    /**
+     * The VLM calls of one analysis as the circuit breaker sees them: the
+     * latency of the slowest single call (a tiled image is N calls, not one
+     * slow one) and the first call that failed.
+     */
+    private static final class CallTimer {
+        private final AtomicLong slowest = new AtomicLong();
+        private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+        String time(Callable<String> call) throws Exception {
+            long started = System.nanoTime();
+            try {
+                return call.call();
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+                throw e;
+            } finally {
+                slowest.accumulateAndGet(elapsedMillis(started), Math::max);
+            }
+        }
+
+        /**
+         * Only transport errors, 5xx, 408 and 429 count as failures. A request
+         * the API rejected (other 4xx) was answered by a healthy service.
+         * Cancelled analyses and local failures such as an unreadable image
+         * hand the admission back without an outcome.
+         */
+        void report(VlmCircuitBreaker breaker, boolean success) {
+            Exception e = failure.get();
+            if (success || e != null && rejection(e) != null) {
+                breaker.record(slowest.get(), true);
+            } else if (e == null || cancelled(e)) {
+                breaker.release();
             } else {
-                requestBody = buildOpenAIRequest(base64Image, mimeType);
-                request = HttpRequest.newBuilder()
-                    .uri(URI.create(apiEndpoint))
-                    .header("Content-Type", "application/json")
-                    .header("Authorization", "Bearer " + apiKey)
-                    .timeout(Duration.ofSeconds(timeout))
-                    .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-                    .build();
+                breaker.record(slowest.get(), false);
             }
+        }
+    }
 
-            HttpResponse<String> response;
+    /**
+     * True if {@code e} ended the call because it was cancelled (aborted
+     * parse, lost hedge) rather than because the VLM failed.
+     */
+    private static boolean cancelled(Throwable e) {
+        if (Thread.currentThread().isInterrupted()) return true;
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof InterruptedException || t instanceof CancellationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The API's answer when it rejected the request outright (4xx other than
+     * timeout and rate limiting), i.e. a retry would fail the same way.
+     */
+    private static StatusException rejection(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof StatusException) {
+                int status = ((StatusException) t).status;
+                return status >= 400 && status < 500 && status != 408 && status != 429
+                        ? (StatusException) t : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sends one request to the endpoint, falling back to the unsafe client,
+     * and reports the outcome to the endpoint pool (5xx, 429 and transport
+     * failures count against the endpoint's health).
+     */
+    private HttpResponse<String> exchange(VlmEndpointPool.Endpoint endpoint, String requestBody,
+                                          String digest) throws Exception {
+        HttpRequest request = newRequest(endpoint.uri, requestBody);
+        HttpResponse<String> response;
+        long started = System.nanoTime();
+        boolean healthy = false;
+        boolean cancelled = false;
+        endpointPool.start(endpoint);
+        try {
             try {
-                response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                response = socketTransport != null
+                        ? socketTransport.send(request, requestBody, TimeUnit.SECONDS.toMillis(timeout))
+                        : sendInterruptibly(endpoint.client, request);
                 LOGGER.debug("Successfully connected with secure HTTP client");
+            } catch (InterruptedException e) {
+                // Cancelled (e.g. the losing side of a hedge): no fallback, no health penalty
+                cancelled = true;
+                Thread.currentThread().interrupt();
+                throw e;
             } catch (Exception e) {
+                if (socketTransport != null) {
+                    // No TLS involved, so the unsafe client has nothing to fall back to
+                    if (exchangeRecorder != null) {
+                        exchangeRecorder.record(digest, 0, elapsedMillis(started), e.getMessage());
+                    }
+                    throw new TikaException("VLM call over Unix domain socket failed: " + e.getMessage(), e);
+                }
                 LOGGER.warn("Secure HTTP client failed: {}", e.getMessage());
                 LOGGER.info("Falling back to unsafe HTTP client...");
                 
                 try {
-                    response = getUnsafeHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+                    response = sendInterruptibly(getUnsafeHttpClient(endpoint.url), request);
                     LOGGER.info("Successfully connected with unsafe HTTP client");
                 } catch (Exception unsafeException) {
                     String errorMsg = "Both secure and unsafe HTTP clients failed:\n";
@@ -316,7 +831,7 @@ public class VisionLanguageModelParser extends AbstractParser {
                     errorMsg += "Unsafe client error: " + unsafeException.getMessage() + "\n";
                     
                     if (e instanceof javax.net.ssl.SSLHandshakeException) {
-                        errorMsg += "\nSSL Handshake failed when connecting to " + apiEndpoint + ". ";
+                        errorMsg += "\nSSL Handshake failed when connecting to " + endpoint.url + ". ";
                         errorMsg += "Possible causes: \n";
                         errorMsg += "1. Behind a corporate proxy (set -Dhttps.proxyHost and -Dhttps.proxyPort)\n";
                         errorMsg += "2. Outdated Java version (requires Java 11+)\n";
@@ -324,28 +839,163 @@ public class VisionLanguageModelParser extends AbstractParser {
                         errorMsg += "4. Network firewall blocking HTTPS traffic\n";
                     }
                     
+                    if (exchangeRecorder != null) {
+                        exchangeRecorder.record(digest, 0, elapsedMillis(started), errorMsg);
+                    }
                     throw new TikaException(errorMsg, e);
                 }
             }
-            
-            if (response.statusCode() != 200) {
-                throw new IOException("VLM API returned status " + response.statusCode() + 
-                                    ": " + response.body());
+            if (exchangeRecorder != null) {
+                exchangeRecorder.record(digest, response.statusCode(), elapsedMillis(started), response.body());
             }
-    
-            return parseAPIResponse(response.body());
-            
-        } catch (TikaException e) {
+            healthy = response.statusCode() != 429 && response.statusCode() < 500;
+            if (hedger != null && response.statusCode() == 200) {
+                hedger.record(elapsedMillis(started));
+            }
+            return response;
+        } finally {
+            if (cancelled) {
+                endpointPool.release(endpoint);
+            } else {
+                endpointPool.complete(endpoint, healthy, elapsedMillis(started));
+            }
+        }
+    }
+
+    /**
+     * Like send(), except that interrupting the caller (an aborted parse, a
+     * lost hedge) also cancels the exchange rather than leaving it running.
+     */
+    private static HttpResponse<String> sendInterruptibly(HttpClient client, HttpRequest request)
+            throws IOException, InterruptedException {
+        CompletableFuture<HttpResponse<String>> pending =
+                client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            pending.cancel(true);
             throw e;
-        } catch (Exception e) {
-            throw new TikaException("Failed to call VLM API: " + e.getMessage(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Runs the exchange and, if it is still pending after the hedge delay and
+     * the budget allows, races a duplicate on an alternate endpoint (or the
+     * same one). The first successful answer wins and the other is cancelled.
+     */
+    private HttpResponse<String> hedgedExchange(VlmEndpointPool.Endpoint endpoint, String requestBody,
+                                                String digest) throws Exception {
+        long delay = hedger.onRequest();
+        if (delay < 0) {
+            return exchange(endpoint, requestBody, digest);
+        }
+        ExecutorCompletionService<HttpResponse<String>> race =
+                new ExecutorCompletionService<>(VlmHedger.EXEC);
+        Future<HttpResponse<String>> primary;
+        try {
+            primary = race.submit(() -> exchange(endpoint, requestBody, digest));
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Hedge pool saturated, running VLM call unhedged");
+            return exchange(endpoint, requestBody, digest);
+        }
+        Future<HttpResponse<String>> hedge = null;
+        try {
+            Future<HttpResponse<String>> done = race.poll(delay, TimeUnit.MILLISECONDS);
+            if (done == null && hedger.tryHedge()) {
+                VlmEndpointPool.Endpoint alternate = endpointPool.select(endpoint);
+                try {
+                    hedge = race.submit(() -> exchange(alternate, requestBody, digest));
+                    LOGGER.debug("Hedging VLM call after {}ms on {}", delay, alternate.url);
+                } catch (RejectedExecutionException e) {
+                    LOGGER.debug("Hedge pool saturated, not hedging VLM call after {}ms", delay);
+                }
+            }
+            int pending = hedge != null ? 2 : 1;
+            Exception failure = null;
+            // A real answer (e.g. a 4xx) beats a transport failure of the other attempt
+            HttpResponse<String> answered = null;
+            while (pending-- > 0) {
+                if (done == null) {
+                    done = race.take();
+                }
+                try {
+                    HttpResponse<String> response = done.get();
+                    if (response.statusCode() == 200 || pending == 0) {
+                        if (done == hedge && response.statusCode() == 200) {
+                            hedger.hedgeWon();
+                        }
+                        return response;
+                    }
+                    answered = response;
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    if (pending == 0) {
+                        if (answered != null) {
+                            return answered;
+                        }
+                        throw failure;
+                    }
+                }
+                done = null;
+            }
+            throw failure != null ? failure : new IOException("VLM hedged call produced no response");
+        } finally {
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    private HttpRequest newRequest(URI uri, String requestBody) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+            .uri(uri)
+            .header("Content-Type", "application/json")
+            .timeout(Duration.ofSeconds(timeout))
+            .POST(HttpRequest.BodyPublishers.ofString(requestBody));
+        if ("anthropic".equalsIgnoreCase(provider)) {
+            builder.header("x-api-key", apiKey)
+                   .header("anthropic-version", "2023-06-01");
+        } else {
+            builder.header("Authorization", "Bearer " + apiKey);
         }
+        return builder.build();
     }
 
-    private String buildOpenAIRequest(String base64Image, String mimeType) 
+    /** Serves a recorded exchange with the same outcome the live call had. */
+    private String replayVisionAPI(String digest, Metadata metadata) throws Exception {
+        VlmExchangeLog.Exchange ex = exchangeReplayer.replay(digest);
+        if (ex.status == 0) {
+            throw new TikaException("Replayed transport failure:\n" + ex.body);
+        }
+        if (ex.status != 200) {
+            throw new StatusException(ex.status, ex.body);
+        }
+        return parseAPIResponse(ex.body, metadata);
+    }
+
+    private static long elapsedMillis(long startedNanos) {
+        return (System.nanoTime() - startedNanos) / 1_000_000L;
+    }
+
+    String buildOpenAIRequest(String base64Image, String mimeType) 
             throws Exception {
+        return buildOpenAIRequest(base64Image, mimeType, modelName, maxTokens, null);
+    }
+
+    String buildOpenAIRequest(String base64Image, String mimeType, String model, int maxTokens,
+                              String note) throws Exception {
+        return buildOpenAIRequest(base64Image, mimeType, model, maxTokens, note, false);
+    }
+    String buildOpenAIRequest(String base64Image, String mimeType, String model, int maxTokens,
+                              String note, boolean structured) throws Exception {
         ObjectNode root = objectMapper.createObjectNode();
-        root.put("model", modelName);
+        root.put("model", model);
         
         ArrayNode messages = root.putArray("messages");
         ObjectNode message = messages.addObject();
@@ -355,23 +1005,35 @@ public class VisionLanguageModelParser extends AbstractParser {
         
         ObjectNode textContent = content.addObject();
         textContent.put("type", "text");
-        textContent.put("text", prompt);
+        textContent.put("text", note == null ? prompt : prompt + "\n\n" + note);
         
         ObjectNode imageContent = content.addObject();
         imageContent.put("type", "image_url");
         ObjectNode imageUrl = imageContent.putObject("image_url");
         imageUrl.put("url", "data:" + mimeType + ";base64," + base64Image);
         
-        root.put("max_tokens", 1000);
+        root.put("max_tokens", maxTokens);
         root.put("temperature", 0.5);
+        if (structured) {
+            structuredOutput.addResponseFormat(root);
+        }
         
         return objectMapper.writeValueAsString(root);
     }
 
-    private String buildAnthropicRequest(String base64Image, String mimeType) 
+    String buildAnthropicRequest(String base64Image, String mimeType) 
             throws Exception {
+        return buildAnthropicRequest(base64Image, mimeType, modelName, maxTokens, null);
+    }
+
+    String buildAnthropicRequest(String base64Image, String mimeType, String model, int maxTokens,
+                                 String note) throws Exception {
+        return buildAnthropicRequest(base64Image, mimeType, model, maxTokens, note, false);
+    }
+    String buildAnthropicRequest(String base64Image, String mimeType, String model, int maxTokens,
+                                 String note, boolean structured) throws Exception {
         ObjectNode root = objectMapper.createObjectNode();
-        root.put("model", modelName);
+        root.put("model", model);
         
         ArrayNode messages = root.putArray("messages");
         ObjectNode message = messages.addObject();
@@ -379,6 +1041,17 @@ public class VisionLanguageModelParser extends AbstractParser {
         
         ArrayNode content = message.putArray("content");
         
+        if (promptCache) {
+            // Cache order is system, then messages: the prompt becomes a stable
+            // prefix that later calls read from the cache; only the image varies.
+            // Prompts shorter than the model's minimum cacheable length are sent
+            // uncached by the API.
+            ObjectNode system = root.putArray("system").addObject();
+            system.put("type", "text");
+            system.put("text", prompt);
+            system.putObject("cache_control").put("type", "ephemeral");
+        }
+        
         ObjectNode imageContent = content.addObject();
         imageContent.put("type", "image");
         ObjectNode source = imageContent.putObject("source");
@@ -386,17 +1059,50 @@ public class VisionLanguageModelParser extends AbstractParser {
         source.put("media_type", mimeType);
         source.put("data", base64Image);
         
-        ObjectNode textContent = content.addObject();
-        textContent.put("type", "text");
-        textContent.put("text", prompt);
+        if (!promptCache) {
+            ObjectNode textContent = content.addObject();
+            textContent.put("type", "text");
+            textContent.put("text", prompt);
+        }
+        if (note != null) {
+            // After the image so a cached prompt prefix stays identical
+            ObjectNode noteContent = content.addObject();
+            noteContent.put("type", "text");
+            noteContent.put("text", note);
+        }
         
-        root.put("max_tokens", 1000);
+        root.put("max_tokens", maxTokens);
+        if (structured) {
+            structuredOutput.addTool(root);
+        }
         
         return objectMapper.writeValueAsString(root);
     }
 
-    private String parseAPIResponse(String responseBody) throws Exception {
+    /** Text-only request in the provider's wire format. */
+    String buildTextRequest(String text, String model, int maxTokens) throws Exception {
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("model", model);
+        ObjectNode message = root.putArray("messages").addObject();
+        message.put("role", "user");
+        message.put("content", text);
+        root.put("max_tokens", maxTokens);
+        if (!"anthropic".equalsIgnoreCase(provider)) {
+            root.put("temperature", 0.5);
+        }
+        return objectMapper.writeValueAsString(root);
+    }
+
+    String parseAPIResponse(String responseBody) throws Exception {
+        return parseAPIResponse(responseBody, null);
+    }
+
+    /** Parses the analysis text and, when {@code metadata} is given, records token usage. */
+    String parseAPIResponse(String responseBody, Metadata metadata) throws Exception {
         JsonNode root = objectMapper.readTree(responseBody);
+        if (metadata != null) {
+            recordUsage(root.get("usage"), metadata);
+        }
         
         if ("openai".equalsIgnoreCase(provider)) {
             JsonNode choices = root.get("choices");
@@ -411,6 +1117,12 @@ public class VisionLanguageModelParser extends AbstractParser {
             }
         } else if ("anthropic".equalsIgnoreCase(provider)) {
             JsonNode content = root.get("content");
+            // Structured output arrives as the forced tool call's input
+            for (JsonNode block : content != null ? content : objectMapper.createArrayNode()) {
+                if ("tool_use".equals(block.path("type").asText()) && block.has("input")) {
+                    return block.get("input").toString();
+                }
+            }
             if (content != null && content.size() > 0) {
                 JsonNode text = content.get(0).get("text");
                 if (text != null) {
@@ -436,6 +1148,29 @@ public class VisionLanguageModelParser extends AbstractParser {
         throw new IOException("Unable to parse VLM API response");
     }
 
+    /**
+     * Token usage in either wire format: Anthropic reports cache reads and writes
+     * separately, OpenAI-compatible servers report cached prompt tokens.
+     */
+    private static void recordUsage(JsonNode usage, Metadata metadata) {
+        if (usage == null || !usage.isObject()) {
+            return;
+        }
+        setTokens(metadata, "vlm:input-tokens", usage.get("input_tokens"));
+        setTokens(metadata, "vlm:input-tokens", usage.get("prompt_tokens"));
+        setTokens(metadata, "vlm:output-tokens", usage.get("output_tokens"));
+        setTokens(metadata, "vlm:output-tokens", usage.get("completion_tokens"));
+        setTokens(metadata, "vlm:cache-read-tokens", usage.get("cache_read_input_tokens"));
+        setTokens(metadata, "vlm:cache-write-tokens", usage.get("cache_creation_input_tokens"));
+        setTokens(metadata, "vlm:cache-read-tokens", usage.path("prompt_tokens_details").get("cached_tokens"));
+    }
+
+    private static void setTokens(Metadata metadata, String name, JsonNode value) {
+        if (value != null && value.isNumber()) {
+            metadata.set(name, value.asText());
+        }
+    }
+
 }
 
 class UnsafeHttpClient {
@@ -0,0 +1,495 @@
+// VlmAnalysisCache.java
+package org.apache.tika.parser.vision;
+
+import org.apache.tika.metadata.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Analysis cache shared by every replica of a cluster: a bounded in-process
+ * near-cache in front of a remote store, so an image is sent to the VLM about
+ * once per cluster instead of once per process. Keys are a SHA-256 of the
+ * image bytes and the settings that shape the answer (provider, model, prompt,
+ * max tokens, routing rules).
+ *
+ * Lookups are asynchronous: the parser starts one as soon as it has the bytes
+ * and only waits for it (at most {@code timeoutMs}, then it is a miss) once it
+ * is about to call the VLM. Stores are fire-and-forget. Permanent failures
+ * (4xx other than 408/429) are cached for {@code negativeTtlSeconds}, so a
+ * rejected image is not re-sent by every replica. Values are a small binary
+ * record, deflated when the analysis is long.
+ *
+ * -Dtika.vlm.cache (TIKA_VLM_CACHE) picks the remote store and enables the
+ * cache: {@code redis://[:password@]host:port[/db]} for a Redis-protocol
+ * server, {@code memory} for an in-process stand-in (single node, tests), or
+ * the class name of a {@link Backend} with a no-argument constructor. Tuning:
+ * tika.vlm.cache.ttlHours (default 168), tika.vlm.cache.negativeTtlSeconds
+ * (default 60, 0 disables), tika.vlm.cache.nearEntries (default 10000),
+ * tika.vlm.cache.timeoutMs (remote lookup wait, default 100),
+ * tika.vlm.cache.salt (mixed into keys to invalidate everything).
+ */
+public final class VlmAnalysisCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VlmAnalysisCache.class);
+
+    private static final String KEY_PREFIX = "tika:vlm:";
+    static final byte VERSION = 2;
+    static final byte KIND_RESULT = 0;
+    static final byte KIND_FAILURE = 1;
+    static final byte FLAG_DEFLATED = 0x10;
+    private static final int DEFLATE_OVER = 512;
+
+    // Metadata the analysis produces; the index is the field's id in encoded values
+    private static final String[] FIELDS = {
+            "vlm:analysis", "vlm:provider", "vlm:model", "vlm:max-tokens", "vlm:route",
+            "vlm:prompt", "vlm:tiles", "vlm:frames", "vlm:frame-count",
+            "vlm:objects", "vlm:tags", "vlm:text", "vlm:scene"
+    };
+
+    private static volatile VlmAnalysisCache instance;
+
+    private final Backend backend;
+    private final Near near;
+    private final long ttlSeconds;
+    private final long negativeTtlSeconds;
+    private final long timeoutMillis;
+    private final String salt;
+
+    private final AtomicLong nearHits = new AtomicLong();
+    private final AtomicLong remoteHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Remote store. Implementations must not block the caller: both methods
+     * return at once and complete later. A failed lookup counts as a miss.
+     */
+    public interface Backend {
+        /** The value stored under {@code key}, or null if there is none. */
+        CompletableFuture<byte[]> get(String key);
+
+        CompletableFuture<Void> put(String key, byte[] value, long ttlSeconds);
+    }
+
+    /** A cached answer: the analysis fields, or the message of a permanent failure. */
+    static final class Hit {
+        final Map<String, List<String>> fields;
+        final String failure;
+        final String level;
+
+        private Hit(Map<String, List<String>> fields, String failure, String level) {
+            this.fields = fields;
+            this.failure = failure;
+            this.level = level;
+        }
+
+        /** Copies the cached fields into {@code md}; vlm:cache says where they came from. */
+        void applyTo(Metadata md) {
+            for (Map.Entry<String, List<String>> e : fields.entrySet()) {
+                md.remove(e.getKey());
+                for (String v : e.getValue()) md.add(e.getKey(), v);
+            }
+            md.set("vlm:cache", failure != null ? "negative-" + level : level);
+        }
+    }
+
+    private VlmAnalysisCache(Backend backend, int nearEntries, long ttlSeconds, long negativeTtlSeconds,
+                             long timeoutMillis, String salt) {
+        this.backend = backend;
+        this.near = new Near(Math.max(0, nearEntries));
+        this.ttlSeconds = Math.max(1, ttlSeconds);
+        this.negativeTtlSeconds = negativeTtlSeconds;
+        this.timeoutMillis = Math.max(0, timeoutMillis);
+        this.salt = salt == null ? "" : salt;
+    }
+
+    /** Shared cache, or null when tika.vlm.cache is not set. */
+    static VlmAnalysisCache get() {
+        VlmAnalysisCache c = instance;
+        if (c != null) return c;
+        synchronized (VlmAnalysisCache.class) {
+            if (instance == null) {
+                String spec = System.getProperty("tika.vlm.cache", System.getenv("TIKA_VLM_CACHE"));
+                if (spec == null || spec.trim().isEmpty()) {
+                    return null;
+                }
+                Backend backend;
+                try {
+                    backend = backend(spec.trim());
+                } catch (ReflectiveOperationException | ClassCastException | IllegalArgumentException e) {
+                    LOGGER.warn("Invalid VLM cache backend '{}': {}", spec, e.toString());
+                    return null;
+                }
+                instance = new VlmAnalysisCache(backend,
+                        VlmSettings.intProperty("tika.vlm.cache.nearEntries", "TIKA_VLM_CACHE_NEAR_ENTRIES", 10000),
+                        TimeUnit.HOURS.toSeconds(VlmSettings.intProperty("tika.vlm.cache.ttlHours", "TIKA_VLM_CACHE_TTL_HOURS", 168)),
+                        VlmSettings.intProperty("tika.vlm.cache.negativeTtlSeconds", "TIKA_VLM_CACHE_NEGATIVE_TTL_SECONDS", 60),
+                        VlmSettings.intProperty("tika.vlm.cache.timeoutMs", "TIKA_VLM_CACHE_TIMEOUT_MS", 100),
+                        System.getProperty("tika.vlm.cache.salt", System.getenv("TIKA_VLM_CACHE_SALT")));
+                LOGGER.info("VLM analysis cache: {} (near-cache {} entries)",
+                        backend.getClass().getSimpleName(), instance.near.capacity);
+            }
+            return instance;
+        }
+    }
+
+    private static Backend backend(String spec) throws ReflectiveOperationException {
+        if ("memory".equalsIgnoreCase(spec)) {
+            return new MemoryBackend();
+        }
+        if (spec.startsWith("redis://")) {
+            return new RedisBackend(URI.create(spec));
+        }
+        return (Backend) Class.forName(spec).getDeclaredConstructor().newInstance();
+    }
+
+    /** Cache key for {@code image} under the given settings (provider, model, prompt, ...). */
+    String key(byte[] image, String... settings) {
+        MessageDigest sha = sha256();
+        sha.update(image);
+        for (String s : settings) {
+            sha.update((byte) 0);
+            if (s != null) sha.update(s.getBytes(StandardCharsets.UTF_8));
+        }
+        sha.update((byte) 0);
+        sha.update(salt.getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder(KEY_PREFIX.length() + 64).append(KEY_PREFIX);
+        for (byte b : sha.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /** Starts a lookup: the near-cache answers at once, otherwise the remote store is asked. */
+    CompletableFuture<Hit> lookup(String key) {
+        byte[] local = near.get(key);
+        if (local != null) {
+            return CompletableFuture.completedFuture(decode(local, "near"));
+        }
+        return backend.get(key).handle((value, err) -> {
+            if (err != null) {
+                LOGGER.debug("VLM cache lookup failed: {}", err.toString());
+                return null;
+            }
+            if (value == null) return null;
+            Hit hit = decode(value, "remote");
+            if (hit != null) near.put(key, value, hit.failure != null ? negativeTtlSeconds : ttlSeconds);
+            return hit;
+        });
+    }
+
+    /** Waits for a lookup; null on a miss, an error, or when the remote store is too slow. */
+    Hit await(CompletableFuture<Hit> lookup) {
+        Hit hit;
+        try {
+            hit = lookup.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            hit = null;
+        } catch (ExecutionException | TimeoutException e) {
+            hit = null;
+        }
+        if (hit == null) {
+            misses.incrementAndGet();
+        } else {
+            ("near".equals(hit.level) ? nearHits : remoteHits).incrementAndGet();
+        }
+        return hit;
+    }
+
+    /** Stores the analysis fields of {@code md}. */
+    void store(String key, Metadata md) {
+        Map<String, List<String>> fields = new LinkedHashMap<>();
+        for (String f : FIELDS) {
+            String[] v = md.getValues(f);
+            if (v.length > 0) fields.put(f, Arrays.asList(v));
+        }
+        write(key, encode(KIND_RESULT, fields, null), ttlSeconds);
+    }
+
+    /** Remembers a permanent failure for negativeTtlSeconds. */
+    void storeFailure(String key, String message) {
+        if (negativeTtlSeconds <= 0) return;
+        write(key, encode(KIND_FAILURE, Map.of(), message == null ? "" : message), negativeTtlSeconds);
+    }
+
+    private void write(String key, byte[] value, long ttl) {
+        near.put(key, value, ttl);
+        backend.put(key, value, ttl).whenComplete((v, err) -> {
+            if (err != null) LOGGER.debug("VLM cache store failed: {}", err.toString());
+        });
+    }
+
+    long nearHits() {
+        return nearHits.get();
+    }
+
+    long remoteHits() {
+        return remoteHits.get();
+    }
+
+    long misses() {
+        return misses.get();
+    }
+
+    // ===== value encoding =====
+    // version(1) kind|flags(1) body; body (deflated when flagged) =
+    // failure? varint-string : varint-count { field-id(1) varint-string },
+    // a multi-valued field repeating its id once per value
+
+    static byte[] encode(byte kind, Map<String, List<String>> fields, String failure) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        if (failure != null) {
+            writeString(body, failure);
+        } else {
+            int count = 0;
+            for (List<String> values : fields.values()) count += values.size();
+            writeVarint(body, count);
+            for (Map.Entry<String, List<String>> e : fields.entrySet()) {
+                int id = fieldId(e.getKey());
+                for (String v : e.getValue()) {
+                    body.write(id);
+                    writeString(body, v);
+                }
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() + 2);
+        out.write(VERSION);
+        if (body.size() > DEFLATE_OVER) {
+            out.write(kind | FLAG_DEFLATED);
+            try (DeflaterOutputStream z = new DeflaterOutputStream(out)) {
+                body.writeTo(z);
+            } catch (IOException e) {
+                throw new IllegalStateException(e); // In-memory streams do not fail
+            }
+        } else {
+            out.write(kind);
+            out.write(body.toByteArray(), 0, body.size());
+        }
+        return out.toByteArray();
+    }
+
+    /** Null for a value this version cannot read (e.g. written by a newer one). */
+    static Hit decode(byte[] value, String level) {
+        if (value.length < 2 || value[0] != VERSION) return null;
+        int kind = value[1] & 0x0F;
+        InputStream in = new ByteArrayInputStream(value, 2, value.length - 2);
+        if ((value[1] & FLAG_DEFLATED) != 0) {
+            in = new InflaterInputStream(in);
+        }
+        try (InputStream body = in) {
+            if (kind == KIND_FAILURE) {
+                return new Hit(Map.of(), readString(body), level);
+            }
+            int count = readVarint(body);
+            Map<String, List<String>> fields = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                int id = readByte(body);
+                String v = readString(body);
+                if (id < FIELDS.length) fields.computeIfAbsent(FIELDS[id], k -> new ArrayList<>(1)).add(v);
+            }
+            return new Hit(fields, null, level);
+        } catch (IOException e) {
+            LOGGER.debug("Unreadable VLM cache value: {}", e.toString());
+            return null;
+        }
+    }
+
+    private static int fieldId(String name) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i].equals(name)) return i;
+        }
+        throw new IllegalArgumentException("Not a cached field: " + name);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, b.length);
+        out.write(b, 0, b.length);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int n) {
+        while ((n & ~0x7F) != 0) {
+            out.write((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        out.write(n);
+    }
+
+    private static int readVarint(InputStream in) throws IOException {
+        int n = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = readByte(in);
+            n |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return n;
+            if (shift > 28) throw new IOException("Bad length");
+        }
+    }
+
+    private static String readString(InputStream in) throws IOException {
+        int n = readVarint(in);
+        byte[] b = in.readNBytes(n);
+        if (b.length != n) throw new EOFException();
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) throw new EOFException();
+        return b;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** LRU of encoded values with per-entry expiry. */
+    private static final class Near {
+        private final int capacity;
+        private final LinkedHashMap<String, CacheEntry> map;
+
+        Near(int capacity) {
+            this.capacity = capacity;
+            this.map = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                    return size() > Near.this.capacity;
+                }
+            };
+        }
+
+        synchronized byte[] get(String key) {
+            CacheEntry e = map.get(key);
+            if (e == null) return null;
+            if (e.expires < System.currentTimeMillis()) {
+                map.remove(key);
+                return null;
+            }
+            return e.value;
+        }
+
+        synchronized void put(String key, byte[] value, long ttlSeconds) {
+            if (capacity > 0) {
+                map.put(key, new CacheEntry(value, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds)));
+            }
+        }
+    }
+
+    private static final class CacheEntry {
+        final byte[] value;
+        final long expires;
+
+        CacheEntry(byte[] value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    /** In-process stand-in for the remote store: one node, or tests without a Redis. */
+    static final class MemoryBackend implements Backend {
+        private final ConcurrentMap<String, CacheEntry> map = new ConcurrentHashMap<>();
+
+        @Override
+        public CompletableFuture<byte[]> get(String key) {
+            CacheEntry e = map.get(key);
+            if (e != null && e.expires < System.currentTimeMillis()) {
+                map.remove(key, e);
+                e = null;
+            }
+            return CompletableFuture.completedFuture(e == null ? null : e.value);
+        }
+
+        @Override
+        public CompletableFuture<Void> put(String key, byte[] value, long ttlSeconds) {
+            map.put(key, new CacheEntry(value, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds)));
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Redis-protocol store over one pipelined {@link VlmRedisClient}
+     * connection: GET and SET ... EX. After a connection failure requests
+     * fail fast for a few seconds before reconnecting.
+     */
+    static final class RedisBackend implements Backend {
+        private static final long RECONNECT_MILLIS = 5000;
+
+        private final VlmRedisClient client;
+        private VlmRedisClient.Pipeline connection;
+        private long downUntil;
+
+        RedisBackend(URI uri) {
+            this.client = new VlmRedisClient(uri);
+        }
+
+        @Override
+        public CompletableFuture<byte[]> get(String key) {
+            return send(bytes("GET"), bytes(key)).thenApply(r -> (byte[]) r);
+        }
+
+        @Override
+        public CompletableFuture<Void> put(String key, byte[] value, long ttlSeconds) {
+            return send(bytes("SET"), bytes(key), value, bytes("EX"), bytes(String.valueOf(ttlSeconds)))
+                    .thenApply(r -> null);
+        }
+
+        private CompletableFuture<Object> send(byte[]... command) {
+            VlmRedisClient.Pipeline c;
+            try {
+                c = connection();
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            return c.send(command);
+        }
+
+        private synchronized VlmRedisClient.Pipeline connection() throws IOException {
+            if (connection != null && !connection.isClosed()) {
+                return connection;
+            }
+            long now = System.currentTimeMillis();
+            if (now < downUntil) {
+                throw new IOException("Redis " + client.address() + " unavailable");
+            }
+            try {
+                connection = client.pipeline("vlm-cache-redis-" + System.nanoTime());
+                return connection;
+            } catch (IOException e) {
+                downUntil = now + RECONNECT_MILLIS;
+                LOGGER.warn("Cannot connect to Redis {}: {}", client.address(), e.getMessage());
+                throw e;
+            }
+        }
+
+        private static byte[] bytes(String s) {
+            return VlmRedisClient.bytes(s);
+        }
+    }
+}
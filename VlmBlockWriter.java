@@ -0,0 +1,250 @@
+// VlmBlockWriter.java
+package org.apache.tika.parallel;
+
+import org.apache.tika.metadata.Metadata;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import java.util.Locale;
+
+/**
+ * Writes the injected analysis blocks of one parse. The output mode is taken
+ * from -Dtika.vlm.output (TIKA_VLM_OUTPUT) when the parse starts, or changed
+ * at runtime through VlmPipelineControl:
+ * <ul>
+ *   <li>{@code full} (default) – plain text banner plus the XHTML div</li>
+ *   <li>{@code xhtml} – the div only; text extraction still sees its paragraphs</li>
+ *   <li>{@code text} – the plain text banner only, no elements</li>
+ *   <li>{@code compact} – one div per image with image and model as attributes,
+ *       the analysis once and the structured lists, no banner</li>
+ *   <li>{@code metadata} – nothing in the content; the document metadata gets
+ *       vlm:image and vlm:image-analysis, one value per image in the same order</li>
+ * </ul>
+ * Text goes through one reusable buffer per parse (SAX handlers may not keep
+ * the array) and fixed attributes are built once.
+ */
+final class VlmBlockWriter {
+
+    enum Mode { FULL, XHTML, TEXT, COMPACT, METADATA }
+
+    static final String IMAGE = "vlm:image";
+    static final String IMAGE_ANALYSIS = "vlm:image-analysis";
+    static final String IMAGE_PENDING = "vlm:image-pending";
+
+    private static final Attributes NONE = new AttributesImpl();
+    private static final Attributes RESULT = attributes("class", "vlm-result");
+    private static final Attributes OBJECTS = attributes("class", "vlm-objects");
+    private static final Attributes TAGS = attributes("class", "vlm-tags");
+    private static final String NL = System.lineSeparator();
+
+    private static volatile Mode mode = parse(System.getProperty("tika.vlm.output",
+            System.getenv().getOrDefault("TIKA_VLM_OUTPUT", "full")), Mode.FULL);
+
+    private final Mode current;
+    private final Metadata document;
+    private final char[] buf = new char[4096];
+    private int len;
+
+    /** Writer in the configured mode; {@code document} receives the analyses in metadata mode. */
+    VlmBlockWriter(Metadata document) {
+        this(mode, document);
+    }
+
+    VlmBlockWriter(Mode mode, Metadata document) {
+        // Without a document to attach to, metadata mode would drop the results
+        this.current = document == null && mode == Mode.METADATA ? Mode.FULL : mode;
+        this.document = document;
+    }
+
+    static Mode mode() {
+        return mode;
+    }
+
+    /** Applies to parses that start afterwards. */
+    static void setMode(String name) {
+        Mode m = parse(name, null);
+        if (m == null) {
+            throw new IllegalArgumentException("Unknown output mode: " + name);
+        }
+        mode = m;
+    }
+
+    private static Mode parse(String name, Mode def) {
+        try {
+            return Mode.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return def;
+        }
+    }
+
+    void result(ContentHandler h, String path, Metadata md) throws SAXException {
+        String analysis = md.get("vlm:analysis");
+        String provider = md.get("vlm:provider");
+        String model = md.get("vlm:model");
+        String[] objects = md.getValues("vlm:objects");
+        String[] tags = md.getValues("vlm:tags");
+
+        switch (current) {
+            case METADATA:
+                document.add(IMAGE, path);
+                document.add(IMAGE_ANALYSIS, analysis == null ? "" : analysis);
+                return;
+            case COMPACT: {
+                AttributesImpl a = new AttributesImpl(RESULT);
+                a.addAttribute("", "data-image", "data-image", "CDATA", path);
+                if (model != null) a.addAttribute("", "data-model", "data-model", "CDATA", model);
+                h.startElement("", "div", "div", a);
+                append(h, NL);
+                append(h, analysis);
+                append(h, NL);
+                flush(h);
+                list(h, OBJECTS, objects);
+                list(h, TAGS, tags);
+                h.endElement("", "div", "div");
+                return;
+            }
+            default:
+                break;
+        }
+
+        if (current == Mode.FULL || current == Mode.TEXT) {
+            // Plain text – ensures visibility in /tika/text:
+            append(h, NL);
+            append(h, "=== VLM Analysis for ");
+            append(h, path);
+            append(h, " ===");
+            append(h, NL);
+            append(h, analysis);
+            if (objects.length > 0) {
+                append(h, NL);
+                append(h, "Objects: ");
+                join(h, objects);
+            }
+            if (tags.length > 0) {
+                append(h, NL);
+                append(h, "Tags: ");
+                join(h, tags);
+            }
+            append(h, NL);
+            append(h, "[provider=");
+            append(h, String.valueOf(provider));
+            append(h, ", model=");
+            append(h, String.valueOf(model));
+            append(h, "]");
+            append(h, NL);
+            flush(h);
+        }
+
+        if (current == Mode.FULL || current == Mode.XHTML) {
+            // Minimal XHTML for /tika:
+            h.startElement("", "div", "div", RESULT);
+            element(h, "h3", "Vision Language Model Analysis");
+            startElement(h, "p");
+            append(h, "image=");
+            append(h, path);
+            endElement(h, "p");
+            element(h, "p", analysis);
+            list(h, OBJECTS, objects);
+            list(h, TAGS, tags);
+            startElement(h, "p");
+            append(h, "provider=");
+            append(h, String.valueOf(provider));
+            append(h, ", model=");
+            append(h, String.valueOf(model));
+            endElement(h, "p");
+            h.endElement("", "div", "div");
+        }
+    }
+
+    /** Placeholder for a result that will land in the deferred store. */
+    void pending(ContentHandler h, String path, String id) throws SAXException {
+        if (current == Mode.METADATA) {
+            document.add(IMAGE, path);
+            document.add(IMAGE_PENDING, id);
+            return;
+        }
+        if (current != Mode.XHTML && current != Mode.COMPACT) {
+            append(h, NL);
+            append(h, "=== VLM Analysis pending for ");
+            append(h, path);
+            append(h, " (id=");
+            append(h, id);
+            append(h, ") ===");
+            append(h, NL);
+            flush(h);
+        }
+        if (current != Mode.TEXT) {
+            h.startElement("", "div", "div", attributes("class", "vlm-pending", "data-vlm-id", id));
+            startElement(h, "p");
+            append(h, "image=");
+            append(h, path);
+            endElement(h, "p");
+            h.endElement("", "div", "div");
+        }
+    }
+
+    private void list(ContentHandler h, Attributes atts, String[] items) throws SAXException {
+        if (items.length == 0) return;
+        h.startElement("", "ul", "ul", atts);
+        for (String item : items) {
+            element(h, "li", item);
+        }
+        h.endElement("", "ul", "ul");
+    }
+
+    private void element(ContentHandler h, String tag, String text) throws SAXException {
+        if (text == null) return;
+        startElement(h, tag);
+        append(h, text);
+        endElement(h, tag);
+    }
+
+    private void startElement(ContentHandler h, String tag) throws SAXException {
+        h.startElement("", tag, tag, NONE);
+    }
+
+    private void endElement(ContentHandler h, String tag) throws SAXException {
+        flush(h);
+        h.endElement("", tag, tag);
+    }
+
+    private void join(ContentHandler h, String[] items) throws SAXException {
+        for (int i = 0; i < items.length; i++) {
+            if (i > 0) append(h, ", ");
+            append(h, items[i]);
+        }
+    }
+
+    /** Copies {@code s} into the buffer, handing full buffers to {@code h}. */
+    private void append(ContentHandler h, String s) throws SAXException {
+        if (s == null) return;
+        int off = 0;
+        int n = s.length();
+        while (off < n) {
+            int take = Math.min(n - off, buf.length - len);
+            s.getChars(off, off + take, buf, len);
+            len += take;
+            off += take;
+            if (len == buf.length) {
+                flush(h);
+            }
+        }
+    }
+
+    private void flush(ContentHandler h) throws SAXException {
+        if (len > 0) {
+            h.characters(buf, 0, len);
+            len = 0;
+        }
+    }
+
+    static Attributes attributes(String... kv) {
+        AttributesImpl a = new AttributesImpl();
+        for (int i = 0; i + 1 < kv.length; i += 2) {
+            a.addAttribute("", kv[i], kv[i], "CDATA", kv[i + 1]);
+        }
+        return a;
+    }
+}
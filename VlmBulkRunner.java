@@ -0,0 +1,455 @@
+// VlmBulkRunner.java
+package org.apache.tika.parallel;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.extractor.EmbeddedDocumentExtractorFactory;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.DefaultParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.parser.ParserDecorator;
+import org.apache.tika.parser.pdf.PDFParserConfig;
+import org.apache.tika.parser.vision.VisionLanguageModelParser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.LinkOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulk runner for backfills: walks a directory tree in parallel, parses every
+ * document through {@link ParallelizingParserDecorator} and writes the text
+ * with injected analyses to an output directory, without going through Tika
+ * server.
+ *
+ * <pre>java -cp ... org.apache.tika.parallel.VlmBulkRunner &lt;inputDir&gt; &lt;outputDir&gt;</pre>
+ *
+ * The output directory holds:
+ * <ul>
+ *   <li>{@code documents/<relative path>.txt} – extracted text per document</li>
+ *   <li>{@code images.jsonl} – analysis per image digest and VLM settings; images
+ *       are deduplicated across the whole run, so an image seen in many documents
+ *       is sent once, and a rerun with another model or prompt analyzes anew</li>
+ *   <li>{@code progress.log} – one line per finished document; a restarted run
+ *       skips documents recorded as ok with unchanged size and mtime, and
+ *       reuses every analysis in images.jsonl. A document whose text was
+ *       written but some image analyses failed, timed out or fell back is
+ *       recorded as partial and parsed again on restart</li>
+ * </ul>
+ *
+ * Documents in flight: -Dtika.vlm.bulk.threads (default 8). Image analyses
+ * are bounded by the factory pool (tika.vlm.threads). Directory walkers:
+ * -Dtika.vlm.bulk.walkers (default 4). File filter: -Dtika.vlm.bulk.include,
+ * a glob on the file name, default {@code *.{pdf,docx,pptx,xlsx,doc,ppt,xls,odt,odp,rtf,eml,msg}}.
+ * Symbolic links to directories are not followed.
+ * Throughput is reported every -Dtika.vlm.bulk.reportSeconds (default 10).
+ */
+public final class VlmBulkRunner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VlmBulkRunner.class);
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final Path input;
+    private final Path output;
+    private final PathMatcher include;
+    private final Parser autoDetect;
+    private final ImageStore images;
+    private final Map<String, String> done = new ConcurrentHashMap<>();
+    private final Writer progress;
+
+    private final AtomicLong parsed = new AtomicLong();
+    private final AtomicLong partial = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private VlmBulkRunner(Path input, Path output, String includeGlob) throws IOException {
+        this.input = input;
+        this.output = output;
+        this.include = FileSystems.getDefault().getPathMatcher("glob:" + includeGlob);
+        Files.createDirectories(output.resolve("documents"));
+        this.images = new ImageStore(output.resolve("images.jsonl"), DocumentOutputCache.configFingerprint());
+        Path progressFile = output.resolve("progress.log");
+        loadProgress(progressFile);
+        this.progress = Files.newBufferedWriter(progressFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        // VLM parser listed last so it wins the image types over DefaultParser
+        this.autoDetect = new AutoDetectParser(new DefaultParser(),
+                new DedupingImageParser(new VisionLanguageModelParser(), images));
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: VlmBulkRunner <inputDir> <outputDir>");
+            System.exit(2);
+        }
+        Path input = Paths.get(args[0]).toAbsolutePath().normalize();
+        Path output = Paths.get(args[1]).toAbsolutePath().normalize();
+        if (!Files.isDirectory(input)) {
+            System.err.println("Not a directory: " + input);
+            System.exit(2);
+        }
+        VlmBulkRunner runner = new VlmBulkRunner(input, output,
+                System.getProperty("tika.vlm.bulk.include", "*.{pdf,docx,pptx,xlsx,doc,ppt,xls,odt,odp,rtf,eml,msg}"));
+        runner.run(Integer.getInteger("tika.vlm.bulk.threads", 8),
+                Integer.getInteger("tika.vlm.bulk.walkers", 4),
+                Integer.getInteger("tika.vlm.bulk.reportSeconds", 10));
+    }
+
+    private void run(int threads, int walkers, int reportSeconds) throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "vlm-bulk-" + System.nanoTime());
+            t.setDaemon(true);
+            return t;
+        });
+        // Keeps the walker from queueing the whole tree ahead of the workers
+        Semaphore slots = new Semaphore(threads * 4);
+        long start = System.nanoTime();
+        Thread reporter = new Thread(() -> {
+            try {
+                while (true) {
+                    TimeUnit.SECONDS.sleep(reportSeconds);
+                    report(start);
+                }
+            } catch (InterruptedException e) {
+                // Finished
+            }
+        }, "vlm-bulk-report");
+        reporter.setDaemon(true);
+        reporter.start();
+
+        ForkJoinPool walkPool = new ForkJoinPool(walkers);
+        try {
+            walkPool.invoke(new Walk(input, file -> {
+                slots.acquireUninterruptibly();
+                workers.execute(() -> {
+                    try {
+                        process(file);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }));
+        } finally {
+            walkPool.shutdown();
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            reporter.interrupt();
+            progress.close();
+            images.close();
+        }
+        report(start);
+        System.out.println("Done. Output in " + output);
+    }
+
+    private void process(Path file) {
+        String rel = input.relativize(file).toString();
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            finish(rel, "-", "failed", e.toString());
+            return;
+        }
+        String version = attrs.size() + ":" + attrs.lastModifiedTime().toMillis();
+        if (version.equals(done.get(rel))) {
+            skipped.incrementAndGet();
+            return;
+        }
+
+        ParseContext context = new ParseContext();
+        context.set(Parser.class, autoDetect);
+        // Same as the server config: images inside PDFs are analyzed too
+        PDFParserConfig pdfConfig = new PDFParserConfig();
+        pdfConfig.setExtractInlineImages(true);
+        pdfConfig.setExtractUniqueInlineImagesOnly(true);
+        context.set(PDFParserConfig.class, pdfConfig);
+        Metadata metadata = new Metadata();
+        metadata.set("resourceName", file.getFileName().toString());
+        BodyContentHandler text = new BodyContentHandler(-1);
+        try (InputStream in = Files.newInputStream(file)) {
+            new ParallelizingParserDecorator(autoDetect).parse(in, text, metadata, context);
+            Path out = output.resolve("documents").resolve(rel + ".txt");
+            Files.createDirectories(out.getParent());
+            Files.write(out, text.toString().getBytes(StandardCharsets.UTF_8));
+            bytes.addAndGet(attrs.size());
+            parsed.incrementAndGet();
+            // The decorator leaves its factory on the context; it knows whether every image got an analysis
+            EmbeddedDocumentExtractorFactory factory = context.get(EmbeddedDocumentExtractorFactory.class);
+            if (factory instanceof ParallelEmbeddedDocumentExtractorFactory
+                    && !((ParallelEmbeddedDocumentExtractorFactory) factory).isComplete()) {
+                partial.incrementAndGet();
+                finish(rel, version, "partial", "image analyses missing");
+            } else {
+                finish(rel, version, "ok", null);
+            }
+        } catch (Exception | LinkageError e) {
+            failed.incrementAndGet();
+            LOGGER.warn("[Bulk] {} failed: {}", rel, e.toString());
+            finish(rel, version, "failed", e.toString());
+        }
+    }
+
+    private void finish(String rel, String version, String status, String error) {
+        ObjectNode line = JSON.createObjectNode();
+        line.put("path", rel);
+        line.put("version", version);
+        line.put("status", status);
+        if (error != null) line.put("error", error);
+        synchronized (progress) {
+            try {
+                progress.write(JSON.writeValueAsString(line));
+                progress.write('\n');
+                progress.flush();
+            } catch (IOException e) {
+                LOGGER.warn("[Bulk] cannot write progress for {}: {}", rel, e.getMessage());
+            }
+        }
+    }
+
+    private void loadProgress(Path file) throws IOException {
+        if (!Files.exists(file)) return;
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                try {
+                    JsonNode n = JSON.readTree(line);
+                    if ("ok".equals(n.path("status").asText())) {
+                        done.put(n.get("path").asText(), n.get("version").asText());
+                    } else {
+                        done.remove(n.get("path").asText());
+                    }
+                } catch (Exception e) {
+                    // Torn last line from a crash
+                }
+            }
+        }
+        System.out.printf("Resuming: %d documents already done, %d image analyses on record%n",
+                done.size(), images.size());
+    }
+
+    private void report(long startNanos) {
+        double seconds = Math.max(1e-3, (System.nanoTime() - startNanos) / 1e9);
+        long p = parsed.get();
+        long part = partial.get();
+        System.out.printf("[%6.0fs] documents ok=%d partial=%d failed=%d skipped=%d | %.2f docs/s, %.2f MB/s | "
+                        + "images analyzed=%d reused=%d (%.2f analyses/s)%n",
+                seconds, p - part, part, failed.get(), skipped.get(), p / seconds,
+                bytes.get() / seconds / (1024 * 1024), images.analyzed.get(), images.reused.get(),
+                images.analyzed.get() / seconds);
+    }
+
+    /** Walks one directory; subdirectories are forked so large trees are listed in parallel. */
+    private final class Walk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final FileSink sink;
+
+        Walk(Path dir, FileSink sink) {
+            this.dir = dir;
+            this.sink = sink;
+        }
+
+        @Override
+        protected void compute() {
+            List<Walk> subdirs = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path p : entries) {
+                    // Not following links: a link back up the tree would recurse forever
+                    if (Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
+                        if (!p.startsWith(output)) {
+                            subdirs.add(new Walk(p, sink));
+                        }
+                    } else if (Files.isRegularFile(p) && include.matches(p.getFileName())) {
+                        sink.accept(p);
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.warn("[Bulk] cannot list {}: {}", dir, e.getMessage());
+            }
+            invokeAll(subdirs);
+        }
+    }
+
+    private interface FileSink {
+        void accept(Path file);
+    }
+
+    /**
+     * Image analyses of the run by content digest, persisted as JSON lines so a
+     * restarted run does not pay for them again. Concurrent requests for the
+     * same digest share one analysis. Entries recorded under other VLM
+     * settings (model, prompt, ...) are not reused.
+     */
+    static final class ImageStore {
+        private static final String[] FIELDS = {"vlm:provider", "vlm:model", "vlm:analysis", "vlm:tier"};
+
+        private final ConcurrentMap<String, CompletableFuture<Map<String, String>>> byDigest =
+                new ConcurrentHashMap<>();
+        private final BufferedWriter out;
+        private final String settings;
+        final AtomicLong analyzed = new AtomicLong();
+        final AtomicLong reused = new AtomicLong();
+
+        /** {@code settings} describes everything besides the image that shapes an analysis. */
+        ImageStore(Path file, String settings) throws IOException {
+            this.settings = sha256(settings.getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+            if (Files.exists(file)) {
+                try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = r.readLine()) != null) {
+                        try {
+                            JsonNode n = JSON.readTree(line);
+                            Map<String, String> fields = new ConcurrentHashMap<>();
+                            for (String f : FIELDS) {
+                                if (n.hasNonNull(f)) fields.put(f, n.get(f).asText());
+                            }
+                            if (this.settings.equals(n.path("settings").asText())) {
+                                byDigest.put(n.get("digest").asText(), CompletableFuture.completedFuture(fields));
+                            }
+                        } catch (Exception e) {
+                            // Torn last line from a crash
+                        }
+                    }
+                }
+            }
+            this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        int size() {
+            return byDigest.size();
+        }
+
+        /**
+         * Fills {@code metadata} with the analysis for {@code data}, running
+         * {@code analyze} only if no analysis for the digest exists or is running.
+         */
+        void analyze(byte[] data, Metadata metadata, Analysis analyze)
+                throws IOException, SAXException, TikaException {
+            String digest = sha256(data);
+            CompletableFuture<Map<String, String>> mine = new CompletableFuture<>();
+            CompletableFuture<Map<String, String>> existing = byDigest.putIfAbsent(digest, mine);
+            if (existing != null) {
+                Map<String, String> fields = existing.join();
+                if (fields != null) {
+                    reused.incrementAndGet();
+                    fields.forEach(metadata::set);
+                    return;
+                }
+                // The earlier attempt failed; try again ourselves
+                byDigest.remove(digest, existing);
+                analyze(data, metadata, analyze);
+                return;
+            }
+            try {
+                analyze.run(metadata);
+                if (metadata.get("vlm:analysis") == null || metadata.get("vlm:status") != null) {
+                    // Deferred or fallback result: do not reuse it
+                    return;
+                }
+                Map<String, String> fields = new ConcurrentHashMap<>();
+                ObjectNode line = JSON.createObjectNode();
+                line.put("digest", digest);
+                line.put("settings", settings);
+                for (String f : FIELDS) {
+                    String v = metadata.get(f);
+                    if (v != null) {
+                        fields.put(f, v);
+                        line.put(f, v);
+                    }
+                }
+                analyzed.incrementAndGet();
+                mine.complete(fields);
+                synchronized (out) {
+                    out.write(JSON.writeValueAsString(line));
+                    out.write('\n');
+                    out.flush();
+                }
+            } finally {
+                // Failed, not reusable or an Error: waiters retry on their own rather than hang
+                mine.complete(null);
+            }
+        }
+
+        void close() throws IOException {
+            synchronized (out) {
+                out.close();
+            }
+        }
+    }
+
+    interface Analysis {
+        void run(Metadata metadata) throws IOException, SAXException, TikaException;
+    }
+
+    /** Routes image parses through the {@link ImageStore}. */
+    static final class DedupingImageParser extends ParserDecorator {
+        private static final long serialVersionUID = 1L;
+        private final transient ImageStore store;
+
+        DedupingImageParser(Parser parser, ImageStore store) {
+            super(parser);
+            this.store = store;
+        }
+
+        @Override
+        public void parse(InputStream stream, ContentHandler handler, Metadata metadata, ParseContext context)
+                throws IOException, SAXException, TikaException {
+            byte[] data = stream.readAllBytes();
+            store.analyze(data, metadata, md -> getWrappedParser()
+                    .parse(new ByteArrayInputStream(data), handler, md, context));
+        }
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder sb = new StringBuilder(64);
+            for (byte b : d) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.apache.tika.parser.vision;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide circuit breaker around VLM calls.
+ *
+ * CLOSED: outcomes go into a sliding window of the last {@code window} calls.
+ * Once it holds {@code minCalls}, the breaker opens if the failure rate or
+ * the slow-call rate (calls taking at least {@code slowCallMs}) reaches its
+ * threshold. OPEN: calls are rejected for {@code openSeconds} so callers can
+ * fall back immediately instead of waiting out the timeout. HALF_OPEN:
+ * {@code halfOpenCalls} probes are let through; all succeeding quickly closes
+ * the breaker, any failure or slow probe opens it again.
+ *
+ * -Dtika.vlm.breaker=true (TIKA_VLM_BREAKER) enables it; tuning via
+ * tika.vlm.breaker.window, .minCalls, .failureRate, .slowRate (percent),
+ * .slowCallMs (default half of tika.vlm.timeout), .openSeconds, .halfOpenCalls.
+ */
+final class VlmCircuitBreaker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VlmCircuitBreaker.class);
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private static volatile VlmCircuitBreaker instance;
+
+    private final int minCalls;
+    private final int failureRatePct;
+    private final int slowRatePct;
+    private final long slowCallMillis;
+    private final long openNanos;
+    private final int halfOpenCalls;
+
+    private final byte[] window;
+    private int windowCount;
+    private int windowPos;
+    private int failures;
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+    private long openUntil;
+    private int probesIssued;
+    private int probesSucceeded;
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+
+    VlmCircuitBreaker(int window, int minCalls, int failureRatePct, int slowRatePct,
+                      long slowCallMillis, long openSeconds, int halfOpenCalls) {
+        this.window = new byte[Math.max(1, window)];
+        this.minCalls = Math.max(1, Math.min(minCalls, this.window.length));
+        this.failureRatePct = failureRatePct;
+        this.slowRatePct = slowRatePct;
+        this.slowCallMillis = slowCallMillis;
+        this.openNanos = TimeUnit.SECONDS.toNanos(openSeconds);
+        this.halfOpenCalls = Math.max(1, halfOpenCalls);
+    }
+
+    /** Shared breaker, or null when not enabled. */
+    static VlmCircuitBreaker get(int timeoutSeconds) {
+        VlmCircuitBreaker b = instance;
+        if (b != null) return b;
+        synchronized (VlmCircuitBreaker.class) {
+            if (instance == null) {
+                if (!Boolean.parseBoolean(System.getProperty("tika.vlm.breaker",
+                        System.getenv().getOrDefault("TIKA_VLM_BREAKER", "false")))) {
+                    return null;
+                }
+                instance = new VlmCircuitBreaker(
+                        VlmSettings.intProperty("tika.vlm.breaker.window", "TIKA_VLM_BREAKER_WINDOW", 50),
+                        VlmSettings.intProperty("tika.vlm.breaker.minCalls", "TIKA_VLM_BREAKER_MIN_CALLS", 20),
+                        VlmSettings.intProperty("tika.vlm.breaker.failureRate", "TIKA_VLM_BREAKER_FAILURE_RATE", 50),
+                        VlmSettings.intProperty("tika.vlm.breaker.slowRate", "TIKA_VLM_BREAKER_SLOW_RATE", 80),
+                        VlmSettings.intProperty("tika.vlm.breaker.slowCallMs", "TIKA_VLM_BREAKER_SLOW_CALL_MS",
+                                timeoutSeconds * 500),
+                        VlmSettings.intProperty("tika.vlm.breaker.openSeconds", "TIKA_VLM_BREAKER_OPEN_SECONDS", 30),
+                        VlmSettings.intProperty("tika.vlm.breaker.halfOpenCalls", "TIKA_VLM_BREAKER_HALF_OPEN_CALLS", 3));
+                LOGGER.info("VLM circuit breaker enabled");
+            }
+            return instance;
+        }
+    }
+
+    /** True if a call may go to the VLM now; false means take the fallback. */
+    synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openUntil < 0) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probesIssued = 0;
+            probesSucceeded = 0;
+            LOGGER.info("VLM circuit breaker half-open, probing with {} calls", halfOpenCalls);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesIssued >= halfOpenCalls) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            probesIssued++;
+        }
+        return true;
+    }
+
+    /** Records the outcome of a call admitted by {@link #tryAcquire}. */
+    synchronized void record(long latencyMillis, boolean success) {
+        boolean slow = latencyMillis >= slowCallMillis;
+        switch (state) {
+            case HALF_OPEN:
+                if (!success || slow) {
+                    open("probe " + (success ? "slow (" + latencyMillis + "ms)" : "failed"));
+                } else if (++probesSucceeded >= halfOpenCalls) {
+                    close();
+                }
+                return;
+            case OPEN:
+                // Calls that were already in flight when the breaker opened
+                return;
+            default:
+                break;
+        }
+        byte outcome = (byte) ((success ? 0 : FAILED) | (slow ? SLOW : 0));
+        if (windowCount == window.length) {
+            byte evicted = window[windowPos];
+            if ((evicted & FAILED) != 0) failures--;
+            if ((evicted & SLOW) != 0) slowCalls--;
+        } else {
+            windowCount++;
+        }
+        window[windowPos] = outcome;
+        windowPos = (windowPos + 1) % window.length;
+        if (!success) failures++;
+        if (slow) slowCalls++;
+
+        if (windowCount >= minCalls) {
+            if (failures * 100 >= failureRatePct * windowCount) {
+                open("failure rate " + (failures * 100 / windowCount) + "%");
+            } else if (slowCalls * 100 >= slowRatePct * windowCount) {
+                open("slow-call rate " + (slowCalls * 100 / windowCount) + "%");
+            }
+        }
+    }
+
+    /**
+     * Returns a call admitted by {@link #tryAcquire} without an outcome, e.g.
+     * one cancelled because its parse was aborted. It says nothing about the
+     * VLM, and a half-open probe slot must not be lost to it.
+     */
+    synchronized void release() {
+        if (state == State.HALF_OPEN && probesIssued > probesSucceeded) {
+            probesIssued--;
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    long getRejected() { return rejected.get(); }
+    long getOpened() { return opened.get(); }
+
+    private void open(String reason) {
+        state = State.OPEN;
+        openUntil = System.nanoTime() + openNanos;
+        opened.incrementAndGet();
+        LOGGER.warn("VLM circuit breaker OPEN for {}s: {}", TimeUnit.NANOSECONDS.toSeconds(openNanos), reason);
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        windowCount = 0;
+        windowPos = 0;
+        failures = 0;
+        slowCalls = 0;
+        LOGGER.info("VLM circuit breaker CLOSED (rejected {} calls so far)", rejected.get());
+    }
+}
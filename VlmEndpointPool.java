@@ -0,0 +1,201 @@
+package org.apache.tika.parser.vision;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Weighted set of VLM endpoints with latency-aware routing and passive health.
+ *
+ * Spec (-Dtika.vlm.endpoints / TIKA_VLM_ENDPOINTS): comma separated
+ * {@code url|weight} entries, weight defaulting to 1. All endpoints speak the
+ * configured provider's wire format.
+ *
+ * Routing (-Dtika.vlm.routing / TIKA_VLM_ROUTING):
+ * <ul>
+ *   <li>{@code least-outstanding} – fewest in-flight requests per unit of weight</li>
+ *   <li>{@code ewma} (default) – EWMA latency scaled by in-flight requests per unit of weight</li>
+ * </ul>
+ * Endpoints failing {@code tika.vlm.eject.failures} times in a row (transport
+ * error, 5xx or 429) are ejected for {@code tika.vlm.eject.seconds}, doubling
+ * on each repeated ejection up to {@code tika.vlm.eject.maxSeconds}. When the
+ * ejection expires the endpoint is probed with live traffic: one success
+ * restores it, one failure ejects it again. If every endpoint is ejected the
+ * one due back soonest is still used rather than failing outright.
+ */
+final class VlmEndpointPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VlmEndpointPool.class);
+
+    private static final double EWMA_ALPHA = 0.3;
+    // Idle endpoints' EWMA decays with this time constant so they get re-probed
+    private static final double EWMA_DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private static final ConcurrentMap<String, VlmEndpointPool> POOLS = new ConcurrentHashMap<>();
+
+    private final List<Endpoint> endpoints;
+    private final boolean ewma;
+    private final int ejectFailures;
+    private final long ejectNanos;
+    private final long maxEjectNanos;
+
+    private VlmEndpointPool(List<Endpoint> endpoints, boolean ewma, int ejectFailures,
+                            long ejectSeconds, long maxEjectSeconds) {
+        this.endpoints = Collections.unmodifiableList(endpoints);
+        this.ewma = ewma;
+        this.ejectFailures = Math.max(1, ejectFailures);
+        this.ejectNanos = TimeUnit.SECONDS.toNanos(ejectSeconds);
+        this.maxEjectNanos = TimeUnit.SECONDS.toNanos(Math.max(ejectSeconds, maxEjectSeconds));
+    }
+
+    /**
+     * Process-wide pool for the spec, so health and latency state is shared by
+     * every parser instance. {@code clients} resolves the HTTP client per URL.
+     */
+    static VlmEndpointPool shared(String spec, Function<String, HttpClient> clients) {
+        String routing = System.getProperty("tika.vlm.routing",
+                System.getenv().getOrDefault("TIKA_VLM_ROUTING", "ewma"));
+        return POOLS.computeIfAbsent(spec.trim() + "|" + routing, k -> {
+            List<Endpoint> list = new ArrayList<>();
+            for (String entry : spec.split(",")) {
+                entry = entry.trim();
+                if (entry.isEmpty()) continue;
+                int bar = entry.lastIndexOf('|');
+                String url = bar > 0 ? entry.substring(0, bar).trim() : entry;
+                int weight = 1;
+                if (bar > 0) {
+                    try {
+                        weight = Math.max(1, Integer.parseInt(entry.substring(bar + 1).trim()));
+                    } catch (NumberFormatException e) {
+                        // Keep default
+                    }
+                }
+                list.add(new Endpoint(url, weight, clients.apply(url)));
+            }
+            if (list.isEmpty()) {
+                throw new IllegalArgumentException("No VLM endpoints in: " + spec);
+            }
+            VlmEndpointPool pool = new VlmEndpointPool(list, !"least-outstanding".equalsIgnoreCase(routing),
+                    VlmSettings.intProperty("tika.vlm.eject.failures", "TIKA_VLM_EJECT_FAILURES", 5),
+                    VlmSettings.intProperty("tika.vlm.eject.seconds", "TIKA_VLM_EJECT_SECONDS", 30),
+                    VlmSettings.intProperty("tika.vlm.eject.maxSeconds", "TIKA_VLM_EJECT_MAX_SECONDS", 300));
+            if (list.size() > 1) {
+                LOGGER.info("VLM endpoint pool ({} routing): {}", pool.ewma ? "ewma" : "least-outstanding", list);
+            }
+            return pool;
+        });
+    }
+
+    List<Endpoint> endpoints() {
+        return endpoints;
+    }
+
+    /** Picks the best endpoint, avoiding {@code avoid} when there is a choice. */
+    Endpoint select(Endpoint avoid) {
+        if (endpoints.size() == 1) {
+            return endpoints.get(0);
+        }
+        long now = System.nanoTime();
+        Endpoint best = null;
+        double bestScore = Double.MAX_VALUE;
+        Endpoint soonest = null;
+        for (Endpoint e : endpoints) {
+            if (e == avoid) continue;
+            if (e.ejectedUntil - now > 0) {
+                if (soonest == null || e.ejectedUntil - soonest.ejectedUntil < 0) soonest = e;
+                continue;
+            }
+            double load = (e.outstanding.get() + 1.0) / e.weight;
+            double score = ewma ? Math.max(decayedEwma(e, now), 1.0) * load : load;
+            if (score < bestScore) {
+                bestScore = score;
+                best = e;
+            }
+        }
+        if (best != null) return best;
+        if (soonest != null) return soonest;
+        return avoid != null ? avoid : endpoints.get(0);
+    }
+
+    private static double decayedEwma(Endpoint e, long now) {
+        double idle = now - e.ewmaUpdated;
+        return idle <= 0 ? e.ewmaMillis : e.ewmaMillis * Math.exp(-idle / EWMA_DECAY_NANOS);
+    }
+
+    /** Marks a request as started on the endpoint; pair with {@link #complete}. */
+    void start(Endpoint e) {
+        e.outstanding.incrementAndGet();
+    }
+
+    /** Ends a request that was cancelled; it says nothing about the endpoint's health. */
+    void release(Endpoint e) {
+        e.outstanding.decrementAndGet();
+    }
+
+    /**
+     * Records the outcome of a request started with {@link #start}.
+     * {@code healthy} is false for transport errors, 5xx and 429.
+     */
+    void complete(Endpoint e, boolean healthy, long latencyMillis) {
+        e.outstanding.decrementAndGet();
+        synchronized (e) {
+            if (healthy) {
+                e.ewmaMillis = e.ewmaMillis == 0 ? latencyMillis
+                        : e.ewmaMillis + EWMA_ALPHA * (latencyMillis - e.ewmaMillis);
+                e.ewmaUpdated = System.nanoTime();
+                if (e.ejections > 0) {
+                    LOGGER.info("VLM endpoint {} healthy again", e.url);
+                }
+                e.consecutiveFailures = 0;
+                e.ejections = 0;
+                return;
+            }
+            e.consecutiveFailures++;
+            long now = System.nanoTime();
+            boolean probing = e.ejections > 0 && e.ejectedUntil - now <= 0;
+            if (endpoints.size() > 1 && (probing || e.consecutiveFailures >= ejectFailures)) {
+                long backoff = Math.min(maxEjectNanos, ejectNanos << Math.min(e.ejections, 16));
+                e.ejections++;
+                e.ejectedUntil = now + backoff;
+                e.consecutiveFailures = 0;
+                LOGGER.warn("VLM endpoint {} ejected for {}s (ejection #{})",
+                        e.url, TimeUnit.NANOSECONDS.toSeconds(backoff), e.ejections);
+            }
+        }
+    }
+
+    static final class Endpoint {
+        final String url;
+        final URI uri;
+        final int weight;
+        final HttpClient client;
+        final AtomicInteger outstanding = new AtomicInteger();
+        volatile double ewmaMillis;
+        volatile long ewmaUpdated = System.nanoTime();
+        volatile long ejectedUntil = System.nanoTime();
+        int consecutiveFailures;
+        int ejections;
+
+        Endpoint(String url, int weight, HttpClient client) {
+            this.url = url;
+            this.uri = URI.create(url);
+            this.weight = weight;
+            this.client = client;
+        }
+
+        @Override
+        public String toString() {
+            return url + "|" + weight;
+        }
+    }
+}
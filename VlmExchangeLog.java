@@ -0,0 +1,260 @@
+package org.apache.tika.parser.vision;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Record and replay of VLM HTTP exchanges for repeatable performance runs.
+ *
+ * File format: gzip stream of tagged entries. Every recording session appends
+ * a header ('H', version); each exchange is an 'R' entry holding the epoch
+ * millis, SHA-256 request digest, HTTP status (0 = transport failure),
+ * observed latency and the response body (or failure message).
+ * Sessions are appended as further gzip members, which GZIPInputStream
+ * reads back as one stream.
+ */
+final class VlmExchangeLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VlmExchangeLog.class);
+
+    private static final int VERSION = 1;
+    private static final byte TAG_HEADER = 'H';
+    private static final byte TAG_RECORD = 'R';
+
+    // One writer / one loaded log per file, shared by all parser instances
+    private static final Map<Path, Recorder> RECORDERS = new ConcurrentHashMap<>();
+    private static final Map<Path, Replayer> REPLAYERS = new ConcurrentHashMap<>();
+
+    private VlmExchangeLog() {
+    }
+
+    /** Digest of the semantic request, stable across request-format changes. */
+    static String digest(String model, String prompt, String mimeType, String base64Image) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(String.valueOf(model).getBytes(StandardCharsets.UTF_8));
+            md.update((byte) '\n');
+            md.update(String.valueOf(prompt).getBytes(StandardCharsets.UTF_8));
+            md.update((byte) '\n');
+            md.update(String.valueOf(mimeType).getBytes(StandardCharsets.UTF_8));
+            md.update((byte) '\n');
+            md.update(base64Image.getBytes(StandardCharsets.US_ASCII));
+            return toHex(md.digest());
+        } catch (Exception e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    static Recorder recorder(String file) {
+        Path path = Paths.get(file).toAbsolutePath();
+        return RECORDERS.computeIfAbsent(path, Recorder::new);
+    }
+
+    static Replayer replayer(String file, double speed) throws IOException {
+        Path path = Paths.get(file).toAbsolutePath();
+        Replayer existing = REPLAYERS.get(path);
+        if (existing != null) {
+            return existing.withSpeed(speed);
+        }
+        Replayer loaded = Replayer.load(path, speed);
+        Replayer prev = REPLAYERS.putIfAbsent(path, loaded);
+        return prev != null ? prev.withSpeed(speed) : loaded;
+    }
+
+    static final class Exchange {
+        final int status;
+        final long latencyMillis;
+        final String body;
+
+        Exchange(int status, long latencyMillis, String body) {
+            this.status = status;
+            this.latencyMillis = latencyMillis;
+            this.body = body;
+        }
+    }
+
+    /** Appends exchanges to the log; safe to share between threads. */
+    static final class Recorder {
+        private final Path path;
+        private DataOutputStream out;
+
+        private Recorder(Path path) {
+            this.path = path;
+        }
+
+        synchronized void record(String digest, int status, long latencyMillis, String body) {
+            try {
+                if (out == null) {
+                    open();
+                }
+                byte[] bodyBytes = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+                out.writeByte(TAG_RECORD);
+                out.writeLong(System.currentTimeMillis());
+                out.write(fromHex(digest));
+                out.writeInt(status);
+                out.writeLong(latencyMillis);
+                out.writeInt(bodyBytes.length);
+                out.write(bodyBytes);
+                out.flush();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to record VLM exchange to {}: {}", path, e.getMessage());
+            }
+        }
+
+        private void open() throws IOException {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND)),
+                    8192, true));
+            out.writeByte(TAG_HEADER);
+            out.writeInt(VERSION);
+            out.flush();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::close, "vlm-record-close"));
+            LOGGER.info("Recording VLM exchanges to {}", path);
+        }
+
+        synchronized void close() {
+            if (out == null) return;
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.debug("Closing VLM recording {} failed: {}", path, e.getMessage());
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Serves recorded exchanges by request digest. Repeated digests are served
+     * round-robin in recording order. {@code speed} scales the recorded
+     * latency: 1 = original timing, 10 = ten times faster, 0 = no delay.
+     */
+    static final class Replayer {
+        private final Path path;
+        private final Map<String, List<Exchange>> exchanges;
+        private final Map<String, AtomicInteger> cursors;
+        private final double speed;
+
+        private Replayer(Path path, Map<String, List<Exchange>> exchanges,
+                         Map<String, AtomicInteger> cursors, double speed) {
+            this.path = path;
+            this.exchanges = exchanges;
+            this.cursors = cursors;
+            this.speed = speed;
+        }
+
+        private Replayer withSpeed(double newSpeed) {
+            return newSpeed == speed ? this : new Replayer(path, exchanges, cursors, newSpeed);
+        }
+
+        static Replayer load(Path path, double speed) throws IOException {
+            Map<String, List<Exchange>> map = new HashMap<>();
+            int count = 0;
+            try (InputStream raw = Files.newInputStream(path);
+                 DataInputStream in = new DataInputStream(
+                         new GZIPInputStream(new BufferedInputStream(raw), 8192))) {
+                byte[] digest = new byte[32];
+                while (true) {
+                    int tag;
+                    try {
+                        tag = in.readByte();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (tag == TAG_HEADER) {
+                        int version = in.readInt();
+                        if (version != VERSION) {
+                            throw new IOException("Unsupported VLM recording version " + version + " in " + path);
+                        }
+                        continue;
+                    }
+                    if (tag != TAG_RECORD) {
+                        throw new IOException("Corrupt VLM recording " + path + " (tag " + tag + ")");
+                    }
+                    try {
+                        in.readLong(); // recorded-at
+                        in.readFully(digest);
+                        int status = in.readInt();
+                        long latency = in.readLong();
+                        byte[] body = new byte[in.readInt()];
+                        in.readFully(body);
+                        map.computeIfAbsent(toHex(digest), k -> new ArrayList<>())
+                                .add(new Exchange(status, latency, new String(body, StandardCharsets.UTF_8)));
+                        count++;
+                    } catch (EOFException e) {
+                        // Recorder killed mid-write: keep what is complete
+                        LOGGER.warn("Truncated VLM recording {} after {} exchanges", path, count);
+                        break;
+                    }
+                }
+            } catch (EOFException | java.util.zip.ZipException e) {
+                // A session killed without shutdown leaves an unterminated gzip member
+                LOGGER.warn("Truncated VLM recording {} after {} exchanges", path, count);
+            }
+            Map<String, AtomicInteger> cursors = new HashMap<>();
+            for (String key : map.keySet()) {
+                cursors.put(key, new AtomicInteger());
+            }
+            LOGGER.info("Loaded {} VLM exchanges ({} distinct requests) from {}", count, map.size(), path);
+            return new Replayer(path, map, cursors, speed);
+        }
+
+        /** Returns the next recorded exchange for the digest, after its scaled delay. */
+        Exchange replay(String digest) throws IOException, InterruptedException {
+            List<Exchange> list = exchanges.get(digest);
+            if (list == null) {
+                throw new IOException("No recorded VLM exchange for request " + digest + " in " + path);
+            }
+            Exchange ex = list.get(Math.floorMod(cursors.get(digest).getAndIncrement(), list.size()));
+            if (speed > 0 && ex.latencyMillis > 0) {
+                Thread.sleep((long) (ex.latencyMillis / speed));
+            }
+            return ex;
+        }
+    }
+
+    // ===== helpers =====
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static String toHex(byte[] bytes) {
+        char[] c = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            c[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            c[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(c);
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] b = new byte[hex.length() / 2];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return b;
+    }
+}
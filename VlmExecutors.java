@@ -0,0 +1,27 @@
+// VlmExecutors.java
+package org.apache.tika.parser.vision;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Thread pools for the VLM calls a single parse fans out (tiles, frames,
+ * video key frames). Each feature gets its own pool rather than sharing the
+ * factory's: the parse that submits these calls usually runs on a factory
+ * worker, and a worker that waits for tasks queued behind itself on the same
+ * pool deadlocks once every worker does so.
+ */
+final class VlmExecutors {
+
+    private VlmExecutors() {
+    }
+
+    /** Fixed pool of daemon threads named {@code prefix} plus a unique suffix. */
+    static ExecutorService ownPool(String prefix, int threads) {
+        return Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, prefix + System.nanoTime());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
@@ -0,0 +1,338 @@
+package org.apache.tika.parser.vision;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Node;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Splits multi-page images (TIFF) and animations (GIF, and WebP when an
+ * ImageIO WebP plugin is installed) into frames that are analyzed in
+ * parallel and reported in order. Pages are all kept; animation frames are
+ * kept only when they differ visibly from the last kept frame, then thinned
+ * evenly to {@code maxFrames}.
+ *
+ * -Dtika.vlm.frames=true (TIKA_VLM_FRAMES) enables it. Tuning:
+ * tika.vlm.frames.maxPages (default 100), tika.vlm.frames.maxFrames (default 16),
+ * tika.vlm.frames.diffThreshold (mean pixel difference 0..1, default 0.08),
+ * tika.vlm.frames.threads (default 4).
+ */
+final class VlmFrameSampler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VlmFrameSampler.class);
+
+    private static final String GIF_IMAGE_FORMAT = "javax_imageio_gif_image_1.0";
+    private static final String GIF_STREAM_FORMAT = "javax_imageio_gif_stream_1.0";
+    private static final int THUMB = 32;
+
+    private static volatile VlmFrameSampler instance;
+
+    /** Analyzes one encoded frame; {@code note} tells the model which frame it is. */
+    interface FrameCall {
+        String analyze(byte[] png, String note) throws Exception;
+    }
+
+    private final int maxPages;
+    private final int maxFrames;
+    private final double diffThreshold;
+    private final ExecutorService exec;
+
+    private VlmFrameSampler(int maxPages, int maxFrames, double diffThreshold, int threads) {
+        this.maxPages = Math.max(1, maxPages);
+        this.maxFrames = Math.max(1, maxFrames);
+        this.diffThreshold = diffThreshold;
+        this.exec = VlmExecutors.ownPool("vlm-frame-", threads);
+    }
+
+    /** Shared sampler, or null when frame splitting is not enabled. */
+    static VlmFrameSampler get() {
+        VlmFrameSampler s = instance;
+        if (s != null) return s;
+        synchronized (VlmFrameSampler.class) {
+            if (instance == null) {
+                if (!Boolean.parseBoolean(System.getProperty("tika.vlm.frames",
+                        System.getenv().getOrDefault("TIKA_VLM_FRAMES", "false")))) {
+                    return null;
+                }
+                instance = new VlmFrameSampler(
+                        VlmSettings.intProperty("tika.vlm.frames.maxPages", "TIKA_VLM_FRAMES_MAX_PAGES", 100),
+                        VlmSettings.intProperty("tika.vlm.frames.maxFrames", "TIKA_VLM_FRAMES_MAX_FRAMES", 16),
+                        VlmSettings.doubleProperty("tika.vlm.frames.diffThreshold", "TIKA_VLM_FRAMES_DIFF_THRESHOLD", 0.08),
+                        VlmSettings.intProperty("tika.vlm.frames.threads", "TIKA_VLM_FRAMES_THREADS", 4));
+                LOGGER.info("VLM frame splitting enabled (max {} pages, {} frames)",
+                        instance.maxPages, instance.maxFrames);
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * Number of frames in a TIFF, GIF or WebP image; 1 for other types and for
+     * single-frame or unreadable images.
+     */
+    int frameCount(byte[] imageData, String mimeType) {
+        String type = mimeType == null ? "" : mimeType.toLowerCase(Locale.ROOT);
+        if (!type.startsWith("image/tiff") && !type.startsWith("image/gif") && !type.startsWith("image/webp")) {
+            return 1;
+        }
+        try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(imageData))) {
+            if (iis == null) return 1;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) return 1;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, false, true);
+                return Math.max(1, reader.getNumImages(true));
+            } finally {
+                reader.dispose();
+            }
+        } catch (Exception e) {
+            return 1;
+        }
+    }
+
+    /**
+     * Analyzes the frames and returns their analyses in order, each under a
+     * "[Page n]" or "[Frame n @ t]" header. Writes the number of frames
+     * analyzed to {@code stats[0]}.
+     */
+    String analyze(byte[] imageData, int frameCount, FrameCall call, int[] stats) throws Exception {
+        List<String> headers = new ArrayList<>();
+        List<Future<String>> results = new ArrayList<>();
+        try {
+            if (isAnimation(imageData)) {
+                submitAnimation(imageData, frameCount, call, headers, results);
+            } else {
+                int pages = Math.min(frameCount, maxPages);
+                if (pages < frameCount) {
+                    LOGGER.warn("Analyzing first {} of {} pages", pages, frameCount);
+                }
+                for (int i = 0; i < pages; i++) {
+                    final int page = i;
+                    String note = String.format(Locale.ROOT,
+                            "This is page %d of %d of a multi-page image. Describe only this page.",
+                            page + 1, frameCount);
+                    headers.add("[Page " + (page + 1) + "]");
+                    // Each task decodes its own page so pages decode in parallel too
+                    results.add(exec.submit(() -> call.analyze(readPage(imageData, page), note)));
+                }
+            }
+            stats[0] = results.size();
+
+            StringBuilder merged = new StringBuilder();
+            for (int i = 0; i < results.size(); i++) {
+                String analysis = results.get(i).get();
+                merged.append(headers.get(i)).append('\n')
+                      .append(analysis == null ? "" : analysis.trim()).append("\n\n");
+            }
+            return merged.toString().trim();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        } finally {
+            for (Future<String> f : results) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Picks distinct frames in a first pass over small thumbnails, then
+     * composites again and submits only the picked frames.
+     */
+    private void submitAnimation(byte[] imageData, int frameCount, FrameCall call,
+                                 List<String> headers, List<Future<String>> results) throws Exception {
+        List<Integer> distinct = new ArrayList<>();
+        byte[][] last = new byte[1][];
+        forEachFrame(imageData, (index, frame, millis) -> {
+            byte[] thumb = thumbnail(frame);
+            if (last[0] == null || difference(last[0], thumb) >= diffThreshold) {
+                distinct.add(index);
+                last[0] = thumb;
+            }
+        });
+        Map<Integer, Integer> picked = new TreeMap<>();
+        int keep = Math.min(distinct.size(), maxFrames);
+        for (int k = 0; k < keep; k++) {
+            picked.put(distinct.get((int) ((long) k * distinct.size() / keep)), k);
+        }
+        LOGGER.info("Animation: {} frames, {} distinct, analyzing {}", frameCount, distinct.size(), picked.size());
+
+        forEachFrame(imageData, (index, frame, millis) -> {
+            if (!picked.containsKey(index)) return;
+            String at = millis >= 0 ? String.format(Locale.ROOT, "%.1fs", millis / 1000.0) : null;
+            String note = String.format(Locale.ROOT,
+                    "This is frame %d of %d of an animation%s. Describe only this frame.",
+                    index + 1, frameCount, at != null ? ", shown at " + at : "");
+            headers.add("[Frame " + (index + 1) + (at != null ? " @ " + at : "") + "]");
+            byte[] png = encodePng(frame);
+            results.add(exec.submit(() -> call.analyze(png, note)));
+        });
+    }
+
+    private interface FrameConsumer {
+        void accept(int index, BufferedImage frame, long millis) throws Exception;
+    }
+
+    /**
+     * Decodes frames in order. GIF frames are composited onto the logical
+     * screen with their offsets and disposal, so each frame is what a viewer
+     * shows; other formats report frames as decoded, without timing.
+     */
+    private static void forEachFrame(byte[] imageData, FrameConsumer consumer) throws Exception {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(imageData))) {
+            ImageReader reader = ImageIO.getImageReaders(iis).next();
+            try {
+                reader.setInput(iis, false, false);
+                int n = reader.getNumImages(true);
+                boolean gif = "gif".equalsIgnoreCase(reader.getFormatName());
+                BufferedImage canvas = null;
+                long millis = 0;
+                for (int i = 0; i < n; i++) {
+                    BufferedImage raw = reader.read(i);
+                    if (!gif) {
+                        consumer.accept(i, raw, -1);
+                        continue;
+                    }
+                    IIOMetadataNode meta = (IIOMetadataNode) reader.getImageMetadata(i).getAsTree(GIF_IMAGE_FORMAT);
+                    IIOMetadataNode descriptor = child(meta, "ImageDescriptor");
+                    IIOMetadataNode control = child(meta, "GraphicControlExtension");
+                    int left = intAttr(descriptor, "imageLeftPosition");
+                    int top = intAttr(descriptor, "imageTopPosition");
+                    String disposal = control != null ? control.getAttribute("disposalMethod") : "none";
+                    int delay = control != null ? intAttr(control, "delayTime") * 10 : 0;
+                    if (canvas == null) {
+                        int[] screen = logicalScreen(reader.getStreamMetadata());
+                        int w = Math.max(screen != null ? screen[0] : 0, left + raw.getWidth());
+                        int h = Math.max(screen != null ? screen[1] : 0, top + raw.getHeight());
+                        canvas = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+                    }
+                    BufferedImage previous = "restoreToPrevious".equals(disposal) ? copy(canvas) : null;
+                    Graphics2D g = canvas.createGraphics();
+                    g.drawImage(raw, left, top, null);
+                    g.dispose();
+
+                    consumer.accept(i, canvas, millis);
+                    millis += delay;
+
+                    if ("restoreToBackgroundColor".equals(disposal)) {
+                        Graphics2D clear = canvas.createGraphics();
+                        clear.setComposite(AlphaComposite.Clear);
+                        clear.fillRect(left, top, raw.getWidth(), raw.getHeight());
+                        clear.dispose();
+                    } else if (previous != null) {
+                        canvas = previous;
+                    }
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static boolean isAnimation(byte[] imageData) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(imageData))) {
+            String format = ImageIO.getImageReaders(iis).next().getFormatName().toLowerCase(Locale.ROOT);
+            return format.equals("gif") || format.equals("webp");
+        }
+    }
+
+    private static byte[] readPage(byte[] imageData, int page) throws IOException {
+        BufferedImage img;
+        try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(imageData))) {
+            ImageReader reader = ImageIO.getImageReaders(iis).next();
+            try {
+                reader.setInput(iis, false, true);
+                img = reader.read(page);
+            } finally {
+                reader.dispose();
+            }
+        }
+        return encodePng(img);
+    }
+
+    private static byte[] encodePng(BufferedImage img) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(img, "png", out)) {
+            throw new IOException("No PNG writer for frame");
+        }
+        return out.toByteArray();
+    }
+
+    /** Grey THUMBxTHUMB rendition used to compare frames. */
+    private static byte[] thumbnail(BufferedImage frame) {
+        BufferedImage thumb = new BufferedImage(THUMB, THUMB, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = thumb.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(frame, 0, 0, THUMB, THUMB, null);
+        g.dispose();
+        return ((DataBufferByte) thumb.getRaster().getDataBuffer()).getData();
+    }
+
+    /** Mean absolute difference of two thumbnails, 0..1. */
+    private static double difference(byte[] a, byte[] b) {
+        long sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += Math.abs((a[i] & 0xff) - (b[i] & 0xff));
+        }
+        return sum / (255.0 * a.length);
+    }
+
+    private static BufferedImage copy(BufferedImage img) {
+        BufferedImage c = new BufferedImage(img.getWidth(), img.getHeight(), img.getType());
+        Graphics2D g = c.createGraphics();
+        g.drawImage(img, 0, 0, null);
+        g.dispose();
+        return c;
+    }
+
+    private static int[] logicalScreen(IIOMetadata streamMetadata) {
+        if (streamMetadata == null) return null;
+        try {
+            IIOMetadataNode screen = child((IIOMetadataNode) streamMetadata.getAsTree(GIF_STREAM_FORMAT),
+                    "LogicalScreenDescriptor");
+            return screen == null ? null
+                    : new int[]{intAttr(screen, "logicalScreenWidth"), intAttr(screen, "logicalScreenHeight")};
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static IIOMetadataNode child(IIOMetadataNode parent, String name) {
+        for (Node n = parent.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (name.equals(n.getNodeName())) return (IIOMetadataNode) n;
+        }
+        return null;
+    }
+
+    private static int intAttr(IIOMetadataNode node, String name) {
+        if (node == null) return 0;
+        try {
+            return Integer.parseInt(node.getAttribute(name));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.apache.tika.parser.vision;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request hedging policy for VLM calls, shared process-wide.
+ *
+ * When a call has not answered within the configured percentile of recent
+ * successful call latencies, a duplicate is sent (to an alternate endpoint
+ * when one exists) and the first answer wins. Hedges are paid for from a
+ * token budget: every call earns {@code budget} tokens and a hedge costs one,
+ * so at most that fraction of calls is duplicated over time.
+ *
+ * -Dtika.vlm.hedge.percentile (TIKA_VLM_HEDGE_PERCENTILE): 0 = off, e.g. 95
+ * -Dtika.vlm.hedge.budget (TIKA_VLM_HEDGE_BUDGET): extra-request fraction, default 0.05
+ * -Dtika.vlm.hedge.minDelayMs (TIKA_VLM_HEDGE_MIN_DELAY_MS): floor for the delay, default 500
+ * -Dtika.vlm.hedge.threads (TIKA_VLM_HEDGE_THREADS): exchange threads, default 64
+ */
+final class VlmHedger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VlmHedger.class);
+
+    private static final int WINDOW = 1024;
+    private static final int MIN_SAMPLES = 50;
+    private static final int RECOMPUTE_EVERY = 64;
+    // Cap on saved-up hedges so an idle period cannot fund a burst
+    private static final double MAX_TOKENS = 10.0;
+
+    private static volatile VlmHedger instance;
+
+    // Runs the primary and hedge exchanges; threads mostly block on HTTP.
+    // Bounded by tika.vlm.hedge.threads (default 64) and rejects past that:
+    // the caller then runs an unstarted primary inline or skips the hedge,
+    // so a saturated pool never puts a second exchange on the parse thread.
+    static final ExecutorService EXEC = new ThreadPoolExecutor(
+            0, Math.max(2, VlmSettings.intProperty("tika.vlm.hedge.threads", "TIKA_VLM_HEDGE_THREADS", 64)),
+            60L, TimeUnit.SECONDS,
+            new SynchronousQueue<>(),
+            r -> {
+                Thread t = new Thread(r, "vlm-hedge-" + System.nanoTime());
+                t.setDaemon(true);
+                return t;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+
+    private final double percentile;
+    private final double budget;
+    private final long minDelayMillis;
+
+    private final long[] window = new long[WINDOW];
+    private final AtomicInteger samples = new AtomicInteger();
+    private volatile long delayMillis = -1;
+
+    private double tokens;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong budgetDenied = new AtomicLong();
+
+    private VlmHedger(double percentile, double budget, long minDelayMillis) {
+        this.percentile = percentile;
+        this.budget = budget;
+        this.minDelayMillis = minDelayMillis;
+    }
+
+    /** Shared hedger, or null when hedging is not configured. */
+    static VlmHedger get() {
+        VlmHedger h = instance;
+        if (h != null) return h;
+        synchronized (VlmHedger.class) {
+            if (instance == null) {
+                double pct = VlmSettings.doubleProperty("tika.vlm.hedge.percentile", "TIKA_VLM_HEDGE_PERCENTILE", 0);
+                if (pct <= 0 || pct >= 100) {
+                    return null;
+                }
+                instance = new VlmHedger(pct,
+                        VlmSettings.doubleProperty("tika.vlm.hedge.budget", "TIKA_VLM_HEDGE_BUDGET", 0.05),
+                        (long) VlmSettings.doubleProperty("tika.vlm.hedge.minDelayMs", "TIKA_VLM_HEDGE_MIN_DELAY_MS", 500));
+                LOGGER.info("VLM request hedging at p{} with {}% budget", pct, instance.budget * 100);
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * Counts a new call and returns how long to wait before hedging it,
+     * or -1 while there is not enough latency history.
+     */
+    long onRequest() {
+        long n = requests.incrementAndGet();
+        synchronized (this) {
+            tokens = Math.min(MAX_TOKENS, tokens + budget);
+        }
+        if (n % 1000 == 0) {
+            LOGGER.info("VLM hedging: {}", this);
+        }
+        return delayMillis;
+    }
+
+    /** Takes one hedge from the budget. */
+    synchronized boolean tryHedge() {
+        if (tokens < 1.0) {
+            budgetDenied.incrementAndGet();
+            return false;
+        }
+        tokens -= 1.0;
+        hedged.incrementAndGet();
+        return true;
+    }
+
+    void hedgeWon() {
+        hedgeWins.incrementAndGet();
+    }
+
+    /** Adds the latency of a successful call to the window. */
+    void record(long latencyMillis) {
+        int n = samples.getAndIncrement();
+        window[n % WINDOW] = latencyMillis;
+        if (n + 1 >= MIN_SAMPLES && (n + 1) % RECOMPUTE_EVERY == 0) {
+            long[] copy = Arrays.copyOf(window, Math.min(n + 1, WINDOW));
+            Arrays.sort(copy);
+            int idx = (int) Math.ceil(percentile / 100.0 * copy.length) - 1;
+            delayMillis = Math.max(minDelayMillis, copy[Math.max(0, idx)]);
+        }
+    }
+
+    long getRequests() { return requests.get(); }
+    long getHedged() { return hedged.get(); }
+    long getHedgeWins() { return hedgeWins.get(); }
+    long getBudgetDenied() { return budgetDenied.get(); }
+    long getDelayMillis() { return delayMillis; }
+
+    @Override
+    public String toString() {
+        long r = requests.get();
+        long h = hedged.get();
+        return "requests=" + r + ", hedged=" + h
+                + String.format(" (%.2f%%)", r == 0 ? 0.0 : 100.0 * h / r)
+                + ", hedgeWins=" + hedgeWins.get()
+                + ", budgetDenied=" + budgetDenied.get()
+                + ", delayMs=" + delayMillis;
+    }
+}
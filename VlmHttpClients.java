@@ -0,0 +1,162 @@
+package org.apache.tika.parser.vision;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide registry of HTTP clients, keyed by endpoint origin, TLS setup
+ * and proxy, so every parser instance talking to the same backend shares one
+ * connection pool (and its HTTP/2 connections) instead of building its own.
+ *
+ * Optional connection warm-up when a client is first registered
+ * (-Dtika.vlm.warmup=true / TIKA_VLM_WARMUP) and periodic keep-alive pings
+ * (-Dtika.vlm.keepalive.seconds=N / TIKA_VLM_KEEPALIVE_SECONDS, 0 = off)
+ * keep the first documents after a deploy from paying TCP/TLS setup.
+ */
+final class VlmHttpClients {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VlmHttpClients.class);
+
+    private static final boolean WARMUP = Boolean.parseBoolean(
+            System.getProperty("tika.vlm.warmup",
+                    System.getenv().getOrDefault("TIKA_VLM_WARMUP", "false")));
+
+    private static final int KEEPALIVE_SECONDS =
+            VlmSettings.intProperty("tika.vlm.keepalive.seconds", "TIKA_VLM_KEEPALIVE_SECONDS", 0);
+
+    private static final ConcurrentMap<String, Shared> CLIENTS = new ConcurrentHashMap<>();
+
+    private static volatile ScheduledExecutorService pinger;
+
+    private VlmHttpClients() {
+    }
+
+    /**
+     * Returns the shared client for this endpoint/TLS/proxy combination,
+     * building it with {@code factory} the first time it is asked for.
+     */
+    static HttpClient shared(String endpoint, String customCertificate, boolean unsafe,
+                             Supplier<HttpClient> factory) {
+        String key = key(endpoint, customCertificate, unsafe);
+        Shared shared = CLIENTS.get(key);
+        if (shared != null) {
+            return shared.client;
+        }
+        // Only the winner builds a client; losers of the race wait for it
+        Shared[] built = new Shared[1];
+        shared = CLIENTS.computeIfAbsent(key, k -> built[0] = new Shared(factory.get(), pingUri(endpoint)));
+        if (shared != built[0]) {
+            return shared.client;
+        }
+        Shared created = shared;
+        LOGGER.info("Registered shared VLM HTTP client {}", key);
+        if (created.pingUri != null) {
+            if (WARMUP) {
+                ping(created, "warm-up");
+            }
+            if (KEEPALIVE_SECONDS > 0) {
+                startPinger();
+            }
+        }
+        return created.client;
+    }
+
+    private static String key(String endpoint, String customCertificate, boolean unsafe) {
+        StringBuilder sb = new StringBuilder();
+        URI origin = pingUri(endpoint);
+        sb.append(origin != null ? origin : String.valueOf(endpoint));
+        sb.append("|proxy=").append(System.getProperty("https.proxyHost"))
+          .append(':').append(System.getProperty("https.proxyPort"));
+        sb.append("|tls=");
+        if (unsafe) {
+            sb.append("trust-all");
+        } else if (customCertificate != null && !customCertificate.trim().isEmpty()) {
+            sb.append("cert:").append(sha256(customCertificate.trim()));
+        } else {
+            sb.append("default");
+        }
+        return sb.toString();
+    }
+
+    /** Origin of the endpoint; pings go there so no API path is exercised. */
+    private static URI pingUri(String endpoint) {
+        if (endpoint == null || endpoint.trim().isEmpty()) return null;
+        try {
+            URI uri = URI.create(endpoint.trim());
+            if (uri.getScheme() == null || uri.getHost() == null) return null;
+            return new URI(uri.getScheme(), null, uri.getHost(), uri.getPort(), "/", null, null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static void ping(Shared shared, String reason) {
+        HttpRequest request = HttpRequest.newBuilder(shared.pingUri)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(Duration.ofSeconds(10))
+                .build();
+        // Any status means the connection is up; only transport errors matter
+        shared.client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((resp, err) -> {
+                    if (err != null) {
+                        LOGGER.debug("VLM connection {} to {} failed: {}", reason, shared.pingUri, err.toString());
+                    } else {
+                        LOGGER.debug("VLM connection {} to {} ok ({})", reason, shared.pingUri, resp.version());
+                    }
+                });
+    }
+
+    private static synchronized void startPinger() {
+        if (pinger != null) return;
+        pinger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "vlm-keepalive");
+            t.setDaemon(true);
+            return t;
+        });
+        pinger.scheduleAtFixedRate(() -> {
+            for (Shared shared : CLIENTS.values()) {
+                if (shared.pingUri != null) {
+                    ping(shared, "keep-alive");
+                }
+            }
+        }, KEEPALIVE_SECONDS, KEEPALIVE_SECONDS, TimeUnit.SECONDS);
+        LOGGER.info("VLM keep-alive pings every {}s", KEEPALIVE_SECONDS);
+    }
+
+    private static String sha256(String s) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                sb.append(String.format("%02x", d[i]));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            return Integer.toHexString(s.hashCode());
+        }
+    }
+
+    private static final class Shared {
+        final HttpClient client;
+        final URI pingUri;
+
+        Shared(HttpClient client, URI pingUri) {
+            this.client = client;
+            this.pingUri = pingUri;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.apache.tika.parser.vision;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Chooses the model and max_tokens per image so that icons and small, simple
+ * images go to a fast model with a short budget and only large or complex
+ * images pay for the big model.
+ *
+ * Rules (-Dtika.vlm.modelRules / TIKA_VLM_MODEL_RULES) are separated by ';'
+ * and evaluated in order; the first match wins, otherwise the configured
+ * model and tika.vlm.maxTokens apply. Each rule is
+ * {@code condition,condition,... => model:maxTokens}, where conditions are
+ * {@code mime=a|b}, {@code minPixels=N}, {@code maxPixels=N},
+ * {@code minBytes=N}, {@code maxBytes=N} and {@code maxEdges=F} (edge density
+ * of the subsampled image, a cheap complexity measure). An empty model keeps
+ * the configured one. The {@code :maxTokens} suffix is optional and only read
+ * when it is all digits, so tagged names such as {@code llava:13b} work; a
+ * model whose tag is a bare number needs the budget spelled out
+ * ({@code qwen:7:400}). Example:
+ *
+ * <pre>maxPixels=65536 => gpt-4o-mini:150; mime=image/png,maxBytes=200000,maxEdges=0.05 => gpt-4o-mini:400; minPixels=4000000 => :1500</pre>
+ */
+final class VlmModelRouter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VlmModelRouter.class);
+
+    /** Model and output budget for one call. */
+    static final class Route {
+        final String model;
+        final int maxTokens;
+        final String rule;
+
+        Route(String model, int maxTokens, String rule) {
+            this.model = model;
+            this.maxTokens = maxTokens;
+            this.rule = rule;
+        }
+    }
+
+    private static final class Rule {
+        final String text;
+        Set<String> mimes;
+        long minPixels = -1, maxPixels = -1, minBytes = -1, maxBytes = -1;
+        double maxEdges = -1;
+        String model;
+        int maxTokens;
+
+        Rule(String text) {
+            this.text = text;
+        }
+
+        boolean needsPixels() {
+            return minPixels >= 0 || maxPixels >= 0;
+        }
+    }
+
+    private final List<Rule> rules;
+    private final Route defaultRoute;
+
+    private VlmModelRouter(List<Rule> rules, Route defaultRoute) {
+        this.rules = rules;
+        this.defaultRoute = defaultRoute;
+    }
+
+    /** Router for the configured rules; with no rules it always returns the default route. */
+    static VlmModelRouter fromConfig(String defaultModel, int defaultMaxTokens) {
+        Route def = new Route(defaultModel, defaultMaxTokens, "default");
+        String spec = System.getProperty("tika.vlm.modelRules", System.getenv("TIKA_VLM_MODEL_RULES"));
+        List<Rule> rules = new ArrayList<>();
+        if (spec != null) {
+            for (String text : spec.split(";")) {
+                text = text.trim();
+                if (text.isEmpty()) continue;
+                try {
+                    rules.add(parse(text, defaultModel, defaultMaxTokens));
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Ignoring invalid VLM model rule '{}': {}", text, e.getMessage());
+                }
+            }
+            LOGGER.info("VLM model routing with {} rule(s)", rules.size());
+        }
+        return new VlmModelRouter(Collections.unmodifiableList(rules), def);
+    }
+
+    Route defaultRoute() {
+        return defaultRoute;
+    }
+
+    Route route(byte[] imageData, String mimeType) {
+        if (rules.isEmpty()) {
+            return defaultRoute;
+        }
+        long pixels = -2; // -2 = not read yet, -1 = unknown
+        VlmTierRouter.ImageStats stats = null;
+        boolean statsRead = false;
+        for (Rule r : rules) {
+            if (r.mimes != null && (mimeType == null || !r.mimes.contains(mimeType.toLowerCase(Locale.ROOT)))) continue;
+            if (r.minBytes >= 0 && imageData.length < r.minBytes) continue;
+            if (r.maxBytes >= 0 && imageData.length > r.maxBytes) continue;
+            if (r.needsPixels()) {
+                if (pixels == -2) pixels = pixelCount(imageData);
+                if (pixels < 0) continue;
+                if (r.minPixels >= 0 && pixels < r.minPixels) continue;
+                if (r.maxPixels >= 0 && pixels > r.maxPixels) continue;
+            }
+            if (r.maxEdges >= 0) {
+                if (!statsRead) {
+                    stats = VlmTierRouter.ImageStats.of(imageData);
+                    statsRead = true;
+                }
+                if (stats == null || stats.edges > r.maxEdges) continue;
+            }
+            return new Route(r.model, r.maxTokens, r.text);
+        }
+        return defaultRoute;
+    }
+
+    private static Rule parse(String text, String defaultModel, int defaultMaxTokens) {
+        int arrow = text.indexOf("=>");
+        if (arrow < 0) throw new IllegalArgumentException("missing '=>'");
+        Rule r = new Rule(text);
+        for (String cond : text.substring(0, arrow).split(",")) {
+            cond = cond.trim();
+            if (cond.isEmpty()) continue;
+            int eq = cond.indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("bad condition " + cond);
+            String key = cond.substring(0, eq).trim();
+            String value = cond.substring(eq + 1).trim();
+            switch (key) {
+                case "mime":
+                    r.mimes = new HashSet<>();
+                    for (String m : value.split("\\|")) r.mimes.add(m.trim().toLowerCase(Locale.ROOT));
+                    break;
+                case "minPixels": r.minPixels = Long.parseLong(value); break;
+                case "maxPixels": r.maxPixels = Long.parseLong(value); break;
+                case "minBytes": r.minBytes = Long.parseLong(value); break;
+                case "maxBytes": r.maxBytes = Long.parseLong(value); break;
+                case "maxEdges": r.maxEdges = Double.parseDouble(value); break;
+                default: throw new IllegalArgumentException("unknown condition " + key);
+            }
+        }
+        String target = text.substring(arrow + 2).trim();
+        // Only an all-digit suffix is the budget, so "llava:13b" stays a model name
+        int colon = target.lastIndexOf(':');
+        String budget = colon >= 0 ? target.substring(colon + 1).trim() : "";
+        boolean hasBudget = !budget.isEmpty() && budget.chars().allMatch(c -> c >= '0' && c <= '9');
+        String model = hasBudget ? target.substring(0, colon).trim() : target;
+        r.model = model.isEmpty() ? defaultModel : model;
+        r.maxTokens = hasBudget ? Integer.parseInt(budget) : defaultMaxTokens;
+        return r;
+    }
+
+    /** Width x height from the image header without decoding pixels; -1 if unreadable. */
+    private static long pixelCount(byte[] imageData) {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(imageData))) {
+            if (iis == null) return -1;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) return -1;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                return (long) reader.getWidth(0) * reader.getHeight(0);
+            } finally {
+                reader.dispose();
+            }
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
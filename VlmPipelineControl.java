@@ -0,0 +1,331 @@
+// VlmPipelineControl.java
+package org.apache.tika.parallel;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.tika.parser.vision.VisionLanguageModelParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Runtime control of the VLM pipeline, registered as the MBean
+ * {@code org.apache.tika.vlm:type=Pipeline} (jconsole, VisualVM, any JMX
+ * client). Pool size, queue limit, request timeout, image size limit, prompt,
+ * model, endpoint, output mode and skip filters can be changed while documents are being
+ * parsed. Nothing in flight is disturbed: a change applies to analyses and
+ * requests that start afterwards, and a shrunk pool lets busy workers finish.
+ *
+ * Parser settings are applied to every live VisionLanguageModelParser and
+ * written back to the matching tika.vlm.* system property, so parsers created
+ * later follow suit. The document cache fingerprint is computed per document
+ * from the current settings, so a change also stops older cached output from
+ * being replayed.
+ *
+ * -Dtika.vlm.admin.port (TIKA_VLM_ADMIN_PORT) additionally serves the same
+ * attributes over HTTP on 127.0.0.1 only: {@code GET /vlm/admin} returns them
+ * as JSON, {@code POST /vlm/admin} with a form body such as
+ * {@code WorkerThreads=12&Prompt=...} changes them.
+ */
+public final class VlmPipelineControl implements VlmPipelineControlMBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VlmPipelineControl.class);
+
+    static final String OBJECT_NAME = "org.apache.tika.vlm:type=Pipeline";
+
+    private static final AtomicReference<VlmPipelineControl> INSTANCE = new AtomicReference<>();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private VlmPipelineControl() {
+    }
+
+    /** Registers the MBean (and admin endpoint, if configured) once per JVM. */
+    static void register() {
+        VlmPipelineControl control = new VlmPipelineControl();
+        if (!INSTANCE.compareAndSet(null, control)) return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(control, name);
+            }
+        } catch (JMException e) {
+            LOGGER.warn("Cannot register {}: {}", OBJECT_NAME, e.toString());
+        }
+        String port = System.getProperty("tika.vlm.admin.port", System.getenv("TIKA_VLM_ADMIN_PORT"));
+        if (port != null) {
+            try {
+                control.serve(Integer.parseInt(port.trim()));
+                LOGGER.info("VLM admin endpoint on 127.0.0.1:{}/vlm/admin", port.trim());
+            } catch (IOException | NumberFormatException e) {
+                LOGGER.warn("Cannot start VLM admin endpoint on port {}: {}", port, e.toString());
+            }
+        }
+    }
+
+    // ===== pool =====
+
+    @Override
+    public int getWorkerThreads() {
+        return ParallelEmbeddedDocumentExtractorFactory.workerThreads();
+    }
+
+    @Override
+    public void setWorkerThreads(int threads) {
+        ParallelEmbeddedDocumentExtractorFactory.setWorkerThreads(threads);
+    }
+
+    @Override
+    public int getQueueLimit() {
+        return ParallelEmbeddedDocumentExtractorFactory.queueLimit();
+    }
+
+    @Override
+    public void setQueueLimit(int limit) {
+        ParallelEmbeddedDocumentExtractorFactory.setQueueLimit(limit);
+    }
+
+    @Override
+    public int getQueuedTasks() {
+        return ParallelEmbeddedDocumentExtractorFactory.queuedTasks();
+    }
+
+    @Override
+    public int getActiveTasks() {
+        return ParallelEmbeddedDocumentExtractorFactory.activeTasks();
+    }
+
+    // ===== parser settings =====
+
+    @Override
+    public int getTimeoutSeconds() {
+        return current(VisionLanguageModelParser::getTimeout, 30);
+    }
+
+    @Override
+    public void setTimeoutSeconds(int seconds) {
+        if (seconds < 1) {
+            throw new IllegalArgumentException("timeoutSeconds must be >= 1: " + seconds);
+        }
+        System.setProperty("tika.vlm.timeout", String.valueOf(seconds));
+        VisionLanguageModelParser.forEachInstance(p -> p.setTimeout(seconds));
+        LOGGER.info("VLM timeout set to {}s", seconds);
+    }
+
+    @Override
+    public int getMaxImageSize() {
+        return current(VisionLanguageModelParser::getMaxImageSize, 20 * 1024 * 1024);
+    }
+
+    @Override
+    public void setMaxImageSize(int bytes) {
+        if (bytes < 1) {
+            throw new IllegalArgumentException("maxImageSize must be >= 1: " + bytes);
+        }
+        System.setProperty("tika.vlm.maxImageSize", String.valueOf(bytes));
+        VisionLanguageModelParser.forEachInstance(p -> p.setMaxImageSize(bytes));
+        LOGGER.info("VLM max image size set to {} bytes", bytes);
+    }
+
+    @Override
+    public String getPrompt() {
+        return current(VisionLanguageModelParser::getPrompt, System.getProperty("tika.vlm.prompt"));
+    }
+
+    @Override
+    public void setPrompt(String prompt) {
+        System.setProperty("tika.vlm.prompt", prompt);
+        VisionLanguageModelParser.forEachInstance(p -> p.setPrompt(prompt));
+        LOGGER.info("VLM prompt changed ({} chars)", prompt.length());
+    }
+
+    @Override
+    public String getModel() {
+        return current(VisionLanguageModelParser::getModelName, System.getProperty("tika.vlm.model"));
+    }
+
+    @Override
+    public void setModel(String model) {
+        System.setProperty("tika.vlm.model", model);
+        VisionLanguageModelParser.forEachInstance(p -> p.setModelName(model));
+        LOGGER.info("VLM model set to {}", model);
+    }
+
+    @Override
+    public String getEndpoint() {
+        return current(VisionLanguageModelParser::getApiEndpoint, System.getProperty("tika.vlm.endpoint"));
+    }
+
+    @Override
+    public void setEndpoint(String endpoint) {
+        // An invalid spec fails on the first parser, before anything was switched
+        VisionLanguageModelParser.forEachInstance(p -> p.setApiEndpoint(endpoint));
+        System.setProperty("tika.vlm.endpoint", endpoint);
+        System.setProperty("tika.vlm.endpoints", endpoint);
+        LOGGER.info("VLM endpoint set to {}", endpoint);
+    }
+
+    @Override
+    public String getOutputMode() {
+        return VlmBlockWriter.mode().name().toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public void setOutputMode(String mode) {
+        VlmBlockWriter.setMode(mode);
+        LOGGER.info("VLM output mode set to {}", getOutputMode());
+    }
+
+    // ===== skip filters =====
+
+    @Override
+    public int getSkipMinBytes() {
+        return ParallelEmbeddedDocumentExtractorFactory.skipMinBytes();
+    }
+
+    @Override
+    public void setSkipMinBytes(int bytes) {
+        ParallelEmbeddedDocumentExtractorFactory.setSkipMinBytes(bytes);
+    }
+
+    @Override
+    public String getSkipTypes() {
+        return ParallelEmbeddedDocumentExtractorFactory.skipTypes();
+    }
+
+    @Override
+    public void setSkipTypes(String types) {
+        ParallelEmbeddedDocumentExtractorFactory.setSkipTypes(types);
+    }
+
+    // ===== counters =====
+
+    @Override
+    public long getCoalesced() {
+        return ParallelEmbeddedDocumentExtractorFactory.coalesced();
+    }
+
+    @Override
+    public long getSkipped() {
+        return ParallelEmbeddedDocumentExtractorFactory.skippedCount();
+    }
+
+    @Override
+    public long getCancelledQueued() {
+        return ParallelEmbeddedDocumentExtractorFactory.cancelledQueued();
+    }
+
+    @Override
+    public long getCancelledRunning() {
+        return ParallelEmbeddedDocumentExtractorFactory.cancelledRunning();
+    }
+
+    /** Value from a live parser, or {@code fallback} when none was created yet. */
+    private static <T> T current(Function<VisionLanguageModelParser, T> getter, T fallback) {
+        AtomicReference<T> value = new AtomicReference<>();
+        VisionLanguageModelParser.forEachInstance(p -> value.compareAndSet(null, getter.apply(p)));
+        return value.get() != null ? value.get() : fallback;
+    }
+
+    // ===== admin endpoint =====
+
+    private void serve(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/vlm/admin", this::handle);
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "vlm-admin-http");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.start();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int status = 200;
+        ObjectNode body;
+        try {
+            if ("POST".equals(exchange.getRequestMethod())) {
+                String form = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                for (String pair : form.split("&")) {
+                    int eq = pair.indexOf('=');
+                    if (eq > 0) {
+                        set(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+                    }
+                }
+                body = attributes();
+            } else if ("GET".equals(exchange.getRequestMethod())) {
+                body = attributes();
+            } else {
+                status = 405;
+                body = mapper.createObjectNode().put("error", "GET or POST only");
+            }
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            body = mapper.createObjectNode().put("error", e.getMessage());
+        }
+        try {
+            byte[] out = mapper.writeValueAsBytes(body);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, out.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(out);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /** Every attribute of the management interface, by name. */
+    private ObjectNode attributes() {
+        ObjectNode node = mapper.createObjectNode();
+        for (Method m : VlmPipelineControlMBean.class.getMethods()) {
+            if (m.getName().startsWith("get") && m.getParameterCount() == 0) {
+                try {
+                    node.putPOJO(m.getName().substring(3), m.invoke(this));
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    node.put(m.getName().substring(3), "error: " + e.getMessage());
+                }
+            }
+        }
+        return node;
+    }
+
+    private void set(String attribute, String value) {
+        for (Method m : VlmPipelineControlMBean.class.getMethods()) {
+            if (m.getName().equals("set" + attribute) && m.getParameterCount() == 1) {
+                Class<?> type = m.getParameterTypes()[0];
+                try {
+                    m.invoke(this, type == int.class ? Integer.valueOf(value.trim()) : value);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                } catch (InvocationTargetException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof IllegalArgumentException ? (IllegalArgumentException) cause
+                            : new IllegalArgumentException(attribute + ": " + cause);
+                }
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Unknown or read-only attribute: " + attribute);
+    }
+}
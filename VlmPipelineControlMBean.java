@@ -0,0 +1,58 @@
+// VlmPipelineControlMBean.java
+package org.apache.tika.parallel;
+
+/** Management interface of {@link VlmPipelineControl}; attribute names follow the getters. */
+public interface VlmPipelineControlMBean {
+    int getWorkerThreads();
+
+    void setWorkerThreads(int threads);
+
+    int getQueueLimit();
+
+    void setQueueLimit(int limit);
+
+    int getQueuedTasks();
+
+    int getActiveTasks();
+
+    int getTimeoutSeconds();
+
+    void setTimeoutSeconds(int seconds);
+
+    int getMaxImageSize();
+
+    void setMaxImageSize(int bytes);
+
+    String getPrompt();
+
+    void setPrompt(String prompt);
+
+    String getModel();
+
+    void setModel(String model);
+
+    String getEndpoint();
+
+    void setEndpoint(String endpoint);
+
+    /** full, xhtml, text, compact or metadata; applies to parses that start afterwards. */
+    String getOutputMode();
+
+    void setOutputMode(String mode);
+
+    int getSkipMinBytes();
+
+    void setSkipMinBytes(int bytes);
+
+    String getSkipTypes();
+
+    void setSkipTypes(String types);
+
+    long getCoalesced();
+
+    long getSkipped();
+
+    long getCancelledQueued();
+
+    long getCancelledRunning();
+}
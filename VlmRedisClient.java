@@ -0,0 +1,318 @@
+// VlmRedisClient.java
+package org.apache.tika.parser.vision;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal Redis-protocol (RESP2) client shared by the analysis cache and the
+ * distributed work queue. Built from {@code redis://[:password@]host:port[/db]};
+ * every connection it opens is authenticated and on the configured database.
+ * Two kinds of connection:
+ * <ul>
+ *   <li>{@link Connection} – blocking request/reply, one caller at a time
+ *       (BRPOP and other commands that hold the connection)</li>
+ *   <li>{@link Pipeline} – many callers, replies arrive in request order and
+ *       are matched to the oldest pending request by a reader thread</li>
+ * </ul>
+ * Replies are a simple string (String), integer (Long), bulk string (byte[]
+ * or null) or array (Object[]); an error reply fails that one request with
+ * an IOException and leaves the connection usable.
+ *
+ * A pipeline whose oldest request gets no reply for
+ * -Dtika.vlm.redis.replyTimeoutMs (TIKA_VLM_REDIS_REPLY_TIMEOUT_MS, default
+ * 5000) is closed, so a stalled server fails requests instead of piling them up.
+ */
+public final class VlmRedisClient {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VlmRedisClient.class);
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int REPLY_TIMEOUT_MILLIS =
+            VlmSettings.intProperty("tika.vlm.redis.replyTimeoutMs", "TIKA_VLM_REDIS_REPLY_TIMEOUT_MS", 5000);
+
+    private final String host;
+    private final int port;
+    private final String password;
+    private final int db;
+
+    public VlmRedisClient(URI uri) {
+        if (uri.getHost() == null) {
+            throw new IllegalArgumentException("No host in " + uri);
+        }
+        this.host = uri.getHost();
+        this.port = uri.getPort() > 0 ? uri.getPort() : 6379;
+        String user = uri.getUserInfo();
+        this.password = user == null ? null : user.substring(user.indexOf(':') + 1);
+        String path = uri.getPath();
+        this.db = path == null || path.length() <= 1 ? 0 : Integer.parseInt(path.substring(1));
+    }
+
+    /** host:port, for log messages. */
+    public String address() {
+        return host + ":" + port;
+    }
+
+    public Connection connect() throws IOException {
+        Connection c = new Connection(open());
+        try {
+            if (password != null) c.call(bytes("AUTH"), bytes(password));
+            if (db != 0) c.call(bytes("SELECT"), bytes(String.valueOf(db)));
+        } catch (IOException e) {
+            c.close();
+            throw e;
+        }
+        return c;
+    }
+
+    /** Pipelined connection; its reader thread is named {@code threadName}. */
+    public Pipeline pipeline(String threadName) throws IOException {
+        return pipeline(threadName, REPLY_TIMEOUT_MILLIS);
+    }
+
+    Pipeline pipeline(String threadName, int replyTimeoutMillis) throws IOException {
+        Pipeline p = new Pipeline(open(), threadName, replyTimeoutMillis);
+        // Pipelined, so these run before anything sent afterwards
+        if (password != null) p.send(bytes("AUTH"), bytes(password));
+        if (db != 0) p.send(bytes("SELECT"), bytes(String.valueOf(db)));
+        return p;
+    }
+
+    private Socket open() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    public static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Blocking request/reply connection. */
+    public static final class Connection implements Closeable {
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        public synchronized Object call(byte[]... command) throws IOException {
+            writeCommand(out, command);
+            out.flush();
+            return readReply(in);
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Already broken
+            }
+        }
+    }
+
+    /** Pipelined connection; once closed every request fails and a new one is needed. */
+    public static final class Pipeline {
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+        private final Queue<Request> pending = new ConcurrentLinkedQueue<>();
+        private final long replyTimeoutNanos;
+        private volatile boolean closed;
+
+        private Pipeline(Socket socket, String threadName, int replyTimeoutMillis) throws IOException {
+            this.socket = socket;
+            this.replyTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(replyTimeoutMillis);
+            // Reads wake up at least this often to check on the oldest request
+            socket.setSoTimeout(replyTimeoutMillis);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            Thread reader = new Thread(this::readReplies, threadName);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        public CompletableFuture<Object> send(byte[]... command) {
+            CompletableFuture<Object> reply = new CompletableFuture<>();
+            synchronized (out) {
+                if (closed) {
+                    reply.completeExceptionally(new IOException("Redis connection closed"));
+                    return reply;
+                }
+                // Queued before writing so the reply cannot overtake its future
+                pending.add(new Request(reply, System.nanoTime()));
+                try {
+                    writeCommand(out, command);
+                    out.flush();
+                } catch (IOException e) {
+                    close(e);
+                }
+            }
+            return reply;
+        }
+
+        private void readReplies() {
+            try {
+                while (!closed) {
+                    int type;
+                    try {
+                        type = in.read();
+                    } catch (SocketTimeoutException e) {
+                        // Between replies: only a request waiting too long is a problem
+                        Request oldest = pending.peek();
+                        if (oldest != null && System.nanoTime() - oldest.sentNanos >= replyTimeoutNanos) {
+                            throw new IOException("No reply from Redis within "
+                                    + TimeUnit.NANOSECONDS.toMillis(replyTimeoutNanos) + "ms");
+                        }
+                        continue;
+                    }
+                    if (type < 0) throw new EOFException("Redis closed the connection");
+                    Object reply;
+                    IOException error = null;
+                    try {
+                        // A timeout in here leaves a partial reply behind: the connection is done
+                        reply = readReply(in, type);
+                    } catch (RedisError e) {
+                        reply = null;
+                        error = e;
+                    }
+                    Request r = pending.poll();
+                    if (r == null) throw new IOException("Unexpected reply from Redis");
+                    if (error != null) r.reply.completeExceptionally(error);
+                    else r.reply.complete(reply);
+                }
+            } catch (IOException e) {
+                close(e);
+            }
+        }
+
+        private void close(IOException cause) {
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Already broken
+            }
+            for (Request r; (r = pending.poll()) != null; ) {
+                r.reply.completeExceptionally(cause);
+            }
+            LOGGER.debug("Redis connection closed: {}", cause.toString());
+        }
+
+        private static final class Request {
+            final CompletableFuture<Object> reply;
+            final long sentNanos;
+
+            Request(CompletableFuture<Object> reply, long sentNanos) {
+                this.reply = reply;
+                this.sentNanos = sentNanos;
+            }
+        }
+    }
+
+    static void writeCommand(OutputStream out, byte[][] command) throws IOException {
+        out.write(('*' + String.valueOf(command.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        for (byte[] arg : command) {
+            out.write(('$' + String.valueOf(arg.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(arg);
+            out.write('\r');
+            out.write('\n');
+        }
+    }
+
+    static Object readReply(DataInputStream in) throws IOException {
+        int type = in.read();
+        if (type < 0) throw new EOFException("Redis closed the connection");
+        return readReply(in, type);
+    }
+
+    private static Object readReply(DataInputStream in, int type) throws IOException {
+        String line = readLine(in);
+        switch (type) {
+            case '+':
+                return line;
+            case '-':
+                throw new RedisError(line);
+            case ':':
+                return Long.parseLong(line);
+            case '$': {
+                int n = Integer.parseInt(line);
+                if (n < 0) return null;
+                byte[] b = new byte[n];
+                in.readFully(b);
+                readLine(in);
+                return b;
+            }
+            case '*': {
+                int n = Integer.parseInt(line);
+                if (n < 0) return null;
+                Object[] items = new Object[n];
+                RedisError error = null;
+                for (int i = 0; i < n; i++) {
+                    try {
+                        items[i] = readReply(in);
+                    } catch (RedisError e) {
+                        // Read the rest first, or the next reply would start mid-array
+                        if (error == null) error = e;
+                    }
+                }
+                if (error != null) throw error;
+                return items;
+            }
+            default:
+                throw new IOException("Bad Redis reply type: " + (char) type);
+        }
+    }
+
+    private static String readLine(DataInputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int b; (b = in.read()) != '\r'; ) {
+            if (b < 0) throw new EOFException();
+            sb.append((char) b);
+        }
+        in.read(); // '\n'
+        return sb.toString();
+    }
+
+    /** An error reply: fails one request, the connection stays usable. */
+    static final class RedisError extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RedisError(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+// VlmSettings.java
+package org.apache.tika.parser.vision;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Numeric tika.vlm.* settings, shared by the vision and parallel packages:
+ * the system property if set, else the environment variable, else the
+ * default. A value that does not parse is logged and replaced by the
+ * default, so a typo in the environment never breaks class initialization.
+ */
+public final class VlmSettings {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VlmSettings.class);
+
+    private VlmSettings() {
+    }
+
+    public static int intProperty(String prop, String env, int def) {
+        String v = System.getProperty(prop, System.getenv(env));
+        if (v == null) return def;
+        try {
+            return Integer.parseInt(v.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Ignoring invalid {}={}, using {}", prop, v, def);
+            return def;
+        }
+    }
+
+    public static double doubleProperty(String prop, String env, double def) {
+        String v = System.getProperty(prop, System.getenv(env));
+        if (v == null) return def;
+        try {
+            return Double.parseDouble(v.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Ignoring invalid {}={}, using {}", prop, v, def);
+            return def;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+// VlmStructuredOutput.java
+package org.apache.tika.parser.vision;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.tika.metadata.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Structured output: the provider is asked for a JSON object matching a fixed
+ * schema (objects, text, scene, tags) instead of free text, and the answer is
+ * read in one streaming pass straight into typed metadata:
+ * vlm:objects and vlm:tags (multi-valued), vlm:text and vlm:scene.
+ * vlm:analysis keeps a readable summary (scene, then the visible text).
+ *
+ * OpenAI-compatible providers get {@code response_format: json_schema};
+ * Anthropic gets the schema as a tool it is forced to call. A provider that
+ * ignores the schema and answers in prose is still handled: list items
+ * become objects and the prose becomes the scene.
+ *
+ * -Dtika.vlm.structured=true (TIKA_VLM_STRUCTURED) enables it. It applies to
+ * whole-image calls; tiles, animation frames and video scenes stay free text
+ * since they are merged into one description.
+ */
+final class VlmStructuredOutput {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VlmStructuredOutput.class);
+
+    static final String TOOL_NAME = "image_analysis";
+
+    static final String OBJECTS = "vlm:objects";
+    static final String TAGS = "vlm:tags";
+    static final String TEXT = "vlm:text";
+    static final String SCENE = "vlm:scene";
+
+    private static final String INSTRUCTION = "Answer with the JSON object only: objects (main subjects "
+            + "and objects, short noun phrases), text (all legible text, verbatim, empty if none), scene "
+            + "(one or two sentences on setting, composition and notable details), tags (lowercase keywords).";
+
+    // Prose fallback: numbered or bulleted list lines
+    private static final Pattern LIST_ITEM = Pattern.compile("^\\s*(?:\\d+[).]|[-*•])\\s*(\\S.*)$");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    private static volatile VlmStructuredOutput instance;
+
+    private final JsonFactory json = new JsonFactory();
+    private final ObjectNode schema;
+
+    VlmStructuredOutput() {
+        ObjectMapper mapper = new ObjectMapper();
+        schema = mapper.createObjectNode();
+        schema.put("type", "object");
+        ObjectNode props = schema.putObject("properties");
+        props.putObject("objects").put("type", "array").putObject("items").put("type", "string");
+        props.putObject("text").put("type", "string");
+        props.putObject("scene").put("type", "string");
+        props.putObject("tags").put("type", "array").putObject("items").put("type", "string");
+        ArrayNode required = schema.putArray("required");
+        required.add("objects").add("text").add("scene").add("tags");
+        schema.put("additionalProperties", false);
+    }
+
+    /** Shared instance, or null when structured output is not enabled. */
+    static VlmStructuredOutput get() {
+        VlmStructuredOutput s = instance;
+        if (s != null) return s;
+        synchronized (VlmStructuredOutput.class) {
+            if (instance == null) {
+                if (!Boolean.parseBoolean(System.getProperty("tika.vlm.structured",
+                        System.getenv().getOrDefault("TIKA_VLM_STRUCTURED", "false")))) {
+                    return null;
+                }
+                instance = new VlmStructuredOutput();
+                LOGGER.info("VLM structured output enabled");
+            }
+            return instance;
+        }
+    }
+
+    /** Appended to the prompt so the fields are filled the same way by every provider. */
+    String instruction() {
+        return INSTRUCTION;
+    }
+
+    /** OpenAI-compatible request: strict JSON schema response. */
+    void addResponseFormat(ObjectNode request) {
+        ObjectNode format = request.putObject("response_format");
+        format.put("type", "json_schema");
+        ObjectNode spec = format.putObject("json_schema");
+        spec.put("name", TOOL_NAME);
+        spec.put("strict", true);
+        spec.set("schema", schema.deepCopy());
+    }
+
+    /** Anthropic request: the schema as the one tool the model must call. */
+    void addTool(ObjectNode request) {
+        ObjectNode tool = request.putArray("tools").addObject();
+        tool.put("name", TOOL_NAME);
+        tool.put("description", "Record the analysis of the image.");
+        tool.set("input_schema", schema.deepCopy());
+        ObjectNode choice = request.putObject("tool_choice");
+        choice.put("type", "tool");
+        choice.put("name", TOOL_NAME);
+    }
+
+    /**
+     * Reads {@code answer} into {@code md} and returns the summary for
+     * vlm:analysis. A JSON answer is streamed token by token; anything else
+     * goes through the prose fallback. A JSON answer that does not parse,
+     * typically one cut off at max_tokens, fails the analysis and leaves
+     * {@code md} as it was.
+     */
+    String apply(String answer, Metadata md) throws IOException {
+        String trimmed = answer.trim();
+        if (!trimmed.startsWith("{")) {
+            return readProse(answer, md);
+        }
+        try (JsonParser p = json.createParser(trimmed)) {
+            return readObject(p, md);
+        } catch (IOException e) {
+            throw new IOException("Incomplete structured answer (" + trimmed.length()
+                    + " chars, cut off at max_tokens?): " + e.getMessage(), e);
+        }
+    }
+
+    /** Fields are collected first: a truncated answer (max_tokens) must leave {@code md} untouched. */
+    private static String readObject(JsonParser p, Metadata md) throws IOException {
+        if (p.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected an object");
+        }
+        List<String> objects = new ArrayList<>();
+        List<String> tags = new ArrayList<>();
+        String text = null;
+        String scene = null;
+        JsonToken t;
+        while ((t = p.nextToken()) == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            JsonToken value = p.nextToken();
+            switch (field) {
+                case "objects":
+                    readList(p, value, objects, false);
+                    break;
+                case "tags":
+                    readList(p, value, tags, true);
+                    break;
+                case "text":
+                    text = value == JsonToken.VALUE_STRING ? p.getText().trim() : null;
+                    break;
+                case "scene":
+                    scene = value == JsonToken.VALUE_STRING ? p.getText().trim() : null;
+                    break;
+                default:
+                    p.skipChildren();
+            }
+        }
+        if (t != JsonToken.END_OBJECT) {
+            throw new IOException("Unterminated object");
+        }
+        for (String o : objects) md.add(OBJECTS, o);
+        for (String tag : tags) md.add(TAGS, tag);
+        if (text != null && !text.isEmpty()) md.set(TEXT, text);
+        if (scene != null && !scene.isEmpty()) md.set(SCENE, scene);
+        return summary(scene, text);
+    }
+
+    private static void readList(JsonParser p, JsonToken start, List<String> values, boolean tag)
+            throws IOException {
+        if (start != JsonToken.START_ARRAY) {
+            p.skipChildren();
+            return;
+        }
+        for (JsonToken t; (t = p.nextToken()) != JsonToken.END_ARRAY; ) {
+            if (t == null) throw new IOException("Unterminated array");
+            if (t != JsonToken.VALUE_STRING) {
+                p.skipChildren();
+                continue;
+            }
+            String v = p.getText().trim();
+            if (tag) v = SPACES.matcher(v.toLowerCase(Locale.ROOT)).replaceAll(" ");
+            if (!v.isEmpty()) values.add(v);
+        }
+    }
+
+    /** One pass over the lines: list items are objects, the rest is the scene. */
+    private static String readProse(String answer, Metadata md) {
+        StringBuilder scene = new StringBuilder(answer.length());
+        Matcher item = LIST_ITEM.matcher("");
+        int start = 0;
+        int len = answer.length();
+        while (start < len) {
+            int end = answer.indexOf('\n', start);
+            if (end < 0) end = len;
+            String line = answer.substring(start, end);
+            if (item.reset(line).matches()) {
+                md.add(OBJECTS, item.group(1).trim());
+            } else if (!line.isBlank()) {
+                if (scene.length() > 0) scene.append(' ');
+                scene.append(line.trim());
+            }
+            start = end + 1;
+        }
+        String s = scene.toString();
+        if (!s.isEmpty()) md.set(SCENE, s);
+        return s.isEmpty() ? answer.trim() : s;
+    }
+
+    private static String summary(String scene, String text) {
+        boolean hasScene = scene != null && !scene.isEmpty();
+        boolean hasText = text != null && !text.isEmpty();
+        if (hasScene && hasText) return scene + "\n\nText: " + text;
+        if (hasText) return "Text: " + text;
+        return hasScene ? scene : "";
+    }
+}
@@ -0,0 +1,258 @@
+package org.apache.tika.parser.vision;
+
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.parser.ocr.TesseractOCRConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Cheap local pass in front of the VLM. Images that look like scanned text
+ * (little colour, mostly paper with dark ink and sharp edges) are OCRed with
+ * the configured Tesseract parser. When OCR reads them confidently, the OCR
+ * text is the analysis and no VLM call is made. Photos, charts and diagrams,
+ * undecodable images and poorly read text all go on to the VLM.
+ *
+ * The chosen tier is recorded as vlm:tier (ocr / vlm) with vlm:tier-reason
+ * and the image statistics used (vlm:tier-features).
+ *
+ * -Dtika.vlm.tiering=true (TIKA_VLM_TIERING) enables it. Thresholds:
+ * tika.vlm.tier.maxColour (fraction of strongly coloured pixels, default 0.05),
+ * tika.vlm.tier.minOcrConfidence (mean hOCR word confidence, default 75),
+ * tika.vlm.tier.minOcrChars (default 40).
+ */
+final class VlmTierRouter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VlmTierRouter.class);
+
+    // Long side of the subsampled image the statistics are computed on
+    private static final int SAMPLE_SIZE = 512;
+
+    private static volatile VlmTierRouter instance;
+
+    private final double maxColour;
+    private final double minOcrConfidence;
+    private final int minOcrChars;
+
+    private VlmTierRouter(double maxColour, double minOcrConfidence, int minOcrChars) {
+        this.maxColour = maxColour;
+        this.minOcrConfidence = minOcrConfidence;
+        this.minOcrChars = minOcrChars;
+    }
+
+    /** Shared router, or null when tiering is not enabled. */
+    static VlmTierRouter get() {
+        VlmTierRouter r = instance;
+        if (r != null) return r;
+        synchronized (VlmTierRouter.class) {
+            if (instance == null) {
+                if (!Boolean.parseBoolean(System.getProperty("tika.vlm.tiering",
+                        System.getenv().getOrDefault("TIKA_VLM_TIERING", "false")))) {
+                    return null;
+                }
+                instance = new VlmTierRouter(
+                        VlmSettings.doubleProperty("tika.vlm.tier.maxColour", "TIKA_VLM_TIER_MAX_COLOUR", 0.05),
+                        VlmSettings.doubleProperty("tika.vlm.tier.minOcrConfidence", "TIKA_VLM_TIER_MIN_OCR_CONFIDENCE", 75),
+                        VlmSettings.intProperty("tika.vlm.tier.minOcrChars", "TIKA_VLM_TIER_MIN_OCR_CHARS", 40));
+                LOGGER.info("VLM tiered routing enabled");
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * Classifies the image and, for text-like images, tries OCR first.
+     * Returns true when the OCR tier produced the analysis (metadata filled),
+     * false when the image should go to the VLM.
+     */
+    boolean handledLocally(byte[] imageData, Parser ocr, Metadata metadata, ParseContext context) {
+        ImageStats stats = ImageStats.of(imageData);
+        if (stats == null) {
+            return toVlm(metadata, "undecodable");
+        }
+        metadata.set("vlm:tier-features", stats.toString());
+        if (!stats.looksLikeText(maxColour)) {
+            return toVlm(metadata, "graphic");
+        }
+        if (ocr == null) {
+            return toVlm(metadata, "no-ocr-parser");
+        }
+
+        HocrCollector hocr = new HocrCollector();
+        ParseContext ocrContext = new ParseContext();
+        TesseractOCRConfig config = new TesseractOCRConfig();
+        config.setOutputType(TesseractOCRConfig.OUTPUT_TYPE.HOCR);
+        ocrContext.set(TesseractOCRConfig.class, config);
+        Metadata ocrMetadata = new Metadata();
+        ocrMetadata.set(Metadata.CONTENT_TYPE, metadata.get(Metadata.CONTENT_TYPE));
+        try (InputStream in = new ByteArrayInputStream(imageData)) {
+            ocr.parse(in, hocr, ocrMetadata, ocrContext);
+        } catch (Exception e) {
+            LOGGER.debug("OCR tier failed, escalating to VLM: {}", e.getMessage());
+            return toVlm(metadata, "ocr-failed");
+        }
+
+        String text = hocr.text.toString().replaceAll("[ \\t]+", " ").trim();
+        double confidence = hocr.confidence();
+        metadata.set("vlm:ocr-confidence", String.format(Locale.ROOT, "%.1f", confidence));
+        if (text.length() < minOcrChars) {
+            return toVlm(metadata, "ocr-too-little-text");
+        }
+        if (confidence < minOcrConfidence) {
+            return toVlm(metadata, "ocr-low-confidence");
+        }
+        metadata.set("vlm:tier", "ocr");
+        metadata.set("vlm:tier-reason", "text");
+        metadata.set("vlm:provider", "tesseract");
+        metadata.set("vlm:model", "ocr-tier");
+        metadata.set("vlm:analysis", text);
+        return true;
+    }
+
+    private static boolean toVlm(Metadata metadata, String reason) {
+        metadata.set("vlm:tier", "vlm");
+        metadata.set("vlm:tier-reason", reason);
+        return false;
+    }
+
+    /** Colour, tone and edge statistics of a subsampled copy of the image. */
+    static final class ImageStats {
+        final double colour;
+        final double light;
+        final double dark;
+        final double edges;
+
+        private ImageStats(double colour, double light, double dark, double edges) {
+            this.colour = colour;
+            this.light = light;
+            this.dark = dark;
+            this.edges = edges;
+        }
+
+        /** Scanned text: almost no colour, mostly paper, some ink, few mid-tones, plenty of edges. */
+        boolean looksLikeText(double maxColour) {
+            double mid = 1.0 - light - dark;
+            return colour <= maxColour && light >= 0.5 && dark >= 0.01 && dark <= 0.4
+                    && mid <= 0.3 && edges >= 0.01;
+        }
+
+        static ImageStats of(byte[] imageData) {
+            BufferedImage img;
+            try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(imageData))) {
+                if (iis == null) return null;
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+                if (!readers.hasNext()) return null;
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(iis, true, true);
+                    int longSide = Math.max(reader.getWidth(0), reader.getHeight(0));
+                    int step = Math.max(1, longSide / SAMPLE_SIZE);
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceSubsampling(step, step, 0, 0);
+                    img = reader.read(0, param);
+                } finally {
+                    reader.dispose();
+                }
+            } catch (Exception e) {
+                return null;
+            }
+            if (img == null) return null;
+
+            int w = img.getWidth();
+            int h = img.getHeight();
+            int[] row = new int[w];
+            long colour = 0, light = 0, dark = 0, edges = 0;
+            for (int y = 0; y < h; y++) {
+                img.getRGB(0, y, w, 1, row, 0, w);
+                int prevLum = -1;
+                for (int x = 0; x < w; x++) {
+                    int p = row[x];
+                    int r = (p >> 16) & 0xFF, g = (p >> 8) & 0xFF, b = p & 0xFF;
+                    int lum = (r * 299 + g * 587 + b * 114) / 1000;
+                    int chroma = Math.max(r, Math.max(g, b)) - Math.min(r, Math.min(g, b));
+                    if (chroma > 40) colour++;
+                    if (lum > 200) light++;
+                    else if (lum < 80) dark++;
+                    if (prevLum >= 0 && Math.abs(lum - prevLum) > 60) edges++;
+                    prevLum = lum;
+                }
+            }
+            double n = Math.max(1.0, (double) w * h);
+            return new ImageStats(colour / n, light / n, dark / n, edges / n);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "colour=%.3f,light=%.3f,dark=%.3f,edges=%.3f",
+                    colour, light, dark, edges);
+        }
+    }
+
+    /** Collects text and the x_wconf word confidences from hOCR output. */
+    static final class HocrCollector extends DefaultHandler {
+        final StringBuilder text = new StringBuilder();
+        private long confidenceSum;
+        private int words;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) {
+            String title = atts.getValue("title");
+            if (title == null) return;
+            int i = title.indexOf("x_wconf ");
+            if (i < 0) return;
+            int start = i + "x_wconf ".length();
+            int end = start;
+            while (end < title.length() && Character.isDigit(title.charAt(end))) end++;
+            if (end > start) {
+                confidenceSum += Integer.parseInt(title.substring(start, end));
+                words++;
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if ("span".equals(localName) || "p".equals(localName) || "div".equals(localName)) {
+                text.append(' ');
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            text.append(ch, start, length);
+        }
+
+        /**
+         * Mean word confidence (0-100). Without hOCR confidences, the share of
+         * word-like tokens stands in, so that garbage OCR still escalates.
+         */
+        double confidence() {
+            if (words > 0) {
+                return (double) confidenceSum / words;
+            }
+            int tokens = 0, wordLike = 0;
+            for (String t : text.toString().split("\\s+")) {
+                if (t.isEmpty()) continue;
+                tokens++;
+                int letters = 0;
+                for (int k = 0; k < t.length(); k++) {
+                    if (Character.isLetterOrDigit(t.charAt(k))) letters++;
+                }
+                if (t.length() >= 2 && letters * 10 >= t.length() * 8) wordLike++;
+            }
+            return tokens == 0 ? 0.0 : 100.0 * wordLike / tokens;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package org.apache.tika.parser.vision;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Splits images that are too large to send whole (over maxImageSize, or with
+ * a long side above {@code triggerPixels}, where server-side downscaling would
+ * lose detail) into overlapping tiles. Tiles are decoded region by region,
+ * analyzed in parallel, and their analyses merged, optionally through a final
+ * text-only summarisation call.
+ *
+ * -Dtika.vlm.tiling=true (TIKA_VLM_TILING) enables it. Tuning:
+ * tika.vlm.tile.size (tile edge in pixels, default 1536),
+ * tika.vlm.tile.overlap (default 128), tika.vlm.tile.triggerPixels (default 4096),
+ * tika.vlm.tile.maxTiles (default 16; larger grids are subsampled to fit),
+ * tika.vlm.tile.threads (default 4), tika.vlm.tile.summarize (default true).
+ */
+final class VlmTiler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VlmTiler.class);
+
+    private static volatile VlmTiler instance;
+
+    /** Analyzes one encoded tile; {@code note} tells the model where the tile sits. */
+    interface TileCall {
+        String analyze(byte[] png, String note) throws Exception;
+    }
+
+    /** Merges the tile analyses into one answer. */
+    interface Summarizer {
+        String summarize(String tileAnalyses) throws Exception;
+    }
+
+    private final int tileSize;
+    private final int overlap;
+    private final int triggerPixels;
+    private final int maxTiles;
+    private final boolean summarize;
+    private final ExecutorService exec;
+
+    VlmTiler(int tileSize, int overlap, int triggerPixels, int maxTiles, int threads, boolean summarize) {
+        this.tileSize = Math.max(256, tileSize);
+        this.overlap = Math.max(0, Math.min(overlap, this.tileSize / 2));
+        this.triggerPixels = triggerPixels;
+        this.maxTiles = Math.max(1, maxTiles);
+        this.summarize = summarize;
+        this.exec = VlmExecutors.ownPool("vlm-tile-", threads);
+    }
+
+    /** Shared tiler, or null when tiling is not enabled. */
+    static VlmTiler get() {
+        VlmTiler t = instance;
+        if (t != null) return t;
+        synchronized (VlmTiler.class) {
+            if (instance == null) {
+                if (!Boolean.parseBoolean(System.getProperty("tika.vlm.tiling",
+                        System.getenv().getOrDefault("TIKA_VLM_TILING", "false")))) {
+                    return null;
+                }
+                instance = new VlmTiler(
+                        VlmSettings.intProperty("tika.vlm.tile.size", "TIKA_VLM_TILE_SIZE", 1536),
+                        VlmSettings.intProperty("tika.vlm.tile.overlap", "TIKA_VLM_TILE_OVERLAP", 128),
+                        VlmSettings.intProperty("tika.vlm.tile.triggerPixels", "TIKA_VLM_TILE_TRIGGER_PIXELS", 4096),
+                        VlmSettings.intProperty("tika.vlm.tile.maxTiles", "TIKA_VLM_TILE_MAX_TILES", 16),
+                        VlmSettings.intProperty("tika.vlm.tile.threads", "TIKA_VLM_TILE_THREADS", 4),
+                        Boolean.parseBoolean(System.getProperty("tika.vlm.tile.summarize",
+                                System.getenv().getOrDefault("TIKA_VLM_TILE_SUMMARIZE", "true"))));
+                LOGGER.info("VLM tiling enabled for images over {}px", instance.triggerPixels);
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * Image dimensions if the image should be tiled, else null. Images over
+     * {@code maxBytes} are always tiled when their header can be read.
+     */
+    int[] tileDimensions(byte[] imageData, int maxBytes) {
+        int[] size = dimensions(imageData);
+        if (size == null) return null;
+        boolean tooBig = imageData.length > maxBytes;
+        boolean tooLarge = Math.max(size[0], size[1]) > triggerPixels;
+        return tooBig || tooLarge ? size : null;
+    }
+
+    /**
+     * Analyzes the image tile by tile. Returns the merged analysis; the tile
+     * count is written to {@code stats[0]}.
+     */
+    String analyze(byte[] imageData, int[] size, TileCall call, Summarizer summarizer, int[] stats)
+            throws Exception {
+        int width = size[0], height = size[1];
+        // Subsample so the grid fits maxTiles, keeping each tile near tileSize pixels
+        int step = 1;
+        while (grid(width, step) * grid(height, step) > maxTiles) {
+            step++;
+        }
+        int region = tileSize * step;
+        int stride = (tileSize - overlap) * step;
+        int cols = grid(width, step);
+        int rows = grid(height, step);
+        stats[0] = cols * rows;
+        LOGGER.info("Tiling {}x{} image into {}x{} tiles (subsampling {})", width, height, cols, rows, step);
+
+        List<Future<String>> tiles = new ArrayList<>(rows * cols);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                int x = Math.min(c * stride, Math.max(0, width - region));
+                int y = Math.min(r * stride, Math.max(0, height - region));
+                Rectangle area = new Rectangle(x, y, Math.min(region, width - x), Math.min(region, height - y));
+                String note = String.format(Locale.ROOT,
+                        "This is tile %d,%d (row,column) of a %dx%d grid cut from one larger %dx%d image "
+                                + "(this tile covers x=%d..%d, y=%d..%d; neighbouring tiles overlap). "
+                                + "Describe only what is visible in this tile.",
+                        r + 1, c + 1, rows, cols, width, height,
+                        area.x, area.x + area.width, area.y, area.y + area.height);
+                final int subsample = step;
+                tiles.add(exec.submit(() -> call.analyze(readTile(imageData, area, subsample), note)));
+            }
+        }
+
+        StringBuilder merged = new StringBuilder();
+        try {
+            for (int i = 0; i < tiles.size(); i++) {
+                String analysis = tiles.get(i).get();
+                merged.append("[Tile ").append(i / cols + 1).append(',').append(i % cols + 1).append("]\n")
+                      .append(analysis == null ? "" : analysis.trim()).append("\n\n");
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        } finally {
+            for (Future<String> f : tiles) {
+                f.cancel(true);
+            }
+        }
+        String tileText = merged.toString().trim();
+        if (!summarize || tiles.size() == 1) {
+            return tileText;
+        }
+        return summarizer.summarize(tileText);
+    }
+
+    private int grid(int length, int step) {
+        int region = tileSize * step;
+        if (length <= region) return 1;
+        int stride = (tileSize - overlap) * step;
+        return 1 + (int) Math.ceil((double) (length - region) / stride);
+    }
+
+    private static byte[] readTile(byte[] imageData, Rectangle area, int step) throws IOException {
+        BufferedImage img;
+        try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(imageData))) {
+            ImageReader reader = ImageIO.getImageReaders(iis).next();
+            try {
+                reader.setInput(iis, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(area);
+                param.setSourceSubsampling(step, step, 0, 0);
+                img = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(img, "png", out)) {
+            throw new IOException("No PNG writer for tile");
+        }
+        return out.toByteArray();
+    }
+
+    private static int[] dimensions(byte[] imageData) {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(imageData))) {
+            if (iis == null) return null;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                return new int[]{reader.getWidth(0), reader.getHeight(0)};
+            } finally {
+                reader.dispose();
+            }
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package org.apache.tika.parser.vision;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLSession;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP/1.1 over a Unix domain socket for a model server running next to Tika,
+ * skipping TCP and TLS. Connections are kept alive and pooled per socket path;
+ * a pooled connection the server has closed meanwhile is replaced and the
+ * request retried once.
+ *
+ * -Dtika.vlm.socket (TIKA_VLM_SOCKET) is the socket path, used with the custom
+ * provider; the endpoint URL still supplies the request path.
+ * -Dtika.vlm.socket.maxIdle (TIKA_VLM_SOCKET_MAX_IDLE) caps idle connections, default 16.
+ *
+ * Unix domain socket channels need Java 16+; they are bound reflectively so
+ * the parser still builds for Java 11, where the setting is ignored with a
+ * warning and requests go over HTTP.
+ */
+final class VlmUnixSocketTransport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VlmUnixSocketTransport.class);
+
+    private static final ConcurrentMap<String, VlmUnixSocketTransport> TRANSPORTS = new ConcurrentHashMap<>();
+
+    // Closes channels of calls running past their timeout; blocking UDS reads have no SO_TIMEOUT
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "vlm-uds-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String path;
+    private final SocketAddress address;
+    private final int maxIdle;
+    private final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger opened = new AtomicInteger();
+
+    private VlmUnixSocketTransport(String path, SocketAddress address, int maxIdle) {
+        this.path = path;
+        this.address = address;
+        this.maxIdle = maxIdle;
+    }
+
+    /** Shared transport for the socket path, or null when this JVM has no Unix domain sockets. */
+    static VlmUnixSocketTransport shared(String socketPath) {
+        SocketAddress address = unixAddress(socketPath);
+        if (address == null) {
+            return null;
+        }
+        return TRANSPORTS.computeIfAbsent(socketPath, p -> {
+            int maxIdle = Math.max(0,
+                    VlmSettings.intProperty("tika.vlm.socket.maxIdle", "TIKA_VLM_SOCKET_MAX_IDLE", 16));
+            LOGGER.info("VLM requests go over Unix domain socket {}", p);
+            return new VlmUnixSocketTransport(p, address, maxIdle);
+        });
+    }
+
+    /**
+     * Sends {@code request} (method POST, headers, URI path) with {@code body}
+     * and reads the whole response.
+     */
+    HttpResponse<String> send(HttpRequest request, String body, long timeoutMillis)
+            throws IOException, InterruptedException {
+        byte[] head = requestHead(request, body);
+        byte[] payload = body.getBytes(StandardCharsets.UTF_8);
+        Connection c = idle.pollFirst();
+        boolean reused = c != null;
+        if (c == null) {
+            c = open();
+        }
+        while (true) {
+            AtomicBoolean timedOut = new AtomicBoolean();
+            Connection current = c;
+            ScheduledFuture<?> watchdog = WATCHDOG.schedule(() -> {
+                timedOut.set(true);
+                current.close();
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            try {
+                c.out.write(head);
+                c.out.write(payload);
+                c.out.flush();
+                Response response = readResponse(c.in, request);
+                if (response == null) {
+                    // Closed before answering: a pooled connection the server had dropped
+                    c.close();
+                    if (reused) {
+                        reused = false;
+                        c = open();
+                        continue;
+                    }
+                    throw new IOException("Connection closed by VLM server on " + path);
+                }
+                if (response.keepAlive && idle.size() < maxIdle) {
+                    idle.offerFirst(c);
+                } else {
+                    c.close();
+                }
+                return response;
+            } catch (ClosedByInterruptException e) {
+                c.close();
+                throw new InterruptedException("VLM call over " + path + " cancelled");
+            } catch (IOException e) {
+                c.close();
+                if (timedOut.get()) {
+                    throw new IOException("VLM call over " + path + " timed out after " + timeoutMillis + "ms");
+                }
+                if (reused && !Thread.currentThread().isInterrupted()) {
+                    reused = false;
+                    c = open();
+                    continue;
+                }
+                throw e;
+            } finally {
+                watchdog.cancel(false);
+            }
+        }
+    }
+
+    int getOpened() {
+        return opened.get();
+    }
+
+    private Connection open() throws IOException {
+        SocketChannel channel = openChannel();
+        try {
+            channel.connect(address);
+        } catch (IOException e) {
+            channel.close();
+            throw new IOException("Cannot connect to VLM socket " + path + ": " + e.getMessage(), e);
+        }
+        opened.incrementAndGet();
+        return new Connection(channel);
+    }
+
+    private static byte[] requestHead(HttpRequest request, String body) {
+        URI uri = request.uri();
+        String target = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            target += "?" + uri.getRawQuery();
+        }
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(request.method()).append(' ').append(target).append(" HTTP/1.1\r\n");
+        sb.append("Host: ").append(uri.getHost() != null ? uri.getHost() : "localhost").append("\r\n");
+        for (Map.Entry<String, List<String>> h : request.headers().map().entrySet()) {
+            for (String value : h.getValue()) {
+                sb.append(h.getKey()).append(": ").append(value).append("\r\n");
+            }
+        }
+        sb.append("Content-Length: ").append(body.getBytes(StandardCharsets.UTF_8).length).append("\r\n");
+        sb.append("Connection: keep-alive\r\n\r\n");
+        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /** Reads one response; null if the connection was closed before the status line. */
+    private static Response readResponse(InputStream in, HttpRequest request) throws IOException {
+        String statusLine = readLine(in);
+        if (statusLine == null) {
+            return null;
+        }
+        String[] parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/1.")) {
+            throw new IOException("Malformed status line from VLM server: " + statusLine);
+        }
+        int status = Integer.parseInt(parts[1]);
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.computeIfAbsent(line.substring(0, colon).trim(), k -> new ArrayList<>())
+                        .add(line.substring(colon + 1).trim());
+            }
+        }
+        boolean keepAlive = !"HTTP/1.0".equals(parts[0]) && !hasToken(headers, "Connection", "close");
+        byte[] body;
+        if (hasToken(headers, "Transfer-Encoding", "chunked")) {
+            body = readChunked(in);
+        } else if (headers.containsKey("Content-Length")) {
+            body = readFully(in, Integer.parseInt(headers.get("Content-Length").get(0)));
+        } else {
+            // Delimited by close
+            body = in.readAllBytes();
+            keepAlive = false;
+        }
+        return new Response(status, new String(body, StandardCharsets.UTF_8),
+                HttpHeaders.of(headers, (k, v) -> true), request, keepAlive);
+    }
+
+    private static boolean hasToken(Map<String, List<String>> headers, String name, String token) {
+        List<String> values = headers.get(name);
+        if (values == null) return false;
+        for (String v : values) {
+            if (v.toLowerCase(Locale.ROOT).contains(token)) return true;
+        }
+        return false;
+    }
+
+    private static byte[] readChunked(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (true) {
+            String size = readLine(in);
+            if (size == null) throw new IOException("Truncated chunked response");
+            int semi = size.indexOf(';');
+            int n = Integer.parseInt((semi >= 0 ? size.substring(0, semi) : size).trim(), 16);
+            if (n == 0) {
+                // Trailers up to the blank line
+                String trailer;
+                while ((trailer = readLine(in)) != null && !trailer.isEmpty()) {
+                    // Ignored
+                }
+                return out.toByteArray();
+            }
+            out.write(readFully(in, n));
+            readLine(in);
+        }
+    }
+
+    private static byte[] readFully(InputStream in, int n) throws IOException {
+        byte[] b = in.readNBytes(n);
+        if (b.length < n) throw new IOException("Truncated response body");
+        return b;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int len = sb.length();
+                if (len > 0 && sb.charAt(len - 1) == '\r') sb.setLength(len - 1);
+                return sb.toString();
+            }
+            sb.append((char) c);
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    /** Null, after a warning, when the JVM has no Unix domain sockets or the path is unusable. */
+    private static SocketAddress unixAddress(String socketPath) {
+        try {
+            Method of = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+            return (SocketAddress) of.invoke(null, socketPath);
+        } catch (InvocationTargetException e) {
+            LOGGER.warn("tika.vlm.socket {} ignored, using HTTP: {}", socketPath, e.getCause().toString());
+        } catch (ReflectiveOperationException e) {
+            LOGGER.warn("tika.vlm.socket {} ignored: Unix domain sockets need Java 16 or later, using HTTP",
+                    socketPath);
+        }
+        return null;
+    }
+
+    private static SocketChannel openChannel() throws IOException {
+        try {
+            ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+            Method open = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+            return (SocketChannel) open.invoke(null, unix);
+        } catch (IllegalArgumentException | ReflectiveOperationException e) {
+            throw new IOException("Unix domain sockets need Java 16 or later", e);
+        }
+    }
+
+    private static final class Connection {
+        final SocketChannel channel;
+        final InputStream in;
+        final OutputStream out;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.in = new BufferedInputStream(Channels.newInputStream(channel), 16384);
+            this.out = Channels.newOutputStream(channel);
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private static final class Response implements HttpResponse<String> {
+        private final int status;
+        private final String body;
+        private final HttpHeaders headers;
+        private final HttpRequest request;
+        final boolean keepAlive;
+
+        Response(int status, String body, HttpHeaders headers, HttpRequest request, boolean keepAlive) {
+            this.status = status;
+            this.body = body;
+            this.headers = headers;
+            this.request = request;
+            this.keepAlive = keepAlive;
+        }
+
+        @Override public int statusCode() { return status; }
+        @Override public HttpRequest request() { return request; }
+        @Override public Optional<HttpResponse<String>> previousResponse() { return Optional.empty(); }
+        @Override public HttpHeaders headers() { return headers; }
+        @Override public String body() { return body; }
+        @Override public Optional<SSLSession> sslSession() { return Optional.empty(); }
+        @Override public URI uri() { return request.uri(); }
+        @Override public HttpClient.Version version() { return HttpClient.Version.HTTP_1_1; }
+    }
+}
@@ -0,0 +1,272 @@
+package org.apache.tika.parser.vision;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Describes a video as a timeline of scenes. ffmpeg decodes only the key
+ * frames, downscaled to PNGs in a temp directory, and logs their timestamps
+ * through showinfo. A key frame opens a new scene when its colour histogram
+ * differs from the last scene's by at least {@code sceneThreshold} and it is
+ * at least {@code minGapSeconds} later. Scene frames are analyzed in parallel.
+ *
+ * -Dtika.vlm.video=true (TIKA_VLM_VIDEO) enables it. Tuning:
+ * tika.vlm.video.ffmpeg (binary, default "ffmpeg"),
+ * tika.vlm.video.sceneThreshold (histogram distance 0..1, default 0.3),
+ * tika.vlm.video.minGapSeconds (default 2), tika.vlm.video.maxScenes (default 48;
+ * more are thinned evenly), tika.vlm.video.maxWidth (default 1280),
+ * tika.vlm.video.timeoutSeconds (ffmpeg run, default 600),
+ * tika.vlm.video.threads (default 4).
+ */
+final class VlmVideoAnalyzer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VlmVideoAnalyzer.class);
+
+    private static final Pattern SHOWINFO = Pattern.compile("Parsed_showinfo.*\\bn:\\s*(\\d+).*\\bpts_time:\\s*([-0-9.eE+]+)");
+    private static final int BINS = 16;
+    private static final int SAMPLE = 64;
+
+    private static volatile VlmVideoAnalyzer instance;
+
+    /** Analyzes one key frame; {@code note} tells the model where in the video it is. */
+    interface FrameCall {
+        String analyze(byte[] png, String note) throws Exception;
+    }
+
+    /** One scene of the timeline. */
+    static final class Scene {
+        final double seconds;
+        final String analysis;
+
+        Scene(double seconds, String analysis) {
+            this.seconds = seconds;
+            this.analysis = analysis;
+        }
+    }
+
+    private final String ffmpeg;
+    private final double sceneThreshold;
+    private final double minGapSeconds;
+    private final int maxScenes;
+    private final int maxWidth;
+    private final long timeoutSeconds;
+    private final ExecutorService exec;
+
+    private VlmVideoAnalyzer(String ffmpeg, double sceneThreshold, double minGapSeconds, int maxScenes,
+                             int maxWidth, long timeoutSeconds, int threads) {
+        this.ffmpeg = ffmpeg;
+        this.sceneThreshold = sceneThreshold;
+        this.minGapSeconds = minGapSeconds;
+        this.maxScenes = Math.max(1, maxScenes);
+        this.maxWidth = Math.max(64, maxWidth);
+        this.timeoutSeconds = timeoutSeconds;
+        this.exec = VlmExecutors.ownPool("vlm-video-", threads);
+    }
+
+    /** Shared analyzer, or null when video analysis is not enabled. */
+    static VlmVideoAnalyzer get() {
+        VlmVideoAnalyzer v = instance;
+        if (v != null) return v;
+        synchronized (VlmVideoAnalyzer.class) {
+            if (instance == null) {
+                if (!Boolean.parseBoolean(System.getProperty("tika.vlm.video",
+                        System.getenv().getOrDefault("TIKA_VLM_VIDEO", "false")))) {
+                    return null;
+                }
+                instance = new VlmVideoAnalyzer(
+                        System.getProperty("tika.vlm.video.ffmpeg",
+                                System.getenv().getOrDefault("TIKA_VLM_VIDEO_FFMPEG", "ffmpeg")),
+                        VlmSettings.doubleProperty("tika.vlm.video.sceneThreshold", "TIKA_VLM_VIDEO_SCENE_THRESHOLD", 0.3),
+                        VlmSettings.doubleProperty("tika.vlm.video.minGapSeconds", "TIKA_VLM_VIDEO_MIN_GAP_SECONDS", 2),
+                        VlmSettings.intProperty("tika.vlm.video.maxScenes", "TIKA_VLM_VIDEO_MAX_SCENES", 48),
+                        VlmSettings.intProperty("tika.vlm.video.maxWidth", "TIKA_VLM_VIDEO_MAX_WIDTH", 1280),
+                        VlmSettings.intProperty("tika.vlm.video.timeoutSeconds", "TIKA_VLM_VIDEO_TIMEOUT_SECONDS", 600),
+                        VlmSettings.intProperty("tika.vlm.video.threads", "TIKA_VLM_VIDEO_THREADS", 4));
+                LOGGER.info("VLM video analysis enabled (ffmpeg={}, scene threshold {})",
+                        instance.ffmpeg, instance.sceneThreshold);
+            }
+            return instance;
+        }
+    }
+
+    /** "hh:mm:ss" for a position in the video. */
+    static String timestamp(double seconds) {
+        long s = (long) Math.max(0, seconds);
+        return String.format(Locale.ROOT, "%02d:%02d:%02d", s / 3600, (s / 60) % 60, s % 60);
+    }
+
+    /**
+     * Scenes of {@code video} in order, each with its key frame's analysis.
+     * The number of key frames decoded is written to {@code stats[0]}.
+     */
+    List<Scene> analyze(Path video, FrameCall call, int[] stats) throws Exception {
+        Path dir = Files.createTempDirectory("tika-vlm-video");
+        List<Future<String>> results = new ArrayList<>();
+        try {
+            List<Double> times = extractKeyframes(video, dir);
+            stats[0] = times.size();
+            List<Integer> scenes = selectScenes(dir, times);
+            LOGGER.info("Video: {} key frames, analyzing {} scenes", times.size(), scenes.size());
+
+            for (int k = 0; k < scenes.size(); k++) {
+                Path frame = keyframe(dir, scenes.get(k));
+                String note = String.format(Locale.ROOT,
+                        "This is a key frame at %s of a video, the start of scene %d of %d. "
+                                + "Describe only what this frame shows.",
+                        timestamp(times.get(scenes.get(k))), k + 1, scenes.size());
+                results.add(exec.submit(() -> call.analyze(Files.readAllBytes(frame), note)));
+            }
+            List<Scene> timeline = new ArrayList<>(scenes.size());
+            for (int k = 0; k < scenes.size(); k++) {
+                String analysis = results.get(k).get();
+                timeline.add(new Scene(times.get(scenes.get(k)), analysis == null ? "" : analysis.trim()));
+            }
+            return timeline;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        } finally {
+            for (Future<String> f : results) {
+                f.cancel(true);
+            }
+            deleteRecursively(dir);
+        }
+    }
+
+    /** Runs ffmpeg over the key frames; returns their timestamps in frame order. */
+    private List<Double> extractKeyframes(Path video, Path dir) throws IOException, InterruptedException {
+        Path log = dir.resolve("ffmpeg.log");
+        List<String> cmd = Arrays.asList(ffmpeg, "-nostdin", "-hide_banner",
+                "-skip_frame", "nokey", "-i", video.toString(), "-an",
+                "-vf", "showinfo,scale='min(" + maxWidth + ",iw)':-2",
+                "-vsync", "vfr", "-f", "image2", dir.resolve("key-%06d.png").toString());
+        Process process;
+        try {
+            process = new ProcessBuilder(cmd)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(log.toFile())
+                    .start();
+        } catch (IOException e) {
+            throw new IOException("Cannot run ffmpeg (" + ffmpeg + "): " + e.getMessage(), e);
+        }
+        try {
+            if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+                throw new IOException("ffmpeg did not finish within " + timeoutSeconds + "s");
+            }
+        } finally {
+            process.destroyForcibly();
+        }
+        List<String> lines = Files.readAllLines(log, StandardCharsets.UTF_8);
+        if (process.exitValue() != 0) {
+            String tail = String.join("\n", lines.subList(Math.max(0, lines.size() - 5), lines.size()));
+            throw new IOException("ffmpeg failed with exit code " + process.exitValue() + ": " + tail);
+        }
+        Map<Integer, Double> byFrame = new TreeMap<>();
+        for (String line : lines) {
+            Matcher m = SHOWINFO.matcher(line);
+            if (m.find()) {
+                byFrame.put(Integer.parseInt(m.group(1)), Double.parseDouble(m.group(2)));
+            }
+        }
+        List<Double> times = new ArrayList<>(byFrame.values());
+        // Never report more frames than were written
+        while (!times.isEmpty() && !Files.exists(keyframe(dir, times.size() - 1))) {
+            times.remove(times.size() - 1);
+        }
+        return times;
+    }
+
+    /** Indices of the key frames that start a scene, thinned evenly to maxScenes. */
+    private List<Integer> selectScenes(Path dir, List<Double> times) throws IOException {
+        List<Integer> scenes = new ArrayList<>();
+        double[] last = null;
+        double lastTime = 0;
+        for (int i = 0; i < times.size(); i++) {
+            BufferedImage frame = ImageIO.read(keyframe(dir, i).toFile());
+            if (frame == null) continue;
+            double[] hist = histogram(frame);
+            if (last == null
+                    || (times.get(i) - lastTime >= minGapSeconds && distance(last, hist) >= sceneThreshold)) {
+                scenes.add(i);
+                last = hist;
+                lastTime = times.get(i);
+            }
+        }
+        if (scenes.size() <= maxScenes) {
+            return scenes;
+        }
+        List<Integer> thinned = new ArrayList<>(maxScenes);
+        for (int k = 0; k < maxScenes; k++) {
+            thinned.add(scenes.get((int) ((long) k * scenes.size() / maxScenes)));
+        }
+        return thinned;
+    }
+
+    private static Path keyframe(Path dir, int index) {
+        return dir.resolve(String.format(Locale.ROOT, "key-%06d.png", index + 1));
+    }
+
+    /** Normalized RGB histogram, BINS per channel, over a SAMPLExSAMPLE rendition. */
+    private static double[] histogram(BufferedImage frame) {
+        BufferedImage small = new BufferedImage(SAMPLE, SAMPLE, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = small.createGraphics();
+        g.drawImage(frame, 0, 0, SAMPLE, SAMPLE, null);
+        g.dispose();
+        double[] hist = new double[3 * BINS];
+        double unit = 1.0 / (SAMPLE * SAMPLE);
+        for (int y = 0; y < SAMPLE; y++) {
+            for (int x = 0; x < SAMPLE; x++) {
+                int rgb = small.getRGB(x, y);
+                hist[((rgb >> 16) & 0xff) * BINS / 256] += unit;
+                hist[BINS + ((rgb >> 8) & 0xff) * BINS / 256] += unit;
+                hist[2 * BINS + (rgb & 0xff) * BINS / 256] += unit;
+            }
+        }
+        return hist;
+    }
+
+    /** Mean over channels of half the L1 distance, 0 (same) .. 1 (disjoint). */
+    private static double distance(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += Math.abs(a[i] - b[i]);
+        }
+        return sum / 6;
+    }
+
+    private static void deleteRecursively(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.deleteIfExists(p);
+                } catch (IOException e) {
+                    // Best effort
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.debug("Cannot clean up {}: {}", dir, e.getMessage());
+        }
+    }
+}
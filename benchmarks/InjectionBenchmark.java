@@ -0,0 +1,163 @@
+// InjectionBenchmark.java
+package org.apache.tika.parallel;
+
+import org.apache.tika.metadata.Metadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Injection side: metadata copy and path normalisation done per embedded image,
+ * the result block in each output mode, and the per-element cost of the
+ * decorator's handler compared with the bare downstream handler on a large
+ * XHTML stream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InjectionBenchmark {
+
+    /** Number of paragraphs in the synthetic XHTML body. */
+    @Param({"10000"})
+    public int paragraphs;
+
+    /** One <img> every N paragraphs. */
+    @Param({"50"})
+    public int imageEvery;
+
+    /** Output mode of the injected block (metadata mode writes no events). */
+    @Param({"FULL", "XHTML", "TEXT", "COMPACT"})
+    public String output;
+
+    private Metadata embeddedMd;
+    private Metadata resultMd;
+    private char[] text;
+    private AttributesImpl noAttrs;
+    private AttributesImpl[] imgAttrs;
+    private ParallelEmbeddedDocumentExtractorFactory factory;
+    private VlmBlockWriter writer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        embeddedMd = new Metadata();
+        embeddedMd.set("resourceName", "image17.png");
+        embeddedMd.set("X-TIKA:embedded_resource_path", "/image17.png");
+        embeddedMd.set("X-TIKA:final_embedded_resource_path", "/document.docx/image17.png");
+        embeddedMd.set("embeddedResourceType", "INLINE");
+        embeddedMd.set(Metadata.CONTENT_TYPE, "image/png");
+        embeddedMd.set("Content-Length", "183422");
+        embeddedMd.set("tiff:ImageWidth", "1280");
+        embeddedMd.set("tiff:ImageLength", "720");
+        embeddedMd.set("embeddedRelationshipId", "rId17");
+        for (int i = 0; i < 20; i++) {
+            embeddedMd.set("custom:field" + i, "value-" + i);
+        }
+
+        resultMd = new Metadata();
+        resultMd.set("vlm:provider", "openai");
+        resultMd.set("vlm:model", "gpt-4o");
+        resultMd.set("vlm:analysis",
+                org.apache.tika.parser.vision.VlmResponseBenchmark.sampleAnalysis(1500));
+
+        text = ("Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod "
+                + "tempor incididunt ut labore et dolore magna aliqua.").toCharArray();
+        noAttrs = new AttributesImpl();
+        writer = new VlmBlockWriter(VlmBlockWriter.Mode.valueOf(output), null);
+        factory = new ParallelEmbeddedDocumentExtractorFactory();
+        int images = paragraphs / imageEvery + 1;
+        imgAttrs = new AttributesImpl[images];
+        for (int i = 0; i < images; i++) {
+            AttributesImpl a = new AttributesImpl();
+            // No future is scheduled for these, so only the lookup cost is measured
+            a.addAttribute("", "src", "src", "CDATA", "embedded:bench-image" + i + ".png");
+            a.addAttribute("", "alt", "alt", "CDATA", "bench-image" + i + ".png");
+            imgAttrs[i] = a;
+        }
+    }
+
+    @Benchmark
+    public Metadata copyMetadata() {
+        return ParallelEmbeddedDocumentExtractorFactory.copyMetadata(embeddedMd);
+    }
+
+    @Benchmark
+    public String normalizePath() {
+        return ParallelEmbeddedDocumentExtractorFactory.normalizePath(embeddedMd);
+    }
+
+    @Benchmark
+    public void writeBlock(Blackhole bh) throws SAXException {
+        writer.result(new SinkHandler(bh), "/image17.png", resultMd);
+    }
+
+    @Benchmark
+    public void xhtmlStreamBare(Blackhole bh) throws SAXException {
+        emit(new SinkHandler(bh));
+    }
+
+    @Benchmark
+    public void xhtmlStreamInjecting(Blackhole bh) throws SAXException {
+        emit(new ParallelizingParserDecorator.InjectingHandler(new SinkHandler(bh), factory));
+    }
+
+    private void emit(ContentHandler h) throws SAXException {
+        h.startDocument();
+        h.startElement("", "body", "body", noAttrs);
+        for (int i = 0; i < paragraphs; i++) {
+            h.startElement("", "p", "p", noAttrs);
+            h.characters(text, 0, text.length);
+            h.endElement("", "p", "p");
+            if (i % imageEvery == 0) {
+                h.startElement("", "img", "img", imgAttrs[i / imageEvery]);
+                h.endElement("", "img", "img");
+            }
+        }
+        h.endElement("", "body", "body");
+        h.endDocument();
+    }
+
+    /** Downstream handler that only feeds the Blackhole. */
+    static final class SinkHandler extends DefaultHandler {
+        private final Blackhole bh;
+
+        SinkHandler(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) {
+            bh.consume(localName);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            bh.consume(localName);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            bh.consume(ch);
+            bh.consume(length);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+// MockVlmServer.java
+package org.apache.tika.parser.vision;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Self-contained OpenAI / Anthropic compatible endpoint for offline load tests.
+ * Paths ending in {@code /messages} answer in the Anthropic shape, everything
+ * else in the OpenAI chat-completions shape.
+ *
+ * <p>Configured through system properties (all optional):
+ * <ul>
+ *   <li>{@code mock.port} – listen port, 0 for ephemeral (default 8089 standalone)</li>
+ *   <li>{@code mock.latency} – {@code none}, {@code fixed:MS}, {@code uniform:MIN:MAX}
+ *       or {@code lognormal:MEDIAN_MS:SIGMA} (default {@code lognormal:2000:0.5})</li>
+ *   <li>{@code mock.errorRate} – fraction answered with 500 (default 0)</li>
+ *   <li>{@code mock.rateLimitRate} – fraction answered with 429 + Retry-After (default 0)</li>
+ *   <li>{@code mock.responseChars} – length of the returned analysis (default 1500)</li>
+ * </ul>
+ *
+ * <pre>java -cp target/benchmarks.jar -Dmock.latency=fixed:500 org.apache.tika.parser.vision.MockVlmServer</pre>
+ */
+public class MockVlmServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Latency latency;
+    private final double errorRate;
+    private final double rateLimitRate;
+    private final byte[] openAIBody;
+    private final byte[] anthropicBody;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+
+    public MockVlmServer(int port, String latencySpec, double errorRate,
+                         double rateLimitRate, int responseChars) throws Exception {
+        this.latency = Latency.parse(latencySpec);
+        this.errorRate = errorRate;
+        this.rateLimitRate = rateLimitRate;
+        String analysis = VlmResponseBenchmark.sampleAnalysis(responseChars);
+        this.openAIBody = VlmResponseBenchmark.sampleResponse("openai", analysis)
+                .getBytes(StandardCharsets.UTF_8);
+        this.anthropicBody = VlmResponseBenchmark.sampleResponse("anthropic", analysis)
+                .getBytes(StandardCharsets.UTF_8);
+
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "mock-vlm-" + System.nanoTime());
+            t.setDaemon(true);
+            return t;
+        });
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(executor);
+    }
+
+    /** Builds a server from the {@code mock.*} system properties. */
+    public static MockVlmServer fromSystemProperties(int defaultPort) throws Exception {
+        return new MockVlmServer(
+                Integer.getInteger("mock.port", defaultPort),
+                System.getProperty("mock.latency", "lognormal:2000:0.5"),
+                Double.parseDouble(System.getProperty("mock.errorRate", "0")),
+                Double.parseDouble(System.getProperty("mock.rateLimitRate", "0")),
+                Integer.getInteger("mock.responseChars", 1500));
+    }
+
+    public MockVlmServer start() {
+        server.start();
+        return this;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /** Endpoint URL for the given provider shape. */
+    public String endpoint(String provider) {
+        String path = "anthropic".equalsIgnoreCase(provider) ? "/v1/messages" : "/v1/chat/completions";
+        return "http://127.0.0.1:" + getPort() + path;
+    }
+
+    public long getRequests() { return requests.get(); }
+    public long getServed() { return served.get(); }
+    public long getErrors() { return errors.get(); }
+    public long getThrottled() { return throttled.get(); }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try (InputStream in = exchange.getRequestBody()) {
+            in.readAllBytes();
+        }
+
+        double r = ThreadLocalRandom.current().nextDouble();
+        try {
+            if (r < rateLimitRate) {
+                throttled.incrementAndGet();
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                respond(exchange, 429, "{\"error\":{\"type\":\"rate_limit_error\",\"message\":\"mock throttled\"}}"
+                        .getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            sleep(latency.sampleMillis(ThreadLocalRandom.current()));
+
+            if (r < rateLimitRate + errorRate) {
+                errors.incrementAndGet();
+                respond(exchange, 500, "{\"error\":{\"type\":\"api_error\",\"message\":\"mock failure\"}}"
+                        .getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            boolean anthropic = exchange.getRequestURI().getPath().endsWith("/messages");
+            served.incrementAndGet();
+            respond(exchange, 200, anthropic ? anthropicBody : openAIBody);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public static void main(String[] args) throws Exception {
+        MockVlmServer mock = fromSystemProperties(8089).start();
+        System.out.println("Mock VLM listening on " + mock.endpoint("openai")
+                + " and " + mock.endpoint("anthropic"));
+        Thread.currentThread().join();
+    }
+
+    // ===== latency models =====
+
+    interface Latency {
+        long sampleMillis(Random rnd);
+
+        static Latency parse(String spec) {
+            String[] p = spec.trim().split(":");
+            switch (p[0].toLowerCase()) {
+                case "none":
+                    return rnd -> 0L;
+                case "fixed": {
+                    long ms = Long.parseLong(p[1]);
+                    return rnd -> ms;
+                }
+                case "uniform": {
+                    long min = Long.parseLong(p[1]);
+                    long max = Long.parseLong(p[2]);
+                    return rnd -> min + (long) (rnd.nextDouble() * (max - min));
+                }
+                case "lognormal": {
+                    // median * e^(sigma * N(0,1)); sigma 0.5 puts p99 at ~3.2x the median
+                    double median = Double.parseDouble(p[1]);
+                    double sigma = Double.parseDouble(p[2]);
+                    return rnd -> (long) (median * Math.exp(sigma * rnd.nextGaussian()));
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown latency spec: " + spec);
+            }
+        }
+    }
+}
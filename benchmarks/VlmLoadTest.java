@@ -0,0 +1,335 @@
+// VlmLoadTest.java
+package org.apache.tika.parallel;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.poi.sl.usermodel.PictureData;
+import org.apache.poi.util.Units;
+import org.apache.poi.xslf.usermodel.XMLSlideShow;
+import org.apache.poi.xslf.usermodel.XSLFPictureData;
+import org.apache.poi.xslf.usermodel.XSLFPictureShape;
+import org.apache.poi.xslf.usermodel.XSLFSlide;
+import org.apache.poi.xwpf.usermodel.Document;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.DefaultParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.parser.pdf.PDFParserConfig;
+import org.apache.tika.parser.vision.MockVlmServer;
+import org.apache.tika.parser.vision.VisionLanguageModelParser;
+import org.apache.tika.sax.ToXMLContentHandler;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end load driver: pushes synthetic PDF/DOCX/PPTX documents with N
+ * embedded images through {@link ParallelizingParserDecorator} at a fixed
+ * document concurrency and reports documents/s, images/s, document latency
+ * percentiles and peak heap.
+ *
+ * <p>Starts an in-process {@link MockVlmServer} (configured by {@code mock.*})
+ * unless {@code loadtest.endpoint} points somewhere else. Driver settings:
+ * <ul>
+ *   <li>{@code loadtest.docs} – measured documents (default 200)</li>
+ *   <li>{@code loadtest.warmup} – unmeasured documents first (default = concurrency)</li>
+ *   <li>{@code loadtest.concurrency} – documents parsed at once (default 4)</li>
+ *   <li>{@code loadtest.images} – images per document (default 10)</li>
+ *   <li>{@code loadtest.formats} – comma list of pdf, docx, pptx (default all)</li>
+ *   <li>{@code loadtest.distinctDocs} – distinct generated documents cycled through (default 12)</li>
+ *   <li>{@code loadtest.imageWidth} / {@code loadtest.imageHeight} – pixels (default 800x600)</li>
+ *   <li>{@code loadtest.provider} – openai or anthropic wire format (default openai)</li>
+ * </ul>
+ * The image worker pool is sized as in production, via {@code tika.vlm.threads}.
+ *
+ * <pre>java -Dtika.vlm.threads=16 -Dloadtest.concurrency=8 -Dmock.latency=lognormal:3000:0.6 \
+ *     -cp target/benchmarks.jar org.apache.tika.parallel.VlmLoadTest</pre>
+ */
+public class VlmLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int docs = Integer.getInteger("loadtest.docs", 200);
+        int concurrency = Integer.getInteger("loadtest.concurrency", 4);
+        int warmup = Integer.getInteger("loadtest.warmup", concurrency);
+        int images = Integer.getInteger("loadtest.images", 10);
+        int distinct = Integer.getInteger("loadtest.distinctDocs", 12);
+        int width = Integer.getInteger("loadtest.imageWidth", 800);
+        int height = Integer.getInteger("loadtest.imageHeight", 600);
+        String provider = System.getProperty("loadtest.provider", "openai");
+        String[] formats = System.getProperty("loadtest.formats", "pdf,docx,pptx").split(",");
+
+        MockVlmServer mock = null;
+        String endpoint = System.getProperty("loadtest.endpoint");
+        if (endpoint == null) {
+            mock = MockVlmServer.fromSystemProperties(0).start();
+            endpoint = mock.endpoint(provider);
+        }
+        // Must be in place before the first VisionLanguageModelParser is built
+        System.setProperty("tika.vlm.provider", provider);
+        System.setProperty("tika.vlm.endpoint", endpoint);
+        if (System.getProperty("tika.vlm.apikey") == null) {
+            System.setProperty("tika.vlm.apikey", "mock-key");
+        }
+
+        System.out.printf("Generating %d distinct documents (%s, %d images of %dx%d each)...%n",
+                distinct, String.join("/", formats), images, width, height);
+        List<SyntheticDoc> corpus = new ArrayList<>();
+        for (int i = 0; i < distinct; i++) {
+            String format = formats[i % formats.length].trim().toLowerCase();
+            corpus.add(SyntheticDoc.generate(format, i, images, width, height));
+        }
+
+        // VLM parser listed last so it wins the image types over DefaultParser
+        AutoDetectParser autoDetect = new AutoDetectParser(
+                new DefaultParser(), new VisionLanguageModelParser());
+
+        System.out.printf("Endpoint %s, concurrency %d, warm-up %d, measured %d%n",
+                endpoint, concurrency, warmup, docs);
+
+        HeapSampler heap = new HeapSampler();
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        try {
+            run(pool, autoDetect, corpus, warmup, null);
+            heap.start();
+            long[] latencies = new long[docs];
+            AtomicInteger failures = new AtomicInteger();
+            long start = System.nanoTime();
+            run(pool, autoDetect, corpus, docs, new Recorder(latencies, failures));
+            double seconds = (System.nanoTime() - start) / 1e9;
+            heap.stop();
+
+            Arrays.sort(latencies);
+            System.out.println();
+            System.out.printf("documents        %d (%d failed)%n", docs, failures.get());
+            System.out.printf("wall time        %.2f s%n", seconds);
+            System.out.printf("documents/s      %.2f%n", docs / seconds);
+            System.out.printf("images/s         %.2f%n", (double) docs * images / seconds);
+            System.out.printf("doc latency p50  %d ms%n", percentile(latencies, 50));
+            System.out.printf("doc latency p95  %d ms%n", percentile(latencies, 95));
+            System.out.printf("doc latency p99  %d ms%n", percentile(latencies, 99));
+            System.out.printf("doc latency max  %d ms%n", latencies[latencies.length - 1]);
+            System.out.printf("peak heap        %d MB%n", heap.peakBytes() / (1024 * 1024));
+            if (mock != null) {
+                System.out.printf("mock requests    %d (served=%d, 5xx=%d, 429=%d)%n",
+                        mock.getRequests(), mock.getServed(), mock.getErrors(), mock.getThrottled());
+            }
+        } finally {
+            pool.shutdownNow();
+            if (mock != null) {
+                mock.close();
+            }
+        }
+    }
+
+    private static void run(ExecutorService pool, Parser autoDetect, List<SyntheticDoc> corpus,
+                            int count, Recorder recorder) throws Exception {
+        List<Future<?>> pending = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int idx = i;
+            final SyntheticDoc doc = corpus.get(i % corpus.size());
+            pending.add(pool.submit(() -> {
+                long t0 = System.nanoTime();
+                boolean ok = parse(autoDetect, doc);
+                if (recorder != null) {
+                    recorder.latencies[idx] = (System.nanoTime() - t0) / 1_000_000L;
+                    if (!ok) recorder.failures.incrementAndGet();
+                }
+            }));
+        }
+        for (Future<?> f : pending) {
+            f.get();
+        }
+    }
+
+    private static boolean parse(Parser autoDetect, SyntheticDoc doc) {
+        ParseContext context = new ParseContext();
+        context.set(Parser.class, autoDetect);
+        PDFParserConfig pdfConfig = new PDFParserConfig();
+        pdfConfig.setExtractInlineImages(true);
+        pdfConfig.setExtractUniqueInlineImagesOnly(true);
+        context.set(PDFParserConfig.class, pdfConfig);
+
+        Metadata metadata = new Metadata();
+        metadata.set("resourceName", doc.name);
+        try (ByteArrayInputStream in = new ByteArrayInputStream(doc.bytes)) {
+            new ParallelizingParserDecorator(autoDetect)
+                    .parse(in, new ToXMLContentHandler(), metadata, context);
+            return true;
+        } catch (Exception e) {
+            System.err.println("parse failed for " + doc.name + ": " + e);
+            return false;
+        }
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        if (sorted.length == 0) return 0;
+        int idx = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(idx, sorted.length - 1))];
+    }
+
+    private static final class Recorder {
+        final long[] latencies;
+        final AtomicInteger failures;
+
+        Recorder(long[] latencies, AtomicInteger failures) {
+            this.latencies = latencies;
+            this.failures = failures;
+        }
+    }
+
+    /** Polls used heap; cheaper and more honest than summing per-pool peaks. */
+    private static final class HeapSampler {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final AtomicLong peak = new AtomicLong();
+        private volatile boolean running;
+        private Thread thread;
+
+        void start() {
+            running = true;
+            thread = new Thread(() -> {
+                while (running) {
+                    peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "loadtest-heap-sampler");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            thread.join();
+        }
+
+        long peakBytes() {
+            return peak.get();
+        }
+    }
+
+    // ===== synthetic documents =====
+
+    static final class SyntheticDoc {
+        final String name;
+        final byte[] bytes;
+
+        private SyntheticDoc(String name, byte[] bytes) {
+            this.name = name;
+            this.bytes = bytes;
+        }
+
+        static SyntheticDoc generate(String format, int seed, int images, int width, int height)
+                throws IOException {
+            List<byte[]> pngs = new ArrayList<>(images);
+            for (int i = 0; i < images; i++) {
+                // Distinct pixels per image: PDF and OOXML both dedupe identical pictures
+                pngs.add(png(new Random(seed * 10_007L + i), width, height));
+            }
+            switch (format) {
+                case "pdf":
+                    return new SyntheticDoc("loadtest-" + seed + ".pdf", pdf(pngs));
+                case "docx":
+                    return new SyntheticDoc("loadtest-" + seed + ".docx", docx(pngs, width, height));
+                case "pptx":
+                    return new SyntheticDoc("loadtest-" + seed + ".pptx", pptx(pngs));
+                default:
+                    throw new IllegalArgumentException("Unsupported format: " + format);
+            }
+        }
+
+        private static byte[] png(Random rnd, int width, int height) throws IOException {
+            BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = img.createGraphics();
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            for (int i = 0; i < 40; i++) {
+                g.setColor(new Color(rnd.nextInt(0xFFFFFF)));
+                g.fillRect(rnd.nextInt(width), rnd.nextInt(height),
+                        1 + rnd.nextInt(width / 4), 1 + rnd.nextInt(height / 4));
+            }
+            g.setColor(Color.BLACK);
+            g.drawString("synthetic chart " + rnd.nextInt(1_000_000), 20, 30);
+            g.dispose();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(img, "png", out);
+            return out.toByteArray();
+        }
+
+        private static byte[] pdf(List<byte[]> pngs) throws IOException {
+            try (PDDocument doc = new PDDocument()) {
+                for (int i = 0; i < pngs.size(); i++) {
+                    PDPage page = new PDPage();
+                    doc.addPage(page);
+                    BufferedImage img = ImageIO.read(new ByteArrayInputStream(pngs.get(i)));
+                    PDImageXObject xobj = LosslessFactory.createFromImage(doc, img);
+                    try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                        cs.drawImage(xobj, 50, 200, 500, 375);
+                    }
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                doc.save(out);
+                return out.toByteArray();
+            }
+        }
+
+        private static byte[] docx(List<byte[]> pngs, int width, int height) throws IOException {
+            try (XWPFDocument doc = new XWPFDocument()) {
+                for (int i = 0; i < pngs.size(); i++) {
+                    XWPFParagraph p = doc.createParagraph();
+                    XWPFRun run = p.createRun();
+                    run.setText("Figure " + (i + 1) + " of the synthetic load-test report.");
+                    run.addBreak();
+                    try (ByteArrayInputStream in = new ByteArrayInputStream(pngs.get(i))) {
+                        run.addPicture(in, Document.PICTURE_TYPE_PNG, "image" + (i + 1) + ".png",
+                                Units.pixelToEMU(width / 2), Units.pixelToEMU(height / 2));
+                    } catch (org.apache.poi.openxml4j.exceptions.InvalidFormatException e) {
+                        throw new IOException(e);
+                    }
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                doc.write(out);
+                return out.toByteArray();
+            }
+        }
+
+        private static byte[] pptx(List<byte[]> pngs) throws IOException {
+            try (XMLSlideShow show = new XMLSlideShow()) {
+                for (byte[] png : pngs) {
+                    XSLFSlide slide = show.createSlide();
+                    XSLFPictureData data = show.addPicture(png, PictureData.PictureType.PNG);
+                    XSLFPictureShape shape = slide.createPicture(data);
+                    shape.setAnchor(new java.awt.Rectangle(50, 50, 400, 300));
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                show.write(out);
+                return out.toByteArray();
+            }
+        }
+    }
+}
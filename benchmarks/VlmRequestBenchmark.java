@@ -0,0 +1,63 @@
+// VlmRequestBenchmark.java
+package org.apache.tika.parser.vision;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request-side hot path: Base64 encoding of the image bytes and building the
+ * OpenAI / Anthropic JSON bodies. Run with {@code -prof gc} to see allocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VlmRequestBenchmark {
+
+    /** Typical icon, photo and scanned-page sizes. */
+    @Param({"16384", "262144", "2097152"})
+    public int imageBytes;
+
+    private VisionLanguageModelParser parser;
+    private byte[] image;
+    private String base64Image;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        parser = new VisionLanguageModelParser();
+        image = new byte[imageBytes];
+        new Random(42).nextBytes(image);
+        base64Image = Base64.getEncoder().encodeToString(image);
+    }
+
+    @Benchmark
+    public String base64Encode() {
+        return Base64.getEncoder().encodeToString(image);
+    }
+
+    @Benchmark
+    public String buildOpenAIRequest() throws Exception {
+        return parser.buildOpenAIRequest(base64Image, "image/png");
+    }
+
+    @Benchmark
+    public String buildAnthropicRequest() throws Exception {
+        return parser.buildAnthropicRequest(base64Image, "image/png");
+    }
+}
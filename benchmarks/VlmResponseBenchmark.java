@@ -0,0 +1,120 @@
+// VlmResponseBenchmark.java
+package org.apache.tika.parser.vision;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Response-side hot path: {@code parseAPIResponse} on provider-shaped bodies
+ * (ids, usage block, finish reason) with short and long analyses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VlmResponseBenchmark {
+
+    @Param({"openai", "anthropic"})
+    public String provider;
+
+    /** Roughly a caption vs. a full structured description. */
+    @Param({"500", "4000"})
+    public int analysisChars;
+
+    private VisionLanguageModelParser parser;
+    private String responseBody;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String previous = System.getProperty("tika.vlm.provider");
+        System.setProperty("tika.vlm.provider", provider);
+        try {
+            parser = new VisionLanguageModelParser();
+        } finally {
+            if (previous == null) {
+                System.clearProperty("tika.vlm.provider");
+            } else {
+                System.setProperty("tika.vlm.provider", previous);
+            }
+        }
+        responseBody = sampleResponse(provider, sampleAnalysis(analysisChars));
+    }
+
+    @Benchmark
+    public String parseAPIResponse() throws Exception {
+        return parser.parseAPIResponse(responseBody);
+    }
+
+    // ===== sample data =====
+
+    public static String sampleAnalysis(int chars) {
+        String[] lines = {
+            "1) Main subjects: a bar chart comparing quarterly revenue across four regions.",
+            "2) Text content: title \"Revenue by Region\", axis labels Q1-Q4, legend EMEA/APAC/NA/LATAM.",
+            "3) Scene/setting: slide from a corporate presentation on a white background.",
+            "4) Colors and composition: blue, orange, grey and green bars, legend top right.",
+            "- Notable: NA leads every quarter; APAC grows fastest between Q2 and Q3.",
+        };
+        StringBuilder sb = new StringBuilder(chars + 128);
+        int i = 0;
+        while (sb.length() < chars) {
+            sb.append(lines[i++ % lines.length]).append('\n');
+        }
+        sb.setLength(chars);
+        return sb.toString();
+    }
+
+    static String sampleResponse(String provider, String analysis) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode root = mapper.createObjectNode();
+        if ("anthropic".equalsIgnoreCase(provider)) {
+            root.put("id", "msg_01XFDUDYJgAACzvnptvVoYEL");
+            root.put("type", "message");
+            root.put("role", "assistant");
+            root.put("model", "claude-3-5-sonnet-20241022");
+            ObjectNode text = root.putArray("content").addObject();
+            text.put("type", "text");
+            text.put("text", analysis);
+            root.put("stop_reason", "end_turn");
+            root.putNull("stop_sequence");
+            ObjectNode usage = root.putObject("usage");
+            usage.put("input_tokens", 1602);
+            usage.put("output_tokens", analysis.length() / 4);
+        } else {
+            root.put("id", "chatcmpl-9dQ2oNnJ7mKzX4yV1bR8sT3uW6aE");
+            root.put("object", "chat.completion");
+            root.put("created", 1718900000L);
+            root.put("model", "gpt-4o-2024-08-06");
+            ObjectNode choice = root.putArray("choices").addObject();
+            choice.put("index", 0);
+            ObjectNode message = choice.putObject("message");
+            message.put("role", "assistant");
+            message.put("content", analysis);
+            choice.putNull("logprobs");
+            choice.put("finish_reason", "stop");
+            ObjectNode usage = root.putObject("usage");
+            usage.put("prompt_tokens", 1602);
+            usage.put("completion_tokens", analysis.length() / 4);
+            usage.put("total_tokens", 1602 + analysis.length() / 4);
+            root.put("system_fingerprint", "fp_3aa7262c27");
+        }
+        return mapper.writeValueAsString(root);
+    }
+}
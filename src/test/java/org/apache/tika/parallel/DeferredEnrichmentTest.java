@@ -0,0 +1,146 @@
+package org.apache.tika.parallel;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.tika.metadata.Metadata;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeferredEnrichmentTest {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+    private final BlockingQueue<JsonNode> callbacks = new LinkedBlockingQueue<>();
+    private DeferredEnrichment deferred;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/done", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                callbacks.add(JSON.readTree(in));
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+        deferred = new DeferredEnrichment(dir.resolve("results"),
+                URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/done"), TimeUnit.HOURS.toMillis(1));
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    void dotOnlyDocumentIdsAreReplaced() throws IOException {
+        assertEquals("doc-7.v2", DeferredEnrichment.documentId(withId("doc-7.v2")));
+        for (String unsafe : new String[]{".", "..", ".hidden", "-x", "a/b", ""}) {
+            String id = DeferredEnrichment.documentId(withId(unsafe));
+            assertNotEquals(unsafe, id);
+            assertTrue(Character.isLetterOrDigit(id.charAt(0)), id);
+        }
+        Files.createDirectories(dir.resolve("results"));
+        assertNull(deferred.document(".."));
+        assertNull(deferred.image("..", "passwd"));
+    }
+
+    @Test
+    void imageIdsAreSafeAndDistinct() {
+        String spaced = DeferredEnrichment.imageId("/a b.png");
+        String underscored = DeferredEnrichment.imageId("/a_b.png");
+
+        assertTrue(spaced.startsWith("a_b.png-"), spaced);
+        assertNotEquals(spaced, underscored);
+        assertEquals(spaced, DeferredEnrichment.imageId("/a b.png"));
+        for (String path : new String[]{"/", "/..", "/../../etc/passwd", "/.x", "/" + "n".repeat(300)}) {
+            String id = DeferredEnrichment.imageId(path);
+            assertTrue(id.matches("[A-Za-z0-9][A-Za-z0-9._-]{0,127}"), id);
+        }
+    }
+
+    @Test
+    void documentFinishesOnLastResultAfterSeal() throws Exception {
+        deferred.pending("doc1", "/image1.png");
+        deferred.pending("doc1", "/image2.png");
+        deferred.seal("doc1");
+        deferred.complete("doc1", "/image1.png", analysis("a cat"), null);
+
+        assertNull(callbacks.poll(300, TimeUnit.MILLISECONDS));
+
+        deferred.complete("doc1", "/image2.png", null, new IOException("boom"));
+
+        JsonNode doc = callbacks.poll(5, TimeUnit.SECONDS);
+        assertNotNull(doc);
+        assertEquals("doc1", doc.get("documentId").asText());
+        assertEquals(2, doc.get("images").size());
+        for (JsonNode image : doc.get("images")) {
+            String expected = "/image1.png".equals(image.get("path").asText()) ? "done" : "error";
+            assertEquals(expected, image.get("status").asText());
+        }
+        assertNull(callbacks.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void documentFinishesOnSealAfterLastResult() throws Exception {
+        deferred.pending("doc2", "/image1.png");
+        deferred.complete("doc2", "/image1.png", analysis("a dog"), null);
+
+        assertNull(callbacks.poll(300, TimeUnit.MILLISECONDS));
+
+        deferred.seal("doc2");
+
+        JsonNode doc = callbacks.poll(5, TimeUnit.SECONDS);
+        assertNotNull(doc);
+        assertEquals("a dog", doc.get("images").get(0).get("analysis").asText());
+        assertEquals("done", deferred.image("doc2", DeferredEnrichment.imageId("/image1.png")).get("status").asText());
+        assertNull(callbacks.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void documentWithoutImagesFinishesOnSeal() throws Exception {
+        deferred.seal("doc3");
+
+        JsonNode doc = callbacks.poll(5, TimeUnit.SECONDS);
+        assertNotNull(doc);
+        assertEquals("doc3", doc.get("documentId").asText());
+        assertEquals(0, doc.get("images").size());
+    }
+
+    private static Metadata withId(String id) {
+        Metadata md = new Metadata();
+        md.set(DeferredEnrichment.DOCUMENT_ID, id);
+        return md;
+    }
+
+    private static Metadata analysis(String text) {
+        Metadata md = new Metadata();
+        md.set("vlm:analysis", text);
+        return md;
+    }
+}
@@ -0,0 +1,63 @@
+package org.apache.tika.parallel;
+
+import org.apache.tika.metadata.Metadata;
+import org.junit.jupiter.api.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DistributedWorkQueueTest {
+
+    @Test
+    void taskRoundTrips() throws IOException {
+        Metadata md = new Metadata();
+        md.set("resourceName", "image7.png");
+        md.add("vlm:note", "first");
+        md.add("vlm:note", "zweite – ü");
+        byte[] data = new byte[70_000];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+
+        DistributedWorkQueue.Message task = DistributedWorkQueue.decodeTask(
+                DistributedWorkQueue.encodeTask("id-1", "node-a", md, data));
+
+        assertEquals("id-1", task.id);
+        assertEquals("node-a", task.replyTo);
+        assertEquals("image7.png", task.metadata.get("resourceName"));
+        assertArrayEquals(new String[]{"first", "zweite – ü"}, task.metadata.getValues("vlm:note"));
+        assertArrayEquals(data, task.data);
+    }
+
+    @Test
+    void resultRoundTripsValuesOverWriteUtfLimit() throws IOException {
+        // writeUTF stops at 64K; long analyses must still fit
+        String analysis = "A detailed description. ".repeat(5000);
+        Metadata md = new Metadata();
+        md.set("vlm:analysis", analysis);
+        md.set("vlm:worker", "node-b");
+
+        DistributedWorkQueue.Message result = DistributedWorkQueue.decodeResult(
+                DistributedWorkQueue.encodeResult("id-2", md));
+
+        assertEquals("id-2", result.id);
+        assertNull(result.replyTo);
+        assertNull(result.data);
+        assertEquals(analysis, result.metadata.get("vlm:analysis"));
+        assertEquals("node-b", result.metadata.get("vlm:worker"));
+    }
+
+    @Test
+    void foreignOrTruncatedMessagesAreRejected() throws IOException {
+        byte[] task = DistributedWorkQueue.encodeTask("id-3", "node-a", new Metadata(), new byte[]{1, 2, 3});
+        byte[] result = DistributedWorkQueue.encodeResult("id-3", new Metadata());
+
+        assertThrows(IOException.class, () -> DistributedWorkQueue.decodeResult(task));
+        assertThrows(IOException.class, () -> DistributedWorkQueue.decodeTask(result));
+        assertThrows(EOFException.class, () -> DistributedWorkQueue.decodeTask(Arrays.copyOf(task, task.length - 1)));
+    }
+}
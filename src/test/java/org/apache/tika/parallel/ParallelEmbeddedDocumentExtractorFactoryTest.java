@@ -0,0 +1,179 @@
+package org.apache.tika.parallel;
+
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.ContentHandler;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelEmbeddedDocumentExtractorFactoryTest {
+
+    private final BlockingParser parser = new BlockingParser();
+
+    @AfterEach
+    void release() {
+        parser.release.countDown();
+    }
+
+    @Test
+    void identicalImagesShareOneAnalysis() throws Exception {
+        byte[] data = image();
+        CompletableFuture<Metadata> a = schedule(data, "a.png", "image/png");
+        CompletableFuture<Metadata> b = schedule(data, "b.png", "image/png");
+        parser.release.countDown();
+
+        Metadata first = a.get(5, TimeUnit.SECONDS);
+        Metadata second = b.get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, parser.calls.get());
+        assertEquals("analysis of a.png", first.get("vlm:analysis"));
+        assertNull(first.get("vlm:coalesced"));
+        assertEquals("analysis of a.png", second.get("vlm:analysis"));
+        assertEquals("b.png", second.get("resourceName"));
+        assertEquals("true", second.get("vlm:coalesced"));
+    }
+
+    @Test
+    void otherBytesOrTypesAreNotShared() throws Exception {
+        byte[] data = image();
+        CompletableFuture<Metadata> a = schedule(data, "a.png", "image/png");
+        CompletableFuture<Metadata> b = schedule(image(), "b.png", "image/png");
+        CompletableFuture<Metadata> c = schedule(data, "c.gif", "image/gif");
+        parser.release.countDown();
+
+        assertEquals("analysis of a.png", a.get(5, TimeUnit.SECONDS).get("vlm:analysis"));
+        assertEquals("analysis of b.png", b.get(5, TimeUnit.SECONDS).get("vlm:analysis"));
+        assertEquals("analysis of c.gif", c.get(5, TimeUnit.SECONDS).get("vlm:analysis"));
+        assertEquals(3, parser.calls.get());
+    }
+
+    @Test
+    void finishedAnalysesAreNotShared() throws Exception {
+        byte[] data = image();
+        parser.release.countDown();
+
+        schedule(data, "a.png", "image/png").get(5, TimeUnit.SECONDS);
+        Metadata again = schedule(data, "b.png", "image/png").get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, parser.calls.get());
+        assertEquals("analysis of b.png", again.get("vlm:analysis"));
+    }
+
+    @Test
+    void withdrawingSomeSubscribersKeepsTheAnalysis() throws Exception {
+        byte[] data = image();
+        long cancelled = ParallelEmbeddedDocumentExtractorFactory.cancelledRunning();
+        CompletableFuture<Metadata> a = schedule(data, "a.png", "image/png");
+        CompletableFuture<Metadata> b = schedule(data, "b.png", "image/png");
+        CompletableFuture<Metadata> c = schedule(data, "c.png", "image/png");
+        assertTrue(parser.started.await(5, TimeUnit.SECONDS));
+
+        assertTrue(a.cancel(true));
+        assertTrue(b.cancel(true));
+        parser.release.countDown();
+
+        assertEquals("c.png", c.get(5, TimeUnit.SECONDS).get("resourceName"));
+        assertEquals("analysis of a.png", c.get().get("vlm:analysis"));
+        assertEquals(1, parser.interrupted.getCount());
+        assertEquals(cancelled, ParallelEmbeddedDocumentExtractorFactory.cancelledRunning());
+    }
+
+    @Test
+    void lastWithdrawalCancelsTheRunningAnalysis() throws Exception {
+        byte[] data = image();
+        long cancelled = ParallelEmbeddedDocumentExtractorFactory.cancelledRunning();
+        CompletableFuture<Metadata> a = schedule(data, "a.png", "image/png");
+        CompletableFuture<Metadata> b = schedule(data, "b.png", "image/png");
+        assertTrue(parser.started.await(5, TimeUnit.SECONDS));
+
+        a.cancel(true);
+        b.cancel(true);
+
+        assertTrue(parser.interrupted.await(5, TimeUnit.SECONDS));
+        assertEquals(cancelled + 1, ParallelEmbeddedDocumentExtractorFactory.cancelledRunning());
+        // Nothing in flight any more: the same bytes start a new analysis
+        parser.release.countDown();
+        assertEquals("analysis of c.png", schedule(data, "c.png", "image/png")
+                .get(5, TimeUnit.SECONDS).get("vlm:analysis"));
+        assertEquals(2, parser.calls.get());
+    }
+
+    @Test
+    void cancelledLeaderTakesNoNewSubscribers() throws Exception {
+        ParallelEmbeddedDocumentExtractorFactory.SharedTask task =
+                new ParallelEmbeddedDocumentExtractorFactory.SharedTask(null);
+        CompletableFuture<Metadata> leader = task.start(() -> {
+            try {
+                parser.release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new Metadata();
+        });
+        CompletableFuture<Metadata> follower = task.join(Function.identity());
+
+        follower.cancel(true);
+        assertFalse(leader.isDone());
+        leader.cancel(true);
+
+        assertNull(task.join(Function.identity()));
+    }
+
+    private CompletableFuture<Metadata> schedule(byte[] data, String name, String type) {
+        Metadata md = new Metadata();
+        md.set("resourceName", name);
+        md.set(Metadata.CONTENT_TYPE, type);
+        return ParallelEmbeddedDocumentExtractorFactory.schedule(data, md, parser, new ParseContext());
+    }
+
+    /** Unique bytes, so tests never coalesce with each other. */
+    private static byte[] image() {
+        return UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Counts analyses and holds each one until released. */
+    private static final class BlockingParser implements Parser {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        @Override
+        public Set<MediaType> getSupportedTypes(ParseContext context) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public void parse(InputStream stream, ContentHandler handler, Metadata metadata, ParseContext context)
+                throws TikaException {
+            calls.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new TikaException("interrupted", e);
+            }
+            metadata.set("vlm:analysis", "analysis of " + metadata.get("resourceName"));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.apache.tika.parser.vision;
+
+import org.apache.tika.metadata.Metadata;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VlmAnalysisCacheTest {
+
+    @Test
+    void shortResultRoundTripsUncompressed() {
+        Map<String, List<String>> fields = new LinkedHashMap<>();
+        fields.put("vlm:analysis", Collections.singletonList("A red bicycle against a wall."));
+        fields.put("vlm:model", Collections.singletonList("gpt-4o-mini"));
+        fields.put("vlm:objects", Arrays.asList("bicycle", "wall"));
+
+        byte[] value = VlmAnalysisCache.encode(VlmAnalysisCache.KIND_RESULT, fields, null);
+
+        assertEquals(VlmAnalysisCache.VERSION, value[0]);
+        assertEquals(0, value[1] & VlmAnalysisCache.FLAG_DEFLATED);
+        VlmAnalysisCache.Hit hit = VlmAnalysisCache.decode(value, "remote");
+        assertNotNull(hit);
+        assertNull(hit.failure);
+        assertEquals("remote", hit.level);
+        assertEquals(fields, hit.fields);
+    }
+
+    @Test
+    void longResultIsDeflatedAndRoundTrips() {
+        String analysis = "The chart shows quarterly revenue by region. ".repeat(200);
+        Map<String, List<String>> fields = Collections.singletonMap("vlm:analysis",
+                Collections.singletonList(analysis));
+
+        byte[] value = VlmAnalysisCache.encode(VlmAnalysisCache.KIND_RESULT, fields, null);
+
+        assertNotEquals(0, value[1] & VlmAnalysisCache.FLAG_DEFLATED);
+        assertTrue(value.length < analysis.length() / 4);
+        assertEquals(fields, VlmAnalysisCache.decode(value, "near").fields);
+    }
+
+    @Test
+    void varintLengthsSurviveEveryWidth() {
+        // 1-, 2- and 3-byte lengths; non-ASCII so bytes and chars differ
+        for (int n : new int[]{0, 1, 127, 128, 300, 16383, 16384, 70000}) {
+            String s = "é".repeat(n);
+            Map<String, List<String>> fields = Collections.singletonMap("vlm:text",
+                    Collections.singletonList(s));
+            byte[] value = VlmAnalysisCache.encode(VlmAnalysisCache.KIND_RESULT, fields, null);
+            assertEquals(s, VlmAnalysisCache.decode(value, "near").fields.get("vlm:text").get(0), "length " + n);
+        }
+    }
+
+    @Test
+    void failureRoundTrips() {
+        byte[] value = VlmAnalysisCache.encode(VlmAnalysisCache.KIND_FAILURE, Collections.emptyMap(),
+                "VLM API returned status 400: image too small");
+
+        VlmAnalysisCache.Hit hit = VlmAnalysisCache.decode(value, "remote");
+
+        assertEquals("VLM API returned status 400: image too small", hit.failure);
+        assertTrue(hit.fields.isEmpty());
+    }
+
+    @Test
+    void otherVersionsAndDamagedValuesAreMisses() {
+        byte[] value = VlmAnalysisCache.encode(VlmAnalysisCache.KIND_RESULT,
+                Collections.singletonMap("vlm:analysis", Collections.singletonList("a cat")), null);
+
+        byte[] newer = value.clone();
+        newer[0] = (byte) (VlmAnalysisCache.VERSION + 1);
+        assertNull(VlmAnalysisCache.decode(newer, "remote"));
+        assertNull(VlmAnalysisCache.decode(Arrays.copyOf(value, value.length - 2), "remote"));
+        assertNull(VlmAnalysisCache.decode(new byte[]{VlmAnalysisCache.VERSION}, "remote"));
+        assertNull(VlmAnalysisCache.decode("a cat".getBytes(StandardCharsets.UTF_8), "remote"));
+    }
+
+    @Test
+    void unknownFieldIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> VlmAnalysisCache.encode(VlmAnalysisCache.KIND_RESULT,
+                Collections.singletonMap("dc:title", Collections.singletonList("x")), null));
+    }
+
+    @Test
+    void hitReplacesFieldsAndMarksTheLevel() {
+        Map<String, List<String>> fields = Collections.singletonMap("vlm:tags", Arrays.asList("cat", "sofa"));
+        VlmAnalysisCache.Hit hit = VlmAnalysisCache.decode(
+                VlmAnalysisCache.encode(VlmAnalysisCache.KIND_RESULT, fields, null), "near");
+        Metadata md = new Metadata();
+        md.add("vlm:tags", "stale");
+
+        hit.applyTo(md);
+
+        assertArrayEquals(new String[]{"cat", "sofa"}, md.getValues("vlm:tags"));
+        assertEquals("near", md.get("vlm:cache"));
+
+        Metadata failed = new Metadata();
+        VlmAnalysisCache.decode(VlmAnalysisCache.encode(VlmAnalysisCache.KIND_FAILURE,
+                Collections.emptyMap(), "rejected"), "remote").applyTo(failed);
+        assertEquals("negative-remote", failed.get("vlm:cache"));
+    }
+}
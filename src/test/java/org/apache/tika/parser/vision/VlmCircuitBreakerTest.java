@@ -0,0 +1,113 @@
+package org.apache.tika.parser.vision;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VlmCircuitBreakerTest {
+
+    private static final long FAST = 10;
+    private static final long SLOW = 500;
+
+    @Test
+    void opensOnceEnoughCallsFail() {
+        VlmCircuitBreaker breaker = new VlmCircuitBreaker(10, 4, 50, 80, 100, 60, 3);
+
+        record(breaker, 3, FAST, false);
+        assertEquals(VlmCircuitBreaker.State.CLOSED, breaker.getState());
+        record(breaker, 1, FAST, false);
+
+        assertEquals(VlmCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(2, breaker.getRejected());
+        assertEquals(1, breaker.getOpened());
+    }
+
+    @Test
+    void opensOnSlowCalls() {
+        VlmCircuitBreaker breaker = new VlmCircuitBreaker(10, 4, 50, 75, 100, 60, 3);
+
+        record(breaker, 1, FAST, true);
+        record(breaker, 2, SLOW, true);
+        assertEquals(VlmCircuitBreaker.State.CLOSED, breaker.getState());
+        record(breaker, 1, SLOW, true);
+
+        assertEquals(VlmCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void oldOutcomesSlideOutOfTheWindow() {
+        VlmCircuitBreaker breaker = new VlmCircuitBreaker(4, 4, 75, 100, 100, 60, 3);
+
+        record(breaker, 2, FAST, false);
+        record(breaker, 4, FAST, true);
+        // Window now holds four successes; two more failures are 50%, not 4 of 8
+        record(breaker, 2, FAST, false);
+        assertEquals(VlmCircuitBreaker.State.CLOSED, breaker.getState());
+        record(breaker, 1, FAST, false);
+
+        assertEquals(VlmCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void successfulProbesClose() {
+        VlmCircuitBreaker breaker = openedBreaker(2);
+
+        assertTrue(breaker.tryAcquire());
+        assertEquals(VlmCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        breaker.record(FAST, true);
+        assertEquals(VlmCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.record(FAST, true);
+
+        assertEquals(VlmCircuitBreaker.State.CLOSED, breaker.getState());
+        // Closing starts a fresh window: the earlier failures no longer count
+        record(breaker, 1, FAST, false);
+        assertEquals(VlmCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void failedOrSlowProbeReopens() {
+        VlmCircuitBreaker failed = openedBreaker(2);
+        assertTrue(failed.tryAcquire());
+        failed.record(FAST, false);
+        assertEquals(VlmCircuitBreaker.State.OPEN, failed.getState());
+        assertEquals(2, failed.getOpened());
+
+        VlmCircuitBreaker slow = openedBreaker(2);
+        assertTrue(slow.tryAcquire());
+        slow.record(SLOW, true);
+        assertEquals(VlmCircuitBreaker.State.OPEN, slow.getState());
+    }
+
+    @Test
+    void releasedProbeFreesItsSlot() {
+        VlmCircuitBreaker breaker = openedBreaker(1);
+
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        breaker.release();
+
+        assertTrue(breaker.tryAcquire());
+        breaker.record(FAST, true);
+        assertEquals(VlmCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    /** A breaker that has just opened; with no open period the next call is a probe. */
+    private static VlmCircuitBreaker openedBreaker(int halfOpenCalls) {
+        VlmCircuitBreaker breaker = new VlmCircuitBreaker(10, 2, 50, 80, 100, 0, halfOpenCalls);
+        record(breaker, 2, FAST, false);
+        assertEquals(VlmCircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+
+    private static void record(VlmCircuitBreaker breaker, int calls, long latencyMillis, boolean success) {
+        for (int i = 0; i < calls; i++) {
+            breaker.record(latencyMillis, success);
+        }
+    }
+}
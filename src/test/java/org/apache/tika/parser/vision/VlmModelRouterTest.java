@@ -0,0 +1,73 @@
+package org.apache.tika.parser.vision;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class VlmModelRouterTest {
+
+    private static final byte[] SMALL = new byte[5];
+    private static final byte[] LARGE = new byte[50];
+
+    @AfterEach
+    void clearRules() {
+        System.clearProperty("tika.vlm.modelRules");
+    }
+
+    @Test
+    void noRulesAlwaysGiveTheDefault() {
+        VlmModelRouter router = VlmModelRouter.fromConfig("gpt-4o", 1000);
+
+        VlmModelRouter.Route route = router.route(LARGE, "image/png");
+
+        assertSame(router.defaultRoute(), route);
+        assertEquals("gpt-4o", route.model);
+        assertEquals(1000, route.maxTokens);
+        assertEquals("default", route.rule);
+    }
+
+    @Test
+    void firstMatchingRuleWins() {
+        VlmModelRouter router = rules("maxBytes=10 => gpt-4o-mini:150; mime=image/png|image/gif => small:400");
+
+        assertRoute(router.route(SMALL, "image/png"), "gpt-4o-mini", 150);
+        assertRoute(router.route(LARGE, "IMAGE/GIF"), "small", 400);
+        assertSame(router.defaultRoute(), router.route(LARGE, "image/jpeg"));
+        assertSame(router.defaultRoute(), router.route(LARGE, null));
+    }
+
+    @Test
+    void onlyAnAllDigitSuffixIsTheBudget() {
+        assertRoute(rules("=> llava:13b").route(LARGE, "image/png"), "llava:13b", 1000);
+        assertRoute(rules("=> qwen:7:400").route(LARGE, "image/png"), "qwen:7", 400);
+        assertRoute(rules("=> gpt-4o-mini:").route(LARGE, "image/png"), "gpt-4o-mini:", 1000);
+        assertRoute(rules("=> gpt-4o-mini").route(LARGE, "image/png"), "gpt-4o-mini", 1000);
+    }
+
+    @Test
+    void emptyModelKeepsTheConfiguredOne() {
+        assertRoute(rules("minBytes=10 => :1500").route(LARGE, "image/png"), "gpt-4o", 1500);
+    }
+
+    @Test
+    void invalidRulesAreSkipped() {
+        VlmModelRouter router = rules("colour=red => a:1; maxBytes=ten => b:2; no arrow; minBytes=0 => c:3");
+
+        VlmModelRouter.Route route = router.route(SMALL, "image/png");
+
+        assertRoute(route, "c", 3);
+        assertEquals("minBytes=0 => c:3", route.rule);
+    }
+
+    private static VlmModelRouter rules(String spec) {
+        System.setProperty("tika.vlm.modelRules", spec);
+        return VlmModelRouter.fromConfig("gpt-4o", 1000);
+    }
+
+    private static void assertRoute(VlmModelRouter.Route route, String model, int maxTokens) {
+        assertEquals(model, route.model);
+        assertEquals(maxTokens, route.maxTokens);
+    }
+}
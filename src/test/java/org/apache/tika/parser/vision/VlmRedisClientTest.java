@@ -0,0 +1,130 @@
+package org.apache.tika.parser.vision;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VlmRedisClientTest {
+
+    @Test
+    void commandIsAnArrayOfBulkStrings() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        VlmRedisClient.writeCommand(out, new byte[][]{
+                VlmRedisClient.bytes("SET"), VlmRedisClient.bytes("k"), new byte[]{'\r', '\n', 0}});
+
+        assertEquals("*3\r\n$3\r\nSET\r\n$1\r\nk\r\n$3\r\n\r\n\0\r\n", out.toString(StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    void readsEveryReplyType() throws IOException {
+        DataInputStream in = replies("+OK\r\n:42\r\n$5\r\nhello\r\n$-1\r\n*2\r\n$1\r\na\r\n:7\r\n*-1\r\n$0\r\n\r\n");
+
+        assertEquals("OK", VlmRedisClient.readReply(in));
+        assertEquals(42L, VlmRedisClient.readReply(in));
+        assertArrayEquals(VlmRedisClient.bytes("hello"), (byte[]) VlmRedisClient.readReply(in));
+        assertNull(VlmRedisClient.readReply(in));
+        Object[] array = (Object[]) VlmRedisClient.readReply(in);
+        assertArrayEquals(VlmRedisClient.bytes("a"), (byte[]) array[0]);
+        assertEquals(7L, array[1]);
+        assertNull(VlmRedisClient.readReply(in));
+        assertArrayEquals(new byte[0], (byte[]) VlmRedisClient.readReply(in));
+    }
+
+    @Test
+    void bulkStringsAreBinarySafe() throws IOException {
+        DataInputStream in = replies("$4\r\n\r\n\r\n\r\n:1\r\n");
+
+        assertArrayEquals(VlmRedisClient.bytes("\r\n\r\n"), (byte[]) VlmRedisClient.readReply(in));
+        assertEquals(1L, VlmRedisClient.readReply(in));
+    }
+
+    @Test
+    void errorReplyFailsOnlyItsRequest() throws IOException {
+        DataInputStream in = replies("-WRONGTYPE Operation against a key\r\n+OK\r\n");
+
+        IOException e = assertThrows(VlmRedisClient.RedisError.class, () -> VlmRedisClient.readReply(in));
+        assertEquals("WRONGTYPE Operation against a key", e.getMessage());
+        assertEquals("OK", VlmRedisClient.readReply(in));
+    }
+
+    @Test
+    void errorInsideArrayKeepsLaterRepliesInStep() throws IOException {
+        DataInputStream in = replies("*3\r\n$1\r\na\r\n-ERR first\r\n*1\r\n-ERR nested\r\n+OK\r\n");
+
+        IOException e = assertThrows(VlmRedisClient.RedisError.class, () -> VlmRedisClient.readReply(in));
+        assertEquals("ERR first", e.getMessage());
+        assertEquals("OK", VlmRedisClient.readReply(in));
+    }
+
+    @Test
+    void stalledServerFailsPendingRequests() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            VlmRedisClient.Pipeline pipeline = client(server).pipeline("vlm-test-redis", 100);
+            try (Socket ignored = server.accept()) {
+                CompletableFuture<Object> reply = pipeline.send(VlmRedisClient.bytes("GET"), VlmRedisClient.bytes("k"));
+
+                ExecutionException e = assertThrows(ExecutionException.class, () -> reply.get(5, TimeUnit.SECONDS));
+                assertTrue(e.getCause().getMessage().startsWith("No reply from Redis"), e.getCause().toString());
+                assertTrue(pipeline.isClosed());
+            }
+        }
+    }
+
+    @Test
+    void idlePipelineStaysOpen() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            VlmRedisClient.Pipeline pipeline = client(server).pipeline("vlm-test-redis", 100);
+            try (Socket peer = server.accept()) {
+                Thread.sleep(350);
+                assertFalse(pipeline.isClosed());
+
+                CompletableFuture<Object> reply = pipeline.send(VlmRedisClient.bytes("PING"));
+                peer.getOutputStream().write("+PONG\r\n".getBytes(StandardCharsets.US_ASCII));
+
+                assertEquals("PONG", reply.get(5, TimeUnit.SECONDS));
+            }
+        }
+    }
+
+    @Test
+    void closedOrGarbledStreamsFail() {
+        assertThrows(EOFException.class, () -> VlmRedisClient.readReply(replies("")));
+        assertThrows(EOFException.class, () -> VlmRedisClient.readReply(replies("$5\r\nhel")));
+        assertThrows(IOException.class, () -> VlmRedisClient.readReply(replies("?what\r\n")));
+    }
+
+    @Test
+    void parsesTheServerUri() {
+        assertEquals("cache.local:6379", new VlmRedisClient(URI.create("redis://cache.local")).address());
+        assertEquals("10.0.0.5:6380", new VlmRedisClient(URI.create("redis://:secret@10.0.0.5:6380/2")).address());
+        assertThrows(IllegalArgumentException.class, () -> new VlmRedisClient(URI.create("redis:///1")));
+    }
+
+    private static VlmRedisClient client(ServerSocket server) {
+        return new VlmRedisClient(URI.create("redis://127.0.0.1:" + server.getLocalPort()));
+    }
+
+    private static DataInputStream replies(String wire) {
+        return new DataInputStream(new ByteArrayInputStream(wire.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+}
@@ -0,0 +1,78 @@
+package org.apache.tika.parser.vision;
+
+import org.apache.tika.metadata.Metadata;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VlmStructuredOutputTest {
+
+    private final VlmStructuredOutput structured = new VlmStructuredOutput();
+
+    @Test
+    void jsonAnswerFillsTypedFields() throws IOException {
+        Metadata md = new Metadata();
+
+        String summary = structured.apply("{\"objects\":[\"cat\",\" sofa \"],\"text\":\"SALE 50%\","
+                + "\"scene\":\"A cat on a sofa.\",\"tags\":[\"Indoor  Scene\",\"PET\"]}", md);
+
+        assertEquals("A cat on a sofa.\n\nText: SALE 50%", summary);
+        assertArrayEquals(new String[]{"cat", "sofa"}, md.getValues(VlmStructuredOutput.OBJECTS));
+        assertArrayEquals(new String[]{"indoor scene", "pet"}, md.getValues(VlmStructuredOutput.TAGS));
+        assertEquals("SALE 50%", md.get(VlmStructuredOutput.TEXT));
+        assertEquals("A cat on a sofa.", md.get(VlmStructuredOutput.SCENE));
+    }
+
+    @Test
+    void unexpectedValuesAreSkipped() throws IOException {
+        Metadata md = new Metadata();
+
+        String summary = structured.apply("{\"confidence\":{\"overall\":0.9,\"per\":[1,2]},"
+                + "\"objects\":[\"lamp\",3,{\"name\":\"x\"},\"\"],\"tags\":\"not a list\",\"text\":\"\","
+                + "\"scene\":null}", md);
+
+        assertEquals("", summary);
+        assertArrayEquals(new String[]{"lamp"}, md.getValues(VlmStructuredOutput.OBJECTS));
+        assertEquals(0, md.getValues(VlmStructuredOutput.TAGS).length);
+        assertNull(md.get(VlmStructuredOutput.TEXT));
+        assertNull(md.get(VlmStructuredOutput.SCENE));
+    }
+
+    @Test
+    void truncatedJsonFailsAndLeavesMetadataAlone() {
+        Metadata md = new Metadata();
+
+        IOException e = assertThrows(IOException.class, () -> structured.apply(
+                "{\"objects\":[\"cat\",\"sofa\"],\"text\":\"SALE\",\"scene\":\"A cat on a so", md));
+
+        assertTrue(e.getMessage().startsWith("Incomplete structured answer"));
+        assertEquals(0, md.names().length);
+        assertThrows(IOException.class, () -> structured.apply("{\"objects\":[\"cat\"]", md));
+        assertEquals(0, md.names().length);
+    }
+
+    @Test
+    void proseAnswerFallsBackToListsAndScene() throws IOException {
+        Metadata md = new Metadata();
+
+        String summary = structured.apply("A living room.\n\n- cat\n2) sofa\n* lamp\nWarm light.", md);
+
+        assertEquals("A living room. Warm light.", summary);
+        assertArrayEquals(new String[]{"cat", "sofa", "lamp"}, md.getValues(VlmStructuredOutput.OBJECTS));
+        assertEquals("A living room. Warm light.", md.get(VlmStructuredOutput.SCENE));
+    }
+
+    @Test
+    void listOnlyProseKeepsTheAnswer() throws IOException {
+        Metadata md = new Metadata();
+
+        assertEquals("- cat\n- sofa", structured.apply(" - cat\n- sofa \n", md));
+        assertNull(md.get(VlmStructuredOutput.SCENE));
+    }
+}
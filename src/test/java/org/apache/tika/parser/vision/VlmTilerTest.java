@@ -0,0 +1,128 @@
+package org.apache.tika.parser.vision;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VlmTilerTest {
+
+    private static final Pattern AREA = Pattern.compile("x=(\\d+)\\.\\.(\\d+), y=(\\d+)\\.\\.(\\d+)");
+
+    @Test
+    void overlappingTilesCoverTheImage() throws Exception {
+        // 256px tiles, 32px overlap: 600 wide needs 3 columns, 300 high 2 rows
+        VlmTiler tiler = new VlmTiler(256, 32, 1000, 16, 2, false);
+        List<int[]> areas = new CopyOnWriteArrayList<>();
+        List<int[]> sizes = new CopyOnWriteArrayList<>();
+        int[] stats = new int[1];
+
+        String merged = tiler.analyze(png(600, 300), new int[]{600, 300}, (png, note) -> {
+            areas.add(area(note));
+            sizes.add(size(png));
+            return "tile";
+        }, text -> "summary", stats);
+
+        assertEquals(6, stats[0]);
+        assertEquals(6, areas.size());
+        assertTrue(merged.startsWith("[Tile 1,1]"));
+        assertTrue(merged.contains("[Tile 2,3]"));
+        int maxX = 0;
+        int maxY = 0;
+        for (int[] a : areas) {
+            assertTrue(a[1] - a[0] <= 256 && a[3] - a[2] <= 256);
+            maxX = Math.max(maxX, a[1]);
+            maxY = Math.max(maxY, a[3]);
+        }
+        assertEquals(600, maxX);
+        assertEquals(300, maxY);
+        for (int[] s : sizes) {
+            assertTrue(s[0] <= 256 && s[1] <= 256);
+        }
+    }
+
+    @Test
+    void largeGridsAreSubsampledToMaxTiles() throws Exception {
+        // 1200x1200 would be 6x6 tiles; subsampling by 3 gives 2x2 regions of 768px
+        VlmTiler tiler = new VlmTiler(256, 32, 1000, 4, 2, false);
+        List<int[]> sizes = new CopyOnWriteArrayList<>();
+        int[] stats = new int[1];
+
+        tiler.analyze(png(1200, 1200), new int[]{1200, 1200}, (png, note) -> {
+            sizes.add(size(png));
+            return "tile";
+        }, text -> "summary", stats);
+
+        assertEquals(4, stats[0]);
+        for (int[] s : sizes) {
+            assertEquals(256, s[0]);
+            assertEquals(256, s[1]);
+        }
+    }
+
+    @Test
+    void summaryOnlyForSeveralTiles() throws Exception {
+        VlmTiler tiler = new VlmTiler(256, 32, 1000, 16, 2, true);
+        AtomicInteger summaries = new AtomicInteger();
+
+        String one = tiler.analyze(png(200, 200), new int[]{200, 200}, (png, note) -> "only tile",
+                text -> "summary " + summaries.incrementAndGet(), new int[1]);
+        String several = tiler.analyze(png(400, 200), new int[]{400, 200}, (png, note) -> "tile",
+                text -> "summary " + summaries.incrementAndGet(), new int[1]);
+
+        assertEquals("[Tile 1,1]\nonly tile", one);
+        assertEquals("summary 1", several);
+    }
+
+    @Test
+    void tilesOnlyWhenTooLargeOrTooBig() throws IOException {
+        VlmTiler tiler = new VlmTiler(256, 32, 1000, 16, 2, false);
+        byte[] small = png(300, 200);
+        byte[] wide = png(1200, 100);
+
+        assertNull(tiler.tileDimensions(small, Integer.MAX_VALUE));
+        int[] size = tiler.tileDimensions(small, small.length - 1);
+        assertNotNull(size);
+        assertEquals(300, size[0]);
+        assertEquals(200, size[1]);
+        assertNotNull(tiler.tileDimensions(wide, Integer.MAX_VALUE));
+        assertNull(tiler.tileDimensions(new byte[]{1, 2, 3}, 1));
+    }
+
+    private static byte[] png(int width, int height) throws IOException {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, (x * 7) ^ (y * 13));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", out);
+        return out.toByteArray();
+    }
+
+    private static int[] size(byte[] png) throws IOException {
+        BufferedImage img = ImageIO.read(new ByteArrayInputStream(png));
+        return new int[]{img.getWidth(), img.getHeight()};
+    }
+
+    private static int[] area(String note) {
+        Matcher m = AREA.matcher(note);
+        assertTrue(m.find(), note);
+        return new int[]{Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)),
+                Integer.parseInt(m.group(3)), Integer.parseInt(m.group(4))};
+    }
+}
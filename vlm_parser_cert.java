@@ -35,7 +35,10 @@ import java.time.Duration;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -61,6 +64,9 @@ public class VisionLanguageModelParser extends AbstractParser {
     private int timeout = 30;
     private String customCertificate; // הסרטיפיקט כמחרוזת
     
+    // Numbered or bulleted line; group 1 is the item without its marker
+    private static final Pattern LIST_ITEM = Pattern.compile("^(?=\\d+[).]|[-*])[\\d).*-]+\\s*(.*)$");
+
     private static final String DEFAULT_PROMPT = "Please analyze this image and provide a detailed description " +
                                                "including: 1) Main subjects and objects, 2) Text content if any, " +
                                                "3) Scene/setting, 4) Colors and composition, 5) Any notable details. " +
@@ -454,31 +460,30 @@ public class VisionLanguageModelParser extends AbstractParser {
     private void extractAndAddEntities(String analysis, Metadata metadata, 
                                       XHTMLContentHandler xhtml) 
             throws SAXException {
-        if (analysis.toLowerCase().contains("text:") || 
-            analysis.toLowerCase().contains("writing:")) {
+        String lower = analysis.toLowerCase(Locale.ROOT);
+        if (lower.contains("text:") || lower.contains("writing:")) {
             metadata.add("extracted_text_from_vision", "true");
         }
         
-        if (analysis.toLowerCase().contains("object") || 
-            analysis.toLowerCase().contains("person") ||
-            analysis.toLowerCase().contains("animal")) {
+        if (lower.contains("object") || lower.contains("person") || lower.contains("animal")) {
             metadata.add("objects_detected", "true");
         }
         
         String[] lines = analysis.split("\n");
         boolean inList = false;
+        Matcher item = LIST_ITEM.matcher("");
         
         for (String line : lines) {
             line = line.trim();
             if (line.isEmpty()) continue;
             
-            if (line.matches("^\\d+[)\\.].*") || line.startsWith("-") || line.startsWith("*")) {
+            if (item.reset(line).matches()) {
                 if (!inList) {
                     xhtml.startElement("ul");
                     inList = true;
                 }
                 xhtml.startElement("li");
-                xhtml.characters(line.replaceFirst("^[\\d)\\.*-]+\\s*", ""));
+                xhtml.characters(item.group(1));
                 xhtml.endElement("li");
             } else {
                 if (inList) {